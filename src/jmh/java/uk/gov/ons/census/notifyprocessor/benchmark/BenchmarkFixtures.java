@@ -0,0 +1,149 @@
+package uk.gov.ons.census.notifyprocessor.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.client.UacQidServiceClient;
+import uk.gov.ons.census.notifyprocessor.client.UacQidSink;
+import uk.gov.ons.census.notifyprocessor.config.AppConfig;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties.Template;
+import uk.gov.ons.census.notifyprocessor.model.Contact;
+import uk.gov.ons.census.notifyprocessor.model.Event;
+import uk.gov.ons.census.notifyprocessor.model.EventType;
+import uk.gov.ons.census.notifyprocessor.model.FulfilmentRequest;
+import uk.gov.ons.census.notifyprocessor.model.Payload;
+import uk.gov.ons.census.notifyprocessor.model.ResponseManagementEvent;
+import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper;
+
+/*
+ * Everything the benchmarks need, built without Spring, a broker or the network, and from fixed
+ * data, so that runs on different machines and days are comparable.
+ */
+public final class BenchmarkFixtures {
+  private BenchmarkFixtures() {}
+
+  public static TemplateMapper templateMapper() {
+    NotifyTemplateProperties properties = new NotifyTemplateProperties();
+    addTemplate(properties, "UACHHT1", 1, false);
+    addTemplate(properties, "UACHHT2", 2, false);
+    addTemplate(properties, "UACHHT2W", 3, false);
+    addTemplate(properties, "UACHHT4", 4, false);
+    addTemplate(properties, "UACIT1", 21, true);
+    addTemplate(properties, "UACIT2", 22, true);
+    addTemplate(properties, "UACIT2W", 23, true);
+    addTemplate(properties, "UACIT4", 24, true);
+    addTemplate(properties, "UACCET1", 31, false);
+    addTemplate(properties, "UACCET2", 32, false);
+    addTemplate(properties, "UACCET2W", 33, false);
+    addTemplate(properties, "UACITA1", 21, true);
+    addTemplate(properties, "UACITA2B", 22, true);
+    addTemplate(properties, "UACITA4", 24, true);
+    return new TemplateMapper(properties);
+  }
+
+  private static void addTemplate(
+      NotifyTemplateProperties properties,
+      String fulfilmentCode,
+      int questionnaireType,
+      boolean individual) {
+    Template template = new Template();
+    template.setQuestionnaireType(questionnaireType);
+    template.setTemplateId(fulfilmentCode + "-template");
+    template.setIndividual(individual);
+    properties.getTemplates().put(fulfilmentCode, template);
+  }
+
+  public static Jackson2JsonMessageConverter messageConverter() {
+    AppConfig appConfig = new AppConfig();
+    return appConfig.messageConverter(appConfig.objectMapper());
+  }
+
+  // Converts each message exactly as the real template would, then drops it
+  public static RabbitTemplate stubRabbitTemplate() {
+    RabbitTemplate rabbitTemplate =
+        new RabbitTemplate() {
+          @Override
+          public void convertAndSend(String exchange, String routingKey, Object object) {
+            Message message = getMessageConverter().toMessage(object, new MessageProperties());
+            lastMessage = message;
+          }
+        };
+    rabbitTemplate.setMessageConverter(messageConverter());
+    return rabbitTemplate;
+  }
+
+  @SuppressWarnings("unused")
+  private static volatile Message lastMessage;
+
+  public static ResponseManagementEvent fulfilmentEvent(String fulfilmentCode) {
+    Event event = new Event();
+    event.setType(EventType.FULFILMENT_REQUESTED);
+    event.setSource("CONTACT_CENTRE_API");
+    event.setChannel("CC");
+    event.setDateTime(OffsetDateTime.parse("2020-06-01T12:00:00Z"));
+    event.setTransactionId(UUID.fromString("6b4b1e3a-3a2d-4c5e-8f41-2f0b0b8c7d11"));
+
+    Contact contact = new Contact();
+    contact.setTelNo("07700900345");
+
+    FulfilmentRequest fulfilmentRequest = new FulfilmentRequest();
+    fulfilmentRequest.setCaseId(UUID.fromString("0d4d5a4f-9ea3-4b3a-8ce3-1f5a2a1b3c4d"));
+    fulfilmentRequest.setFulfilmentCode(fulfilmentCode);
+    fulfilmentRequest.setContact(contact);
+
+    Payload payload = new Payload();
+    payload.setFulfilmentRequest(fulfilmentRequest);
+
+    ResponseManagementEvent responseManagementEvent = new ResponseManagementEvent();
+    responseManagementEvent.setEvent(event);
+    responseManagementEvent.setPayload(payload);
+    return responseManagementEvent;
+  }
+
+  // Hands out realistic, unique 16 character UACs and QIDs instantly
+  public static class StubUacQidServiceClient extends UacQidServiceClient {
+    private final AtomicLong sequence = new AtomicLong();
+
+    public StubUacQidServiceClient() {
+      super(
+          "http",
+          "localhost",
+          "8164",
+          1000,
+          1000,
+          Runnable::run,
+          new CircuitBreaker("uacQidService", 10, 30000, new SimpleMeterRegistry()),
+          new SimpleMeterRegistry());
+    }
+
+    @Override
+    public CompletableFuture<Integer> streamUacQids(
+        Integer questionnaireType, int numberToCreate, UacQidSink sink) {
+      StringBuilder uac = new StringBuilder(16);
+      StringBuilder qid = new StringBuilder(16);
+
+      for (int i = 0; i < numberToCreate; i++) {
+        long id = sequence.incrementAndGet();
+        String uacSuffix = Long.toString(id, 36);
+        uac.setLength(0);
+        for (int pad = uacSuffix.length(); pad < 16; pad++) {
+          uac.append('a');
+        }
+        uac.append(uacSuffix);
+        qid.setLength(0);
+        qid.append(String.format("%02d%014d", questionnaireType, id));
+        sink.accept(uac, qid);
+      }
+
+      return CompletableFuture.completedFuture(numberToCreate);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package uk.gov.ons.census.notifyprocessor.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/*
+ * Compares a JMH JSON result file against a committed baseline and fails the build when any
+ * benchmark has got worse by more than the tolerance. Throughput scores must not fall; time scores
+ * must not rise. A benchmark with no baseline entry fails too, so that a new or renamed benchmark
+ * can't slip through unmeasured; re-record the baseline when adding one. Recording is a separate,
+ * deliberate step, done on the machine that will do the comparing, so until a baseline file has
+ * been committed for it the gate is skipped, saying so, rather than comparing against another
+ * machine's numbers.
+ *
+ * Usage: RegressionGate <result.json> <baseline.json> <tolerance, e.g. 0.10>
+ *        RegressionGate --record <result.json> <baseline.json>
+ */
+public class RegressionGate {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 3 && "--record".equals(args[0])) {
+      record(Paths.get(args[1]), Paths.get(args[2]));
+      return;
+    }
+
+    if (args.length != 3) {
+      System.err.println("Usage: RegressionGate <result.json> <baseline.json> <tolerance>");
+      System.err.println("       RegressionGate --record <result.json> <baseline.json>");
+      System.exit(2);
+    }
+
+    Path resultFile = Paths.get(args[0]);
+    Path baselineFile = Paths.get(args[1]);
+    double tolerance = Double.parseDouble(args[2]);
+
+    if (!Files.exists(baselineFile)) {
+      System.out.println(
+          "SKIPPED the regression gate, there is no baseline at "
+              + baselineFile
+              + ". Record one on this machine with mvn -Pbenchmark exec:exec@jmh-baseline and"
+              + " commit it");
+      return;
+    }
+
+    List<String> regressions = compare(readScores(baselineFile), readScores(resultFile), tolerance);
+    if (!regressions.isEmpty()) {
+      regressions.forEach(System.err::println);
+      System.exit(1);
+    }
+
+    System.out.println("No benchmark regressed by more than " + (tolerance * 100) + "%");
+  }
+
+  static void record(Path resultFile, Path baselineFile) throws IOException {
+    // Read first, so that a missing or broken result file never replaces a good baseline
+    int benchmarkCount = readScores(resultFile).size();
+
+    if (baselineFile.getParent() != null) {
+      Files.createDirectories(baselineFile.getParent());
+    }
+    Files.copy(resultFile, baselineFile, StandardCopyOption.REPLACE_EXISTING);
+    System.out.println(
+        "Recorded " + benchmarkCount + " benchmarks from " + resultFile + " as " + baselineFile);
+  }
+
+  static List<String> compare(
+      Map<String, Score> baseline, Map<String, Score> results, double tolerance) {
+    List<String> regressions = new ArrayList<>();
+
+    for (Entry<String, Score> entry : results.entrySet()) {
+      Score before = baseline.get(entry.getKey());
+      if (before == null) {
+        regressions.add(
+            String.format("NO BASELINE %s: re-record the baseline to include it", entry.getKey()));
+        continue;
+      }
+
+      Score after = entry.getValue();
+      double change = (after.value - before.value) / before.value;
+      if (after.higherIsBetter) {
+        change = -change;
+      }
+
+      if (change > tolerance) {
+        regressions.add(
+            String.format(
+                "REGRESSION %s: %.3f -> %.3f %s (%.1f%% worse)",
+                entry.getKey(), before.value, after.value, after.unit, change * 100));
+      }
+    }
+
+    // Dropped benchmarks aren't a regression, but the baseline wants re-recording without them
+    for (String benchmark : baseline.keySet()) {
+      if (!results.containsKey(benchmark)) {
+        System.err.println("WARNING " + benchmark + " is in the baseline but wasn't run");
+      }
+    }
+
+    return regressions;
+  }
+
+  static Map<String, Score> readScores(Path file) throws IOException {
+    Map<String, Score> scores = new LinkedHashMap<>();
+
+    for (JsonNode run : (ArrayNode) objectMapper.readTree(file.toFile())) {
+      StringBuilder key = new StringBuilder(run.get("benchmark").asText());
+      key.append(" threads=").append(run.get("threads").asInt());
+
+      JsonNode params = run.get("params");
+      if (params != null) {
+        Iterator<Entry<String, JsonNode>> fields = params.fields();
+        while (fields.hasNext()) {
+          Entry<String, JsonNode> param = fields.next();
+          key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+        }
+      }
+
+      JsonNode primaryMetric = run.get("primaryMetric");
+      scores.put(
+          key.toString(),
+          new Score(
+              primaryMetric.get("score").asDouble(),
+              primaryMetric.get("scoreUnit").asText(),
+              "thrpt".equals(run.get("mode").asText())));
+    }
+
+    return scores;
+  }
+
+  static class Score {
+    final double value;
+    final String unit;
+    final boolean higherIsBetter;
+
+    Score(double value, String unit, boolean higherIsBetter) {
+      this.value = value;
+      this.unit = unit;
+      this.higherIsBetter = higherIsBetter;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+/*
+ * Taking pairs from one shared cache with 1, 8 and 50 consumers - 50 being the most listener
+ * threads we run with. Refills come from a stub client that answers instantly, so this measures
+ * the pool and the refill bookkeeping rather than the UAC QID service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(
+    value = 2,
+    jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UacQidCacheBenchmark {
+  private static final int HOUSEHOLD_ENGLAND = 1;
+
+  @Param({"PACKED_RING_BUFFER", "RING_BUFFER", "BLOCKING_QUEUE"})
+  private UacQidPoolType poolType;
+
+  private UacQidCache uacQidCache;
+
+  @Setup
+  public void setUp() {
+    uacQidCache = UacQidCacheFixtures.uacQidCache(poolType);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public UacQid getUacQidPairSingleThread() {
+    return uacQidCache.getUacQidPair(HOUSEHOLD_ENGLAND);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public UacQid getUacQidPairEightThreads() {
+    return uacQidCache.getUacQidPair(HOUSEHOLD_ENGLAND);
+  }
+
+  @Benchmark
+  @Threads(50)
+  public UacQid getUacQidPairFiftyThreads() {
+    return uacQidCache.getUacQidPair(HOUSEHOLD_ENGLAND);
+  }
+}
@@ -0,0 +1,29 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import uk.gov.ons.census.notifyprocessor.benchmark.BenchmarkFixtures;
+import uk.gov.ons.census.notifyprocessor.benchmark.BenchmarkFixtures.StubUacQidServiceClient;
+
+/*
+ * Builds the cache the benchmarks share. It lives in the cache package so that it can set the
+ * refill settings Spring would otherwise inject.
+ */
+public final class UacQidCacheFixtures {
+  public static final int POOL_CAPACITY = 1 << 16;
+  public static final int REFILL_SIZE = 1 << 14;
+
+  private UacQidCacheFixtures() {}
+
+  public static UacQidCache uacQidCache(UacQidPoolType poolType) {
+    UacQidCache uacQidCache =
+        new UacQidCache(
+            new StubUacQidServiceClient(),
+            BenchmarkFixtures.templateMapper(),
+            new SimpleMeterRegistry(),
+            poolType,
+            POOL_CAPACITY,
+            48);
+    uacQidCache.setRefillSettings(REFILL_SIZE, REFILL_SIZE, 60, 2);
+    return uacQidCache;
+  }
+}
@@ -0,0 +1,138 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.service.notify.NotificationClient;
+
+/*
+ * Sending a burst of SMS to a stub Notify on the loopback interface that takes latencyMillis to
+ * answer each one, the way the enriched fulfilment consumers would in each dispatch mode: BLOCKING
+ * with the Notify library on a pool of dispatch threads, and ASYNC with the JDK HTTP client and no
+ * thread per request. The stub answers from a scheduler, so it never limits how many requests are
+ * in flight; with blocking sends the burst takes about burst / threads * latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class NotifyDispatchBenchmark {
+  private static final String API_KEY =
+      "benchmark-ffffffff-ffff-ffff-ffff-ffffffffffff-ffffffff-ffff-ffff-ffff-ffffffffffff";
+  private static final String TEMPLATE_ID = "ce1e545e-f50f-455b-a394-88b49a36fa0c";
+  private static final Map<String, String> PERSONALISATION = Map.of("uac", "abcd2efgh3jklm4n");
+  private static final byte[] SEND_SMS_RESPONSE =
+      ("{\"id\":\"740e5834-3a29-46b4-9a6f-16142fde533a\",\"reference\":null,"
+              + "\"content\":{\"body\":\"Your code\",\"from_number\":\"ONS\"},"
+              + "\"template\":{\"id\":\""
+              + TEMPLATE_ID
+              + "\",\"version\":1,\"uri\":\"http://localhost/v2/template/1\"}}")
+          .getBytes();
+
+  @Param({"BLOCKING", "ASYNC"})
+  private String dispatchMode;
+
+  @Param({"50"})
+  private int dispatchThreads;
+
+  @Param({"500"})
+  private int burst;
+
+  @Param({"20"})
+  private int latencyMillis;
+
+  private HttpServer stubNotify;
+  private ScheduledExecutorService responder;
+  private ExecutorService dispatchExecutor;
+  private NotificationClient notificationClient;
+  private AsyncNotifyClient asyncNotifyClient;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    responder = Executors.newScheduledThreadPool(4);
+    stubNotify = HttpServer.create(new InetSocketAddress("localhost", 0), 1000);
+    stubNotify.setExecutor(Executors.newFixedThreadPool(4));
+    stubNotify.createContext(
+        "/v2/notifications/sms",
+        exchange -> {
+          exchange.getRequestBody().readAllBytes();
+          responder.schedule(() -> respond(exchange), latencyMillis, TimeUnit.MILLISECONDS);
+        });
+    stubNotify.start();
+
+    String baseUrl = "http://localhost:" + stubNotify.getAddress().getPort();
+    dispatchExecutor = Executors.newFixedThreadPool(dispatchThreads);
+    notificationClient = new NotificationClient(API_KEY, baseUrl);
+    asyncNotifyClient = new AsyncNotifyClient(API_KEY, baseUrl, 5000, 30000);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dispatchExecutor.shutdownNow();
+    stubNotify.stop(0);
+    responder.shutdownNow();
+  }
+
+  @Benchmark
+  public void sendBurst() {
+    List<CompletableFuture<?>> sends = new ArrayList<>(burst);
+
+    for (int i = 0; i < burst; i++) {
+      if ("ASYNC".equals(dispatchMode)) {
+        sends.add(
+            asyncNotifyClient.sendSms(
+                TEMPLATE_ID, "07700900001", PERSONALISATION, "benchmark", null));
+      } else {
+        sends.add(CompletableFuture.runAsync(this::sendBlocking, dispatchExecutor));
+      }
+    }
+
+    CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).join();
+  }
+
+  private void sendBlocking() {
+    try {
+      notificationClient.sendSms(TEMPLATE_ID, "07700900001", PERSONALISATION, "benchmark");
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void respond(HttpExchange exchange) {
+    try {
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(201, SEND_SMS_RESPONSE.length);
+      exchange.getResponseBody().write(SEND_SMS_RESPONSE);
+    } catch (IOException e) {
+      // The client gave up, which shows up as a failed send
+    } finally {
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import uk.gov.ons.census.notifyprocessor.benchmark.BenchmarkFixtures;
+import uk.gov.ons.census.notifyprocessor.model.ResponseManagementEvent;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(
+    value = 2,
+    jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageConverterBenchmark {
+  private Jackson2JsonMessageConverter messageConverter;
+  private ResponseManagementEvent fulfilmentEvent;
+  private Message fulfilmentMessage;
+
+  @Setup
+  public void setUp() {
+    messageConverter = BenchmarkFixtures.messageConverter();
+    fulfilmentEvent = BenchmarkFixtures.fulfilmentEvent("UACHHT1");
+    fulfilmentMessage = toMessage();
+  }
+
+  @Benchmark
+  public Message toMessage() {
+    // The listener adapter infers the payload type from the handler's argument the same way
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setInferredArgumentType(ResponseManagementEvent.class);
+    return messageConverter.toMessage(fulfilmentEvent, messageProperties);
+  }
+
+  @Benchmark
+  public Object fromMessage() {
+    return messageConverter.fromMessage(fulfilmentMessage);
+  }
+
+  @Benchmark
+  public Object roundTrip() {
+    return messageConverter.fromMessage(toMessage());
+  }
+}
@@ -0,0 +1,78 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.MessageProperties;
+import uk.gov.ons.census.notifyprocessor.benchmark.BenchmarkFixtures;
+
+/*
+ * Hashing a failed message with 1, 8 and 50 consumers. Throughput should grow with the thread
+ * count up to the number of cores. The shared digest behind a lock, as the recoverer used to hash,
+ * is kept alongside for comparison - its throughput stays flat however many threads there are.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(
+    value = 2,
+    jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageHashBenchmark {
+  private byte[] messageBody;
+  private MessageDigest sharedDigest;
+
+  @Setup
+  public void setUp() throws Exception {
+    messageBody =
+        BenchmarkFixtures.messageConverter()
+            .toMessage(BenchmarkFixtures.fulfilmentEvent("UACHHT1"), new MessageProperties())
+            .getBody();
+    sharedDigest = MessageDigest.getInstance("SHA-256");
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String hashSingleThread() {
+    return ManagedMessageRecoverer.hashMessage(messageBody);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public String hashEightThreads() {
+    return ManagedMessageRecoverer.hashMessage(messageBody);
+  }
+
+  @Benchmark
+  @Threads(50)
+  public String hashFiftyThreads() {
+    return ManagedMessageRecoverer.hashMessage(messageBody);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public byte[] sharedDigestEightThreads() {
+    synchronized (sharedDigest) {
+      return sharedDigest.digest(messageBody);
+    }
+  }
+
+  @Benchmark
+  @Threads(50)
+  public byte[] sharedDigestFiftyThreads() {
+    synchronized (sharedDigest) {
+      return sharedDigest.digest(messageBody);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package uk.gov.ons.census.notifyprocessor.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.census.notifyprocessor.benchmark.BenchmarkFixtures;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidCacheFixtures;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidPoolType;
+import uk.gov.ons.census.notifyprocessor.model.ResponseManagementEvent;
+
+/*
+ * The whole enrichment of one fulfilment request: template lookup, taking a UAC/QID pair from the
+ * cache, formatting the UAC and converting both outbound messages to JSON. Only the broker is
+ * stubbed out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(
+    value = 2,
+    jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FulfilmentRequestServiceBenchmark {
+  private static final String UAC = "abcd2efgh3jklm4n";
+
+  @Param({"UACHHT1", "UACIT2W", "UACCET1"})
+  private String fulfilmentCode;
+
+  private FulfilmentRequestService fulfilmentRequestService;
+  private ResponseManagementEvent fulfilmentEvent;
+
+  @Setup
+  public void setUp() {
+    fulfilmentRequestService =
+        new FulfilmentRequestService(
+            UacQidCacheFixtures.uacQidCache(UacQidPoolType.PACKED_RING_BUFFER),
+            BenchmarkFixtures.templateMapper(),
+            BenchmarkFixtures.stubRabbitTemplate(),
+            "enriched-fulfilment-exchange",
+            "uac-qid-created-exchange",
+            new SimpleMeterRegistry());
+    fulfilmentEvent = BenchmarkFixtures.fulfilmentEvent(fulfilmentCode);
+  }
+
+  @Benchmark
+  public void processMessage() {
+    fulfilmentRequestService.processMessage(fulfilmentEvent);
+  }
+
+  @Benchmark
+  public String formatUac() {
+    return FulfilmentRequestService.formatUac(UAC);
+  }
+}
@@ -0,0 +1,42 @@
+package uk.gov.ons.census.notifyprocessor.utilities;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.census.notifyprocessor.benchmark.BenchmarkFixtures;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(
+    value = 2,
+    jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TemplateMapperBenchmark {
+
+  // First, middle and last of the codes, plus one that is not mapped at all
+  @Param({"UACHHT1", "UACIT2W", "UACITA4", "P_OR_H1"})
+  private String fulfilmentCode;
+
+  private TemplateMapper templateMapper;
+
+  @Setup
+  public void setUp() {
+    templateMapper = BenchmarkFixtures.templateMapper();
+  }
+
+  @Benchmark
+  public TemplateRoute getTemplate() {
+    return templateMapper.getTemplate(fulfilmentCode);
+  }
+}
@@ -0,0 +1,41 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+// The original lock-based pool, and the default; the ring buffer pools are enabled per environment
+public class BlockingQueueUacQidPool implements UacQidPool {
+  private final BlockingQueue<UacQid> queue;
+  private final int capacity;
+
+  public BlockingQueueUacQidPool(int capacity) {
+    this.queue = new LinkedBlockingDeque<>(capacity);
+    this.capacity = capacity;
+  }
+
+  @Override
+  public boolean offer(UacQid uacQid) {
+    return queue.offer(uacQid);
+  }
+
+  @Override
+  public UacQid poll() {
+    return queue.poll();
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  @Override
+  public int capacity() {
+    return capacity;
+  }
+
+  @Override
+  public long getContentionCount() {
+    return 0; // Not measurable: contention is hidden inside the queue's lock
+  }
+}
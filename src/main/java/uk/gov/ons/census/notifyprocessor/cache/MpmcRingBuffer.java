@@ -0,0 +1,50 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Bounded, lock-free, multi-producer multi-consumer queue of objects
+public class MpmcRingBuffer<E> {
+  private final RingSequencer sequencer;
+  private final AtomicReferenceArray<E> buffer;
+
+  public MpmcRingBuffer(int requestedCapacity) {
+    sequencer = new RingSequencer(requestedCapacity);
+    buffer = new AtomicReferenceArray<>(sequencer.capacity());
+  }
+
+  public boolean offer(E element) {
+    long position = sequencer.claimOffer();
+    if (position < 0) {
+      return false; // Full
+    }
+
+    buffer.lazySet(sequencer.index(position), element);
+    sequencer.publishOffer(position);
+    return true;
+  }
+
+  public E poll() {
+    long position = sequencer.claimPoll();
+    if (position < 0) {
+      return null; // Empty
+    }
+
+    int index = sequencer.index(position);
+    E element = buffer.get(index);
+    buffer.lazySet(index, null);
+    sequencer.releasePoll(position);
+    return element;
+  }
+
+  public int size() {
+    return sequencer.size();
+  }
+
+  public int capacity() {
+    return sequencer.capacity();
+  }
+
+  public long getCasRetries() {
+    return sequencer.getCasRetries();
+  }
+}
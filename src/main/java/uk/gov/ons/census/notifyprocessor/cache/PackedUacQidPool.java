@@ -0,0 +1,148 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+/*
+ * A ring buffer pool which holds its pairs as ASCII bytes in one preallocated array of fixed-width
+ * slots (a length byte each for the UAC and the QID, then the characters), rather than as a
+ * UacQid and two Strings per pair. Pairs are only turned back into a UacQid when taken. A pair
+ * which isn't ASCII or doesn't fit in a slot is marked as such and held as an object alongside the
+ * slot instead, so the pool stays first in, first out. A UAC or QID longer than a length byte can
+ * describe is no real UAC or QID, so it is rejected and counted rather than pooled.
+ */
+public class PackedUacQidPool implements UacQidPool {
+  private static final int LENGTH_BYTES = 2;
+  private static final int MAX_LENGTH = 0xFE;
+  private static final byte HELD_AS_OBJECT = (byte) 0xFF;
+
+  private final RingSequencer sequencer;
+  private final int slotBytes;
+  private final byte[] slots;
+  private final AtomicReferenceArray<UacQid> unpackable;
+  private final LongAdder rejected = new LongAdder();
+
+  public PackedUacQidPool(int capacity, int slotBytes) {
+    this.sequencer = new RingSequencer(capacity);
+    this.slotBytes = slotBytes;
+    this.slots = new byte[sequencer.capacity() * slotBytes];
+    this.unpackable = new AtomicReferenceArray<>(sequencer.capacity());
+  }
+
+  @Override
+  public boolean offer(UacQid uacQid) {
+    return offer(uacQid.getUac(), uacQid.getQid());
+  }
+
+  @Override
+  public boolean offer(CharSequence uac, CharSequence qid) {
+    if (isTooLong(uac) || isTooLong(qid)) {
+      rejected.increment();
+      return false;
+    }
+
+    long position = sequencer.claimOffer();
+    if (position < 0) {
+      return false; // Full
+    }
+
+    int index = sequencer.index(position);
+    int offset = index * slotBytes;
+
+    if (isPackable(uac, qid)) {
+      slots[offset] = (byte) uac.length();
+      slots[offset + 1] = (byte) qid.length();
+      offset = pack(uac, offset + LENGTH_BYTES);
+      pack(qid, offset);
+    } else {
+      UacQid uacQid = new UacQid();
+      uacQid.setUac(uac == null ? null : uac.toString());
+      uacQid.setQid(qid == null ? null : qid.toString());
+      slots[offset] = HELD_AS_OBJECT;
+      unpackable.lazySet(index, uacQid);
+    }
+
+    sequencer.publishOffer(position);
+    return true;
+  }
+
+  @Override
+  public UacQid poll() {
+    long position = sequencer.claimPoll();
+    if (position < 0) {
+      return null; // Empty
+    }
+
+    int index = sequencer.index(position);
+    int offset = index * slotBytes;
+    UacQid uacQid;
+
+    if (slots[offset] == HELD_AS_OBJECT) {
+      uacQid = unpackable.get(index);
+      unpackable.lazySet(index, null);
+    } else {
+      int uacLength = slots[offset] & 0xFF;
+      int qidLength = slots[offset + 1] & 0xFF;
+      offset += LENGTH_BYTES;
+
+      uacQid = new UacQid();
+      uacQid.setUac(new String(slots, offset, uacLength, StandardCharsets.ISO_8859_1));
+      uacQid.setQid(new String(slots, offset + uacLength, qidLength, StandardCharsets.ISO_8859_1));
+    }
+
+    sequencer.releasePoll(position);
+    return uacQid;
+  }
+
+  @Override
+  public int size() {
+    return sequencer.size();
+  }
+
+  @Override
+  public int capacity() {
+    return sequencer.capacity();
+  }
+
+  @Override
+  public long getContentionCount() {
+    return sequencer.getCasRetries();
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  private static boolean isTooLong(CharSequence value) {
+    return value != null && value.length() > MAX_LENGTH;
+  }
+
+  private boolean isPackable(CharSequence uac, CharSequence qid) {
+    if (uac == null || qid == null || uac.length() + qid.length() > slotBytes - LENGTH_BYTES) {
+      return false;
+    }
+
+    return isAscii(uac) && isAscii(qid);
+  }
+
+  private static boolean isAscii(CharSequence value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private int pack(CharSequence value, int offset) {
+    for (int i = 0; i < value.length(); i++) {
+      slots[offset++] = (byte) value.charAt(i);
+    }
+
+    return offset;
+  }
+}
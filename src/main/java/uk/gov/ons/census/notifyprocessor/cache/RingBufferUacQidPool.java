@@ -0,0 +1,36 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+public class RingBufferUacQidPool implements UacQidPool {
+  private final MpmcRingBuffer<UacQid> ringBuffer;
+
+  public RingBufferUacQidPool(int capacity) {
+    ringBuffer = new MpmcRingBuffer<>(capacity);
+  }
+
+  @Override
+  public boolean offer(UacQid uacQid) {
+    return ringBuffer.offer(uacQid);
+  }
+
+  @Override
+  public UacQid poll() {
+    return ringBuffer.poll();
+  }
+
+  @Override
+  public int size() {
+    return ringBuffer.size();
+  }
+
+  @Override
+  public int capacity() {
+    return ringBuffer.capacity();
+  }
+
+  @Override
+  public long getContentionCount() {
+    return ringBuffer.getCasRetries();
+  }
+}
@@ -0,0 +1,99 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The slot bookkeeping of a bounded, lock-free, multi-producer multi-consumer array queue (Dmitry
+ * Vyukov's). Each slot has a sequence number which tells producers and consumers whether the slot
+ * is free for their lap around the buffer, so the only contended operation is a CAS on the enqueue
+ * or dequeue position. The slot storage itself belongs to the caller: claim a slot, read or write
+ * it, then publish or release it. The volatile sequence write in publish/release is what makes the
+ * caller's plain reads and writes of the slot visible to the other side.
+ */
+class RingSequencer {
+  private final int mask;
+  private final AtomicLongArray sequences;
+  private final AtomicLong enqueuePosition = new AtomicLong();
+  private final AtomicLong dequeuePosition = new AtomicLong();
+  private final LongAdder casRetries = new LongAdder();
+
+  RingSequencer(int requestedCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(1, requestedCapacity - 1)) << 1;
+    mask = capacity - 1;
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  // Returns the claimed position, or -1 if the buffer is full
+  long claimOffer() {
+    long position = enqueuePosition.get();
+
+    while (true) {
+      long difference = sequences.get(index(position)) - position;
+
+      if (difference == 0) {
+        if (enqueuePosition.compareAndSet(position, position + 1)) {
+          return position;
+        }
+
+        casRetries.increment();
+        position = enqueuePosition.get();
+      } else if (difference < 0) {
+        return -1;
+      } else {
+        position = enqueuePosition.get();
+      }
+    }
+  }
+
+  void publishOffer(long position) {
+    sequences.set(index(position), position + 1);
+  }
+
+  // Returns the claimed position, or -1 if the buffer is empty
+  long claimPoll() {
+    long position = dequeuePosition.get();
+
+    while (true) {
+      long difference = sequences.get(index(position)) - (position + 1);
+
+      if (difference == 0) {
+        if (dequeuePosition.compareAndSet(position, position + 1)) {
+          return position;
+        }
+
+        casRetries.increment();
+        position = dequeuePosition.get();
+      } else if (difference < 0) {
+        return -1;
+      } else {
+        position = dequeuePosition.get();
+      }
+    }
+  }
+
+  void releasePoll(long position) {
+    sequences.set(index(position), position + mask + 1);
+  }
+
+  int index(long position) {
+    return (int) position & mask;
+  }
+
+  int size() {
+    long size = enqueuePosition.get() - dequeuePosition.get();
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  long getCasRetries() {
+    return casRetries.sum();
+  }
+}
@@ -1,21 +1,58 @@
 package uk.gov.ons.census.notifyprocessor.cache;
 
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import lombok.Data;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import uk.gov.ons.census.notifyprocessor.client.UacQidServiceClient;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
 import uk.gov.ons.census.notifyprocessor.model.UacQid;
+import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper;
 
+/*
+ * Holds a pool of UAC/QID pairs per questionnaire type. Taking a pair from a pool which has some
+ * is lock-free; once a pool drops below the minimum (the low watermark) refills are started in the
+ * background, claimed with a CAS so that nothing else is held up. Only a consumer which finds the
+ * pool completely empty waits, and it is woken as soon as a refill lands.
+ *
+ * Several fetches for one type can be in flight at once. How many depends on how far below the
+ * watermark the pool is: one fetch when it has just dipped under, up to the configured maximum when
+ * it is empty, and never more than the pool has room for. Each fetch reserves room for everything
+ * it asked for before it starts, and gives back what didn't arrive when it ends, so the fetches in
+ * flight can never overfill the pool between them and drop pairs.
+ *
+ * With adaptive refill on, the watermark and fetch size of each type follow its consumption rate
+ * (an EWMA sampled on a schedule) and the measured latency of the UAC QID service: the watermark
+ * covers what will be consumed while a fetch is in flight, and each fetch covers a fixed number of
+ * seconds of consumption. Idle types decay back to the configured minimums. Until a type has been
+ * sampled, the static uacqid-cache-min and uacqid-fetch-count are used.
+ */
 @Component
 public class UacQidCache {
+  private static final Logger log = LoggerFactory.getLogger(UacQidCache.class);
+  private static final long WARM_UP_CHECK_INTERVAL_MILLIS = 100;
+
   private final UacQidServiceClient uacQidServiceClient;
+  private final MeterRegistry meterRegistry;
+  private final UacQidPoolType poolType;
+  private final int poolCapacity;
+  private final int packedSlotBytes;
 
   @Value("${uacservice.uacqid-cache-min}")
   private int cacheMin;
@@ -26,56 +63,549 @@ public class UacQidCache {
   @Value("${uacservice.uacqid-get-timeout}")
   private long uacQidGetTimout;
 
-  private static final Executor executor = Executors.newFixedThreadPool(8);
+  @Value("${uacservice.uacqid-max-in-flight-fetches}")
+  private int maxInFlightFetches;
+
+  @Value("${uacservice.uacqid-adaptive-refill}")
+  private boolean adaptiveRefill;
+
+  @Value("${uacservice.uacqid-min-watermark}")
+  private int minWatermark;
+
+  @Value("${uacservice.uacqid-max-watermark}")
+  private int maxWatermark;
+
+  @Value("${uacservice.uacqid-min-fetch-count}")
+  private int minFetchCount;
+
+  @Value("${uacservice.uacqid-max-fetch-count}")
+  private int maxFetchCount;
+
+  @Value("${uacservice.uacqid-watermark-headroom}")
+  private double watermarkHeadroom;
+
+  @Value("${uacservice.uacqid-refill-seconds}")
+  private double refillSeconds;
+
+  @Value("${uacservice.uacqid-rate-smoothing}")
+  private double rateSmoothing;
+
+  private volatile long lastSampleTime = System.nanoTime();
+  private volatile boolean refillsStopped;
 
-  private Map<Integer, BlockingQueue<UacQid>> uacQidLinkQueueMap = new ConcurrentHashMap<>();
-  private Set<Integer> isToppingUpQueue = ConcurrentHashMap.newKeySet();
+  private final Map<Integer, QuestionnaireTypePool> pools = new ConcurrentHashMap<>();
 
-  public UacQidCache(UacQidServiceClient uacQidServiceClient) {
+  public UacQidCache(
+      UacQidServiceClient uacQidServiceClient,
+      TemplateMapper templateMapper,
+      MeterRegistry meterRegistry,
+      @Value("${uacservice.uacqid-pool-type}") UacQidPoolType poolType,
+      @Value("${uacservice.uacqid-pool-capacity}") int poolCapacity,
+      @Value("${uacservice.uacqid-packed-slot-bytes}") int packedSlotBytes) {
     this.uacQidServiceClient = uacQidServiceClient;
+    this.meterRegistry = meterRegistry;
+    this.poolType = poolType;
+    this.poolCapacity = poolCapacity;
+    this.packedSlotBytes = packedSlotBytes;
+
+    // The configured types get their pools up front, any added by a template reload on first use
+    for (int questionnaireType : templateMapper.getQuestionnaireTypes()) {
+      pools.put(questionnaireType, createPool(questionnaireType));
+    }
   }
 
-  public UacQid getUacQidPair(int questionnaireType) {
-    uacQidLinkQueueMap.computeIfAbsent(questionnaireType, key -> new LinkedBlockingDeque<>());
+  // For building a cache without Spring, e.g. in the benchmarks
+  void setRefillSettings(
+      int cacheMin, int cacheFetch, long uacQidGetTimeout, int maxInFlightFetches) {
+    this.cacheMin = cacheMin;
+    this.cacheFetch = cacheFetch;
+    this.uacQidGetTimout = uacQidGetTimeout;
+    this.maxInFlightFetches = maxInFlightFetches;
+    this.adaptiveRefill = false;
+    checkRefillSettings();
+  }
 
-    try {
-      topUpQueue(questionnaireType);
-      UacQid uacQid =
-          uacQidLinkQueueMap.get(questionnaireType).poll(uacQidGetTimout, TimeUnit.SECONDS);
+  /*
+   * A fetch is only started when the pool is below the watermark and has room for all of it, so a
+   * fetch count bigger than the room above the watermark would never be fetched and consumers would
+   * wait on an empty pool until they timed out. Adaptive refill can raise the watermark to its
+   * maximum and never fetches less than its minimum, so the same goes for those.
+   */
+  @PostConstruct
+  public void checkRefillSettings() {
+    checkFetchCount("uacqid-fetch-count", cacheFetch, "uacqid-cache-min", cacheMin);
+    if (maxInFlightFetches <= 0) {
+      throw new IllegalStateException("uacqid-max-in-flight-fetches must be at least 1");
+    }
 
-      if (uacQid == null) {
-        // The cache topper upper is executed in a separate thread, which can fail if uacqid api
-        // down
-        // So check we get a non null result otherwise throw a RunTimeException to re-enqueue msg
-        throw new RuntimeException(
-            "Timeout getting UAC QID for questionnaireType :" + questionnaireType);
+    if (adaptiveRefill) {
+      checkFetchCount(
+          "uacqid-min-fetch-count", minFetchCount, "uacqid-max-watermark", maxWatermark);
+      if (maxFetchCount < minFetchCount) {
+        throw new IllegalStateException(
+            "uacqid-max-fetch-count must be at least uacqid-min-fetch-count");
       }
+    }
+  }
+
+  private void checkFetchCount(
+      String fetchCountName, int fetchCount, String watermarkName, int watermark) {
+    if (fetchCount <= 0 || fetchCount > poolCapacity - watermark) {
+      throw new IllegalStateException(
+          String.format(
+              "%s is %d, it must be more than 0 and no more than uacqid-pool-capacity (%d) less "
+                  + "%s (%d)",
+              fetchCountName, fetchCount, poolCapacity, watermarkName, watermark));
+    }
+  }
+
+  public UacQid getUacQidPair(int questionnaireType) {
+    long startTime = System.nanoTime();
+    QuestionnaireTypePool pool = pools.computeIfAbsent(questionnaireType, this::createPool);
 
+    UacQid uacQid = pool.getPool().poll();
+    pool.getConsumed().increment();
+    topUpQueue(pool);
+
+    if (uacQid != null) {
+      pool.getHitTimer().record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
       return uacQid;
+    }
+
+    try {
+      uacQid = waitForUacQid(pool);
     } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new RuntimeException(e.getMessage());
+    } finally {
+      long waited = System.nanoTime() - startTime;
+      pool.getWaitTimer().record(waited, TimeUnit.NANOSECONDS);
+      PipelineProgress.recordWait(waited);
+    }
+
+    if (uacQid == null) {
+      // The cache topper upper is executed in a separate thread, which can fail if uacqid api
+      // down
+      // So check we get a non null result otherwise throw an exception to retry the msg
+      throw new UacQidTimeoutException(questionnaireType);
+    }
+
+    return uacQid;
+  }
+
+  private UacQid waitForUacQid(QuestionnaireTypePool pool) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(uacQidGetTimout);
+
+    pool.getWaiters().incrementAndGet();
+    try {
+      synchronized (pool) {
+        while (true) {
+          UacQid uacQid = pool.getPool().poll();
+          long remaining = deadline - System.nanoTime();
+
+          if (uacQid != null || remaining <= 0) {
+            return uacQid;
+          }
+
+          TimeUnit.NANOSECONDS.timedWait(pool, remaining);
+        }
+      }
+    } finally {
+      pool.getWaiters().decrementAndGet();
+    }
+  }
+
+  private void topUpQueue(QuestionnaireTypePool pool) {
+    if (refillsStopped) {
+      return;
+    }
+
+    int wanted = getWantedInFlightFetches(pool);
+
+    // Bounded by what this call wants, because a fetch which fails straight away frees its slot
+    for (int started = 0; started < wanted; ) {
+      int inFlight = pool.getInFlightFetches().get();
+
+      if (inFlight >= wanted) {
+        return;
+      }
+
+      if (pool.getInFlightFetches().compareAndSet(inFlight, inFlight + 1)) {
+        if (!startRefill(pool)) {
+          return;
+        }
+        started++;
+      }
+    }
+  }
+
+  private int getWantedInFlightFetches(QuestionnaireTypePool pool) {
+    int size = pool.getPool().size();
+    int watermark = getWatermark(pool);
+
+    if (size >= watermark) {
+      return 0;
+    }
+
+    int fetchCount = getFetchCount(pool);
+    int wanted = 1 + (watermark - size) / fetchCount;
+    int room = getRoom(pool) / fetchCount;
+
+    // No room for a whole fetch means not fetching until consumers have made some
+    return Math.min(maxInFlightFetches, Math.min(wanted, room));
+  }
+
+  // Free room less what the fetches in flight have reserved; only consumers can add to it
+  private int getRoom(QuestionnaireTypePool pool) {
+    return pool.getPool().capacity() - pool.getPool().size() - pool.getReservedRoom().get();
+  }
+
+  private boolean reserveRoom(QuestionnaireTypePool pool, int count) {
+    while (true) {
+      int reserved = pool.getReservedRoom().get();
+      if (getRoom(pool) < count) {
+        return false;
+      }
+
+      if (pool.getReservedRoom().compareAndSet(reserved, reserved + count)) {
+        return true;
+      }
+    }
+  }
+
+  // False when another fetch took the room first, in which case the slot is given back
+  private boolean startRefill(QuestionnaireTypePool pool) {
+    int fetchCount = getFetchCount(pool);
+    if (!reserveRoom(pool, fetchCount)) {
+      releaseFetchSlot(pool);
+      return false;
+    }
+
+    long fetchStartTime = System.nanoTime();
+    AtomicInteger unarrived = new AtomicInteger(fetchCount);
+    AtomicInteger dropped = new AtomicInteger();
+    CompletableFuture<Integer> fetch;
+
+    try {
+      fetch =
+          uacQidServiceClient.streamUacQids(
+              pool.getQuestionnaireType(),
+              fetchCount,
+              (uac, qid) -> addParsedUacQid(pool, uac, qid, unarrived, dropped));
+    } catch (RuntimeException e) {
+      fetch = CompletableFuture.failedFuture(e);
+    }
+
+    fetch.whenComplete(
+        (count, failure) -> finishRefill(pool, unarrived, dropped.get(), failure, fetchStartTime));
+    return true;
+  }
+
+  // Called by the parser for each pair as it arrives, straight into the pool
+  private void addParsedUacQid(
+      QuestionnaireTypePool pool,
+      CharSequence uac,
+      CharSequence qid,
+      AtomicInteger unarrived,
+      AtomicInteger dropped) {
+    boolean offered = pool.getPool().offer(uac, qid);
+
+    // Only once it's in the pool, so that the pair is never counted as neither room nor size
+    if (unarrived.getAndDecrement() > 0) {
+      pool.getReservedRoom().decrementAndGet();
+    }
+
+    if (!offered) {
+      dropped.incrementAndGet();
+      return;
+    }
+
+    // Anyone waiting on the empty pool can go as soon as there's a pair, not when the fetch ends
+    if (pool.getWaiters().get() > 0) {
+      synchronized (pool) {
+        pool.notifyAll();
+      }
     }
   }
 
-  private void topUpQueue(int questionnaireType) {
-    synchronized (isToppingUpQueue) {
-      if (!isToppingUpQueue.contains(questionnaireType)
-          && uacQidLinkQueueMap.get(questionnaireType).size() < cacheMin) {
-        isToppingUpQueue.add(questionnaireType);
-      } else {
+  private void finishRefill(
+      QuestionnaireTypePool pool,
+      AtomicInteger unarrived,
+      int dropped,
+      Throwable failure,
+      long fetchStartTime) {
+    int unused = unarrived.getAndSet(0);
+    if (unused > 0) {
+      pool.getReservedRoom().addAndGet(-unused);
+    }
+
+    try {
+      if (failure != null) {
+        log.with("questionnaire_type", pool.getQuestionnaireType())
+            .with("error", failure.getMessage())
+            .warn("Could not fetch UAC QIDs");
         return;
       }
+
+      pool.setFetchLatencySeconds(
+          smooth(pool.getFetchLatencySeconds(), (System.nanoTime() - fetchStartTime) / 1e9));
+
+      if (dropped > 0) {
+        log.with("questionnaire_type", pool.getQuestionnaireType())
+            .with("dropped", dropped)
+            .warn("UAC QIDs dropped, more than asked for or too long (see uacqid.pool.rejected)");
+      }
+    } finally {
+      releaseFetchSlot(pool);
+    }
+  }
+
+  private void releaseFetchSlot(QuestionnaireTypePool pool) {
+    pool.getInFlightFetches().decrementAndGet();
+
+    synchronized (pool) {
+      pool.notifyAll();
     }
+  }
+
+  public Map<Integer, Integer> getPoolSizes() {
+    Map<Integer, Integer> poolSizes = new HashMap<>();
+    for (QuestionnaireTypePool pool : pools.values()) {
+      poolSizes.put(pool.getQuestionnaireType(), pool.getPool().size());
+    }
+    return poolSizes;
+  }
 
-    executor.execute(
-        () -> {
-          try {
-            uacQidLinkQueueMap
-                .get(questionnaireType)
-                .addAll(uacQidServiceClient.getUacQids(questionnaireType, cacheFetch));
-          } finally {
-            isToppingUpQueue.remove(questionnaireType);
+  /*
+   * Stops any more refills from starting and waits for the ones in flight to land, so that a drain
+   * afterwards gets everything that was fetched. Returns false if some are still in flight at the
+   * timeout; what they fetch afterwards is never handed out. Refills stay stopped until
+   * startRefills, so a restarted context can refill again.
+   */
+  public void startRefills() {
+    refillsStopped = false;
+  }
+
+  public boolean stopRefills(long timeoutMillis) throws InterruptedException {
+    refillsStopped = true;
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+
+    for (QuestionnaireTypePool pool : pools.values()) {
+      synchronized (pool) {
+        while (pool.getInFlightFetches().get() > 0) {
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) {
+            return false;
           }
-        });
+
+          pool.wait(remaining);
+        }
+      }
+    }
+
+    return true;
+  }
+
+  // Takes everything out of every pool, for spilling at shutdown
+  public Map<Integer, List<UacQid>> drain() {
+    Map<Integer, List<UacQid>> uacQidsByType = new HashMap<>();
+
+    for (QuestionnaireTypePool pool : pools.values()) {
+      List<UacQid> uacQids = new ArrayList<>(pool.getPool().size());
+      UacQid uacQid;
+      while ((uacQid = pool.getPool().poll()) != null) {
+        uacQids.add(uacQid);
+      }
+
+      if (!uacQids.isEmpty()) {
+        uacQidsByType.put(pool.getQuestionnaireType(), uacQids);
+      }
+    }
+
+    return uacQidsByType;
+  }
+
+  /*
+   * Adds pairs from elsewhere, e.g. a spill file, without taking room the fetches in flight have
+   * reserved. Returns the pairs there was no room for, so the caller can keep them rather than
+   * waste them.
+   */
+  public Map<Integer, List<UacQid>> preload(Map<Integer, List<UacQid>> uacQidsByType) {
+    Map<Integer, List<UacQid>> unpooled = new HashMap<>();
+
+    for (Map.Entry<Integer, List<UacQid>> entry : uacQidsByType.entrySet()) {
+      QuestionnaireTypePool pool = pools.computeIfAbsent(entry.getKey(), this::createPool);
+      List<UacQid> noRoom = new ArrayList<>();
+      int dropped = 0;
+
+      for (UacQid uacQid : entry.getValue()) {
+        if (!reserveRoom(pool, 1)) {
+          noRoom.add(uacQid);
+          continue;
+        }
+
+        if (!pool.getPool().offer(uacQid)) {
+          dropped++;
+        }
+        pool.getReservedRoom().decrementAndGet();
+      }
+
+      if (!noRoom.isEmpty()) {
+        unpooled.put(entry.getKey(), noRoom);
+        log.with("questionnaire_type", entry.getKey())
+            .with("unpooled", noRoom.size())
+            .warn("UAC QID pool full, increase uacqid-pool-capacity");
+      }
+
+      if (dropped > 0) {
+        log.with("questionnaire_type", entry.getKey())
+            .with("dropped", dropped)
+            .warn("UAC QIDs dropped, too long (see uacqid.pool.rejected)");
+      }
+    }
+
+    return unpooled;
+  }
+
+  /*
+   * Fills every pool up to its watermark, fetching for all types in parallel, and waits until they
+   * are all full or the timeout passes. Failed fetches are retried until then.
+   */
+  public boolean warmUp(long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+
+    while (true) {
+      boolean warm = true;
+
+      for (QuestionnaireTypePool pool : pools.values()) {
+        if (pool.getPool().size() < getWatermark(pool)) {
+          warm = false;
+          topUpQueue(pool);
+        }
+      }
+
+      long remaining = deadline - System.currentTimeMillis();
+      if (warm || remaining <= 0) {
+        return warm;
+      }
+
+      Thread.sleep(Math.min(WARM_UP_CHECK_INTERVAL_MILLIS, remaining));
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${uacservice.uacqid-rate-sample-interval}")
+  public void sampleConsumptionRates() {
+    long now = System.nanoTime();
+    double elapsedSeconds = (now - lastSampleTime) / 1e9;
+    lastSampleTime = now;
+
+    if (adaptiveRefill && elapsedSeconds > 0) {
+      adaptRefillSizes(elapsedSeconds);
+    }
+  }
+
+  void adaptRefillSizes(double elapsedSeconds) {
+    for (QuestionnaireTypePool pool : pools.values()) {
+      double sampledRate = pool.getConsumed().sumThenReset() / elapsedSeconds;
+      double rate = pool.isSampled() ? smooth(pool.getRate(), sampledRate) : sampledRate;
+      pool.setRate(rate);
+      pool.setSampled(true);
+
+      // Latency is only known once a fetch has happened; before that the rate alone sizes things
+      double expectedDrainDuringFetch = rate * pool.getFetchLatencySeconds() * watermarkHeadroom;
+      pool.setWatermark(clamp(expectedDrainDuringFetch, minWatermark, maxWatermark));
+
+      // Never ask for more than the pool can hold on top of the watermark
+      int fetchCeiling = Math.min(maxFetchCount, pool.getPool().capacity() - pool.getWatermark());
+      double expectedDrainPerRefill = rate * (pool.getFetchLatencySeconds() + refillSeconds);
+      pool.setFetchCount(clamp(expectedDrainPerRefill, minFetchCount, fetchCeiling));
+    }
+  }
+
+  private int getWatermark(QuestionnaireTypePool pool) {
+    return pool.isSampled() ? pool.getWatermark() : cacheMin;
+  }
+
+  private int getFetchCount(QuestionnaireTypePool pool) {
+    return pool.isSampled() ? pool.getFetchCount() : cacheFetch;
+  }
+
+  private double smooth(double average, double sample) {
+    return rateSmoothing * sample + (1 - rateSmoothing) * average;
+  }
+
+  private static int clamp(double value, int min, int max) {
+    return (int) Math.max(min, Math.min(max, Math.ceil(value)));
+  }
+
+  private QuestionnaireTypePool createPool(int questionnaireType) {
+    UacQidPool uacQidPool;
+    if (poolType == UacQidPoolType.BLOCKING_QUEUE) {
+      uacQidPool = new BlockingQueueUacQidPool(poolCapacity);
+    } else if (poolType == UacQidPoolType.RING_BUFFER) {
+      uacQidPool = new RingBufferUacQidPool(poolCapacity);
+    } else {
+      uacQidPool = new PackedUacQidPool(poolCapacity, packedSlotBytes);
+    }
+
+    String type = String.valueOf(questionnaireType);
+
+    Gauge.builder("uacqid.pool.size", uacQidPool, UacQidPool::size)
+        .tag("questionnaireType", type)
+        .register(meterRegistry);
+    FunctionCounter.builder("uacqid.pool.contention", uacQidPool, UacQidPool::getContentionCount)
+        .description("Lost CAS races taking from or adding to the pool")
+        .tag("questionnaireType", type)
+        .register(meterRegistry);
+    FunctionCounter.builder("uacqid.pool.rejected", uacQidPool, UacQidPool::getRejectedCount)
+        .description("UAC QID pairs too long to pool, dropped")
+        .tag("questionnaireType", type)
+        .register(meterRegistry);
+
+    QuestionnaireTypePool pool =
+        new QuestionnaireTypePool(
+            questionnaireType, uacQidPool, makeGetTimer(type, "hit"), makeGetTimer(type, "waited"));
+
+    Gauge.builder("uacqid.pool.watermark", pool, this::getWatermark)
+        .tag("questionnaireType", type)
+        .register(meterRegistry);
+    Gauge.builder("uacqid.pool.fetch.count", pool, this::getFetchCount)
+        .tag("questionnaireType", type)
+        .register(meterRegistry);
+    Gauge.builder("uacqid.pool.fetches.in.flight", pool, p -> p.getInFlightFetches().get())
+        .tag("questionnaireType", type)
+        .register(meterRegistry);
+    Gauge.builder("uacqid.pool.consumption.rate", pool, QuestionnaireTypePool::getRate)
+        .description("Smoothed UAC QIDs taken per second")
+        .tag("questionnaireType", type)
+        .register(meterRegistry);
+
+    return pool;
+  }
+
+  private Timer makeGetTimer(String questionnaireType, String outcome) {
+    return Timer.builder("uacqid.cache.get")
+        .description("Time taken by getUacQidPair")
+        .tag("questionnaireType", questionnaireType)
+        .tag("outcome", outcome)
+        .publishPercentiles(0.5, 0.99)
+        .register(meterRegistry);
+  }
+
+  @Data
+  private static class QuestionnaireTypePool {
+    private final int questionnaireType;
+    private final UacQidPool pool;
+    private final Timer hitTimer;
+    private final Timer waitTimer;
+    private final AtomicInteger inFlightFetches = new AtomicInteger();
+    private final AtomicInteger reservedRoom = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder consumed = new LongAdder();
+    private volatile boolean sampled;
+    private volatile double rate;
+    private volatile double fetchLatencySeconds;
+    private volatile int watermark;
+    private volatile int fetchCount;
   }
 }
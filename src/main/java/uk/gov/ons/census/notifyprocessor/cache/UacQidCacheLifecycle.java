@@ -0,0 +1,167 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+/*
+ * Gets the UAC QID pools ready before anything starts consuming, and saves what's left in them
+ * once everything has stopped consuming. Lifecycle beans start in phase order and stop in reverse,
+ * and the message listener containers and inbound adapters all use much later phases, so blocking
+ * in start() holds them back until the pools are ready, and stop() only runs after they've stopped.
+ *
+ * Stopping also stops the refills, so starting again, e.g. when the context is restarted, lets
+ * them run again before anything else.
+ *
+ * The spill is a snapshot taken at a graceful shutdown, once the refills in flight have landed. A
+ * crash loses whatever was in the pools, as it did before there was a spill: those pairs are wasted
+ * but never handed out twice. A spill bigger than the pools now have room for, e.g. after
+ * uacqid-pool-capacity was lowered, is kept whole: what doesn't fit is written straight back to the
+ * spill file and included in the next spill.
+ */
+@Component
+public class UacQidCacheLifecycle implements SmartLifecycle {
+  private static final Logger log = LoggerFactory.getLogger(UacQidCacheLifecycle.class);
+  private static final int PHASE = 0;
+
+  private final UacQidCache uacQidCache;
+
+  @Value("${uacservice.uacqid-warm-up}")
+  private boolean warmUpEnabled;
+
+  @Value("${uacservice.uacqid-warm-up-deadline}")
+  private long warmUpDeadline;
+
+  @Value("${uacservice.uacqid-spill-enabled}")
+  private boolean spillEnabled;
+
+  @Value("${uacservice.uacqid-spill-file}")
+  private String spillFileName;
+
+  @Value("${uacservice.uacqid-spill-refill-wait}")
+  private long spillRefillWait;
+
+  private volatile Map<Integer, List<UacQid>> unpooled = Map.of();
+  private volatile boolean running;
+  private volatile boolean complete;
+
+  public UacQidCacheLifecycle(UacQidCache uacQidCache) {
+    this.uacQidCache = uacQidCache;
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    uacQidCache.startRefills();
+
+    try {
+      if (spillEnabled) {
+        reloadSpill();
+      }
+
+      if (warmUpEnabled) {
+        warmUp();
+      }
+    } finally {
+      complete = true;
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (spillEnabled) {
+      spill();
+    }
+
+    running = false;
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public int getPhase() {
+    return PHASE;
+  }
+
+  public boolean isComplete() {
+    return complete;
+  }
+
+  private void reloadSpill() {
+    Map<Integer, List<UacQid>> uacQidsByType = new UacQidSpillFile(Paths.get(spillFileName)).read();
+    unpooled = uacQidCache.preload(uacQidsByType);
+
+    log.with("uac_qid_count", uacQidsByType.values().stream().mapToInt(List::size).sum())
+        .info("Reloaded spilled UAC QIDs");
+
+    if (!unpooled.isEmpty()) {
+      writeSpill(unpooled, "Spilled UAC QIDs the pools had no room for");
+    }
+  }
+
+  private void spill() {
+    try {
+      if (!uacQidCache.stopRefills(spillRefillWait * 1000)) {
+        log.with("wait_seconds", spillRefillWait)
+            .warn("UAC QID fetches still in flight, spilling without them");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Interrupted waiting for UAC QID fetches, spilling without them");
+    }
+
+    Map<Integer, List<UacQid>> uacQidsByType = new HashMap<>(uacQidCache.drain());
+    for (Map.Entry<Integer, List<UacQid>> entry : unpooled.entrySet()) {
+      uacQidsByType.merge(
+          entry.getKey(),
+          entry.getValue(),
+          (drained, notPooled) -> {
+            List<UacQid> merged = new ArrayList<>(drained);
+            merged.addAll(notPooled);
+            return merged;
+          });
+    }
+    unpooled = Map.of();
+
+    writeSpill(uacQidsByType, "Spilled unused UAC QIDs");
+  }
+
+  private void writeSpill(Map<Integer, List<UacQid>> uacQidsByType, String message) {
+    try {
+      new UacQidSpillFile(Paths.get(spillFileName)).write(uacQidsByType);
+
+      log.with("uac_qid_count", uacQidsByType.values().stream().mapToInt(List::size).sum())
+          .info(message);
+    } catch (IOException e) {
+      log.with("path", spillFileName).error("Could not spill unused UAC QIDs", e);
+    }
+  }
+
+  private void warmUp() {
+    long startTime = System.currentTimeMillis();
+    try {
+      if (uacQidCache.warmUp(warmUpDeadline * 1000)) {
+        log.with("duration_ms", System.currentTimeMillis() - startTime)
+            .info("UAC QID pools warmed up");
+      } else {
+        log.with("deadline_seconds", warmUpDeadline)
+            .warn("UAC QID pools not warm by deadline, starting anyway");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("UAC QID pool warm up interrupted");
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+/*
+ * A pool of ready-made UAC/QID pairs for a single questionnaire type. Implementations must be safe
+ * for many concurrent consumers and refill threads, and must never block.
+ */
+public interface UacQidPool {
+  boolean offer(UacQid uacQid);
+
+  // For pairs straight from the parser, whose character buffers are reused once this returns
+  default boolean offer(CharSequence uac, CharSequence qid) {
+    UacQid uacQid = new UacQid();
+    uacQid.setUac(uac.toString());
+    uacQid.setQid(qid.toString());
+    return offer(uacQid);
+  }
+
+  UacQid poll();
+
+  int size();
+
+  int capacity();
+
+  long getContentionCount();
+
+  // Pairs offered that the pool can't hold however much room it has
+  default long getRejectedCount() {
+    return 0;
+  }
+}
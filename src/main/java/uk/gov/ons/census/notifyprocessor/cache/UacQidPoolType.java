@@ -0,0 +1,7 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+public enum UacQidPoolType {
+  PACKED_RING_BUFFER,
+  RING_BUFFER,
+  BLOCKING_QUEUE
+}
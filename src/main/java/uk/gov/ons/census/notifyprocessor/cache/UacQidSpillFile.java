@@ -0,0 +1,170 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+/*
+ * A local file holding unused UAC QID pairs between one run and the next.
+ *
+ * Layout: magic, version, record count, then per record the questionnaire type and the
+ * length-prefixed UTF-8 UAC and QID, and finally a CRC32 of everything before it. The file is
+ * written through a memory mapping to a temporary file which is then moved into place, so a crash
+ * while writing never leaves a half-written spill behind.
+ *
+ * Reading deletes the file before returning anything, and returns nothing if it can't be deleted,
+ * so a pair read back from it can never be handed out a second time after another restart.
+ */
+public class UacQidSpillFile {
+  private static final Logger log = LoggerFactory.getLogger(UacQidSpillFile.class);
+  private static final int MAGIC = 0x55514944;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES;
+  private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+  private final Path path;
+
+  public UacQidSpillFile(Path path) {
+    this.path = path;
+  }
+
+  public void write(Map<Integer, List<UacQid>> uacQidsByType) throws IOException {
+    long recordCount = 0;
+    long size = HEADER_BYTES + Long.BYTES;
+    for (List<UacQid> uacQids : uacQidsByType.values()) {
+      for (UacQid uacQid : uacQids) {
+        size += Integer.BYTES + fieldBytes(uacQid.getUac()) + fieldBytes(uacQid.getQid());
+        recordCount++;
+      }
+    }
+
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+    try (FileChannel channel =
+        FileChannel.open(
+            tempPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putLong(recordCount);
+
+      for (Map.Entry<Integer, List<UacQid>> entry : uacQidsByType.entrySet()) {
+        for (UacQid uacQid : entry.getValue()) {
+          buffer.putInt(entry.getKey());
+          putField(buffer, uacQid.getUac());
+          putField(buffer, uacQid.getQid());
+        }
+      }
+
+      buffer.putLong(checksum(buffer, buffer.position()));
+      buffer.force();
+    }
+
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public Map<Integer, List<UacQid>> read() {
+    if (!Files.exists(path)) {
+      return Map.of();
+    }
+
+    Map<Integer, List<UacQid>> uacQidsByType = new HashMap<>();
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      uacQidsByType = parse(buffer);
+    } catch (IOException | RuntimeException e) {
+      log.with("path", path.toString())
+          .error("Could not read UAC QID spill file, discarding it", e);
+      uacQidsByType = Map.of();
+    }
+
+    try {
+      Files.delete(path);
+    } catch (IOException e) {
+      log.with("path", path.toString())
+          .error("Could not delete UAC QID spill file, not using it", e);
+      return Map.of();
+    }
+
+    return uacQidsByType;
+  }
+
+  private Map<Integer, List<UacQid>> parse(ByteBuffer buffer) {
+    int checksumPosition = buffer.limit() - Long.BYTES;
+    if (checksumPosition < HEADER_BYTES
+        || buffer.getLong(checksumPosition) != checksum(buffer, checksumPosition)) {
+      throw new IllegalStateException("Checksum mismatch");
+    }
+
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IllegalStateException("Not a version " + VERSION + " spill file");
+    }
+
+    long recordCount = buffer.getLong();
+    Map<Integer, List<UacQid>> uacQidsByType = new HashMap<>();
+
+    try {
+      for (long i = 0; i < recordCount; i++) {
+        int questionnaireType = buffer.getInt();
+        UacQid uacQid = new UacQid();
+        uacQid.setUac(getField(buffer));
+        uacQid.setQid(getField(buffer));
+        uacQidsByType.computeIfAbsent(questionnaireType, key -> new ArrayList<>()).add(uacQid);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IllegalStateException("Spill file shorter than its record count", e);
+    }
+
+    return uacQidsByType;
+  }
+
+  private static long checksum(ByteBuffer buffer, int length) {
+    CRC32 crc32 = new CRC32();
+    ByteBuffer covered = buffer.duplicate();
+    covered.position(0).limit(length);
+    crc32.update(covered);
+    return crc32.getValue();
+  }
+
+  private static int fieldBytes(String value) {
+    int length = value.getBytes(StandardCharsets.UTF_8).length;
+    if (length > MAX_FIELD_BYTES) {
+      throw new IllegalArgumentException("UAC QID field too long to spill: " + length);
+    }
+
+    return Short.BYTES + length;
+  }
+
+  private static void putField(ByteBuffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buffer.putShort((short) bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String getField(ByteBuffer buffer) {
+    byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
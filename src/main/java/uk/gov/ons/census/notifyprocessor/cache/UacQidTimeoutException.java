@@ -0,0 +1,11 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+/*
+ * Thrown when no UAC QID pair turns up for a questionnaire type within the configured wait. The
+ * pool is usually just being refilled, so this is always worth retrying.
+ */
+public class UacQidTimeoutException extends RuntimeException {
+  public UacQidTimeoutException(int questionnaireType) {
+    super("Timeout getting UAC QID for questionnaireType :" + questionnaireType);
+  }
+}
@@ -0,0 +1,134 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * Sends SMS through the Gov Notify API without holding a thread for each request, using the JDK
+ * HTTP client. The Notify library only has a blocking client, so this does the same POST to
+ * /v2/notifications/sms itself, authenticated with the same HS256 JWT: the service id from the API
+ * key as the issuer, signed with the key's secret. Notify accepts a token for 30 seconds after it
+ * was issued, so one is shared by every request for a few seconds rather than signed for each.
+ */
+public class AsyncNotifyClient {
+  private static final String SEND_SMS_PATH = "/v2/notifications/sms";
+  private static final String JWT_HEADER =
+      encode("{\"typ\":\"JWT\",\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8));
+  private static final long TOKEN_LIFETIME_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final HttpClient httpClient;
+  private final URI sendSmsUri;
+  private final Duration requestTimeout;
+  private final String serviceId;
+  private final SecretKeySpec secretKey;
+
+  private String token;
+  private long tokenIssuedAt;
+
+  public AsyncNotifyClient(
+      String apiKey, String baseUrl, long connectTimeoutMillis, long requestTimeoutMillis) {
+    // API keys end with the service id and then the secret, both UUIDs
+    this.serviceId = apiKey.substring(apiKey.length() - 73, apiKey.length() - 37);
+    this.secretKey =
+        new SecretKeySpec(
+            apiKey.substring(apiKey.length() - 36).getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    this.sendSmsUri = URI.create(baseUrl + SEND_SMS_PATH);
+    this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+    this.httpClient =
+        HttpClient.newBuilder().connectTimeout(Duration.ofMillis(connectTimeoutMillis)).build();
+  }
+
+  public CompletableFuture<Void> sendSms(
+      String templateId,
+      String phoneNumber,
+      Map<String, ?> personalisation,
+      String reference,
+      String smsSenderId) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("phone_number", phoneNumber);
+    body.put("template_id", templateId);
+    body.put("personalisation", personalisation);
+    body.put("reference", reference);
+    if (smsSenderId != null && !smsSenderId.isEmpty()) {
+      body.put("sms_sender_id", smsSenderId);
+    }
+
+    HttpRequest request;
+    try {
+      request =
+          HttpRequest.newBuilder(sendSmsUri)
+              .timeout(requestTimeout)
+              .header("Authorization", "Bearer " + getToken())
+              .header("Content-Type", "application/json")
+              .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+              .build();
+    } catch (JsonProcessingException e) {
+      return CompletableFuture.failedFuture(
+          new NotifyHttpException(400, "Could not write SMS request: " + e.getMessage(), e));
+    }
+
+    return httpClient
+        .sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        .handle(
+            (response, failure) -> {
+              if (failure != null) {
+                throw new NotifyHttpException(0, "No response from Gov Notify", failure);
+              }
+
+              if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                throw new NotifyHttpException(
+                    response.statusCode(),
+                    String.format("Status code: %d %s", response.statusCode(), response.body()));
+              }
+
+              return null;
+            });
+  }
+
+  private synchronized String getToken() {
+    long now = System.nanoTime();
+    if (token == null || now - tokenIssuedAt > TOKEN_LIFETIME_NANOS) {
+      token = createToken(System.currentTimeMillis() / 1000);
+      tokenIssuedAt = now;
+    }
+
+    return token;
+  }
+
+  String createToken(long issuedAtSeconds) {
+    String claims =
+        encode(
+            String.format("{\"iss\":\"%s\",\"iat\":%d}", serviceId, issuedAtSeconds)
+                .getBytes(StandardCharsets.UTF_8));
+    String signingInput = JWT_HEADER + "." + claims;
+
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(secretKey);
+      return signingInput
+          + "."
+          + encode(mac.doFinal(signingInput.getBytes(StandardCharsets.UTF_8)));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+  }
+
+  private static String encode(byte[] bytes) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+}
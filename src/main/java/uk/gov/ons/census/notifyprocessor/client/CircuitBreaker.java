@@ -0,0 +1,114 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Counts consecutive failed calls to one downstream service. Once there are enough of them the
+ * breaker opens and calls fail straight away without touching the network. After the open duration
+ * the next call to ask is let through as a trial (half-open): if it works the breaker closes, if
+ * not it opens again for another open duration. Calls that finish while the breaker is open are
+ * ignored, only the trial decides when to close. A trial that isn't recorded within the open
+ * duration is taken as failed, so a lost outcome can't leave the breaker half-open for good.
+ */
+public class CircuitBreaker {
+  private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openDurationNanos;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedTime;
+  private long halfOpenedTime;
+
+  public CircuitBreaker(
+      String name, int failureThreshold, long openDurationMillis, MeterRegistry meterRegistry) {
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+
+    Gauge.builder("circuit.breaker.state", this, breaker -> breaker.getState().ordinal())
+        .tag("name", name)
+        .description("0 closed, 1 open, 2 half-open")
+        .register(meterRegistry);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized State getState() {
+    expireTrial();
+    return state;
+  }
+
+  // True when the call may go ahead, in which case its outcome must be recorded
+  public synchronized boolean tryAcquirePermission() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+
+    expireTrial();
+    if (state == State.OPEN && System.nanoTime() - openedTime >= openDurationNanos) {
+      state = State.HALF_OPEN;
+      halfOpenedTime = System.nanoTime();
+      log.with("circuit_breaker", name).info("Circuit breaker half-open, trying one call");
+      return true;
+    }
+
+    return false;
+  }
+
+  private void expireTrial() {
+    if (state == State.HALF_OPEN && System.nanoTime() - halfOpenedTime >= openDurationNanos) {
+      state = State.OPEN;
+      openedTime = System.nanoTime();
+      log.with("circuit_breaker", name).warn("Circuit breaker trial not recorded in time, opened");
+    }
+  }
+
+  public void checkPermission() {
+    if (!tryAcquirePermission()) {
+      throw new CircuitBreakerOpenException(name);
+    }
+  }
+
+  public synchronized void recordSuccess() {
+    if (state == State.OPEN) {
+      return;
+    }
+
+    if (state == State.HALF_OPEN) {
+      log.with("circuit_breaker", name).info("Circuit breaker closed");
+    }
+
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  public synchronized void recordFailure() {
+    if (state == State.OPEN) {
+      return;
+    }
+
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openedTime = System.nanoTime();
+      log.with("circuit_breaker", name)
+          .with("consecutive_failures", consecutiveFailures)
+          .warn("Circuit breaker opened");
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+public class CircuitBreakerOpenException extends RuntimeException {
+  public CircuitBreakerOpenException(String name) {
+    super("Circuit breaker " + name + " is open, not calling it");
+  }
+
+  public static boolean isCause(Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof CircuitBreakerOpenException) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
@@ -1,6 +1,27 @@
 package uk.gov.ons.census.notifyprocessor.client;
 
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import lombok.Data;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponents;
@@ -10,17 +31,70 @@ import uk.gov.ons.census.notifyprocessor.model.ExceptionReportResponse;
 import uk.gov.ons.census.notifyprocessor.model.Peek;
 import uk.gov.ons.census.notifyprocessor.model.SkippedMessage;
 
+/*
+ * A poison message fails on every delivery, and every failure used to cost a synchronous report
+ * to the exception manager on the consumer thread. Reports are now made on their own threads over
+ * a pooled connection. Concurrent reports of the same message share one request, and the decision
+ * is then remembered for a short while so that repeat failures don't ask again. Only so many
+ * decisions are remembered, and when there's no room the one used least recently is forgotten, so
+ * a burst of different bad messages can't push out the ones still failing. A remembered decision
+ * only repeats whether to skip: the exception manager asks for a message to be logged or peeked
+ * once, so those aren't repeated.
+ */
 @Component
 public class ExceptionManagerClient {
+  private static final Logger log = LoggerFactory.getLogger(ExceptionManagerClient.class);
 
-  @Value("${exceptionmanager.connection.scheme}")
-  private String scheme;
+  private final String scheme;
+  private final String host;
+  private final String port;
+  private final long reportTimeout;
+  private final long decisionCacheTtl;
+  private final int decisionCacheSize;
+  private final Executor exceptionReportExecutor;
+  private final RestTemplate restTemplate;
 
-  @Value("${exceptionmanager.connection.host}")
-  private String host;
+  private final Map<String, CompletableFuture<ExceptionReportResponse>> reportsInFlight =
+      new ConcurrentHashMap<>();
+  private final Map<String, CachedDecision> decisions;
 
-  @Value("${exceptionmanager.connection.port}")
-  private String port;
+  public ExceptionManagerClient(
+      @Value("${exceptionmanager.connection.scheme}") String scheme,
+      @Value("${exceptionmanager.connection.host}") String host,
+      @Value("${exceptionmanager.connection.port}") String port,
+      @Value("${exceptionmanager.connection.timeout}") int connectionTimeout,
+      @Value("${exceptionmanager.connection.max-connections}") int maxConnections,
+      @Value("${exceptionmanager.report-timeout}") long reportTimeout,
+      @Value("${exceptionmanager.decision-cache-ttl}") long decisionCacheTtl,
+      @Value("${exceptionmanager.decision-cache-size}") int decisionCacheSize,
+      @Qualifier("exceptionReportExecutor") Executor exceptionReportExecutor) {
+    this.scheme = scheme;
+    this.host = host;
+    this.port = port;
+    this.reportTimeout = reportTimeout;
+    this.decisionCacheTtl = decisionCacheTtl;
+    this.decisionCacheSize = decisionCacheSize;
+    this.exceptionReportExecutor = exceptionReportExecutor;
+    this.decisions =
+        Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<String, CachedDecision> eldest) {
+                return size() > decisionCacheSize;
+              }
+            });
+
+    HttpComponentsClientHttpRequestFactory requestFactory =
+        new HttpComponentsClientHttpRequestFactory(
+            HttpClientBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build());
+    requestFactory.setConnectTimeout(connectionTimeout);
+    requestFactory.setConnectionRequestTimeout(connectionTimeout);
+    requestFactory.setReadTimeout(connectionTimeout);
+    restTemplate = new RestTemplate(requestFactory);
+  }
 
   public ExceptionReportResponse reportException(
       String messageHash,
@@ -28,6 +102,15 @@ public class ExceptionManagerClient {
       String queue,
       Throwable cause,
       String stackTraceRootCause) {
+    String key = service + ":" + queue + ":" + messageHash;
+
+    CachedDecision cachedDecision = decisions.get(key);
+    if (cachedDecision != null) {
+      if (cachedDecision.getExpiresAt() > System.currentTimeMillis()) {
+        return repeatDecision(cachedDecision.getResponse());
+      }
+      decisions.remove(key, cachedDecision);
+    }
 
     ExceptionReport exceptionReport = new ExceptionReport();
     exceptionReport.setExceptionClass(cause.getClass().getName());
@@ -37,33 +120,126 @@ public class ExceptionManagerClient {
     exceptionReport.setService(service);
     exceptionReport.setQueue(queue);
 
-    RestTemplate restTemplate = new RestTemplate();
-    UriComponents uriComponents = createUriComponents("/reportexception");
+    CompletableFuture<ExceptionReportResponse> newReport = new CompletableFuture<>();
+    CompletableFuture<ExceptionReportResponse> report = reportsInFlight.putIfAbsent(key, newReport);
+    boolean firstReport = report == null;
 
-    return restTemplate.postForObject(
-        uriComponents.toUri(), exceptionReport, ExceptionReportResponse.class);
+    if (firstReport) {
+      report = newReport;
+      try {
+        CompletableFuture.supplyAsync(() -> postReport(exceptionReport), exceptionReportExecutor)
+            .whenComplete(
+                (response, throwable) -> {
+                  if (response != null) {
+                    cacheDecision(key, response);
+                  }
+                  reportsInFlight.remove(key);
+
+                  if (throwable != null) {
+                    newReport.completeExceptionally(throwable);
+                  } else {
+                    newReport.complete(response);
+                  }
+                });
+      } catch (RejectedExecutionException e) {
+        reportsInFlight.remove(key);
+        throw e;
+      }
+    }
+
+    ExceptionReportResponse response;
+    try {
+      response = report.get(reportTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted reporting to Exception Manager", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+    } catch (TimeoutException e) {
+      // The report carries on in the background, and its decision is used for the next failure
+      throw new RuntimeException("Timed out reporting to Exception Manager", e);
+    }
+
+    return firstReport ? response : repeatDecision(response);
   }
 
+  // The reply to a peek isn't needed by anything, so the consumer doesn't wait for it
   public void respondToPeek(String messageHash, byte[] payload) {
 
     Peek peekReply = new Peek();
     peekReply.setMessageHash(messageHash);
     peekReply.setMessagePayload(payload);
 
-    RestTemplate restTemplate = new RestTemplate();
     UriComponents uriComponents = createUriComponents("/peekreply");
 
-    restTemplate.postForObject(uriComponents.toUri(), peekReply, Void.class);
+    CompletableFuture.runAsync(
+            () -> restTemplate.postForObject(uriComponents.toUri(), peekReply, Void.class),
+            exceptionReportExecutor)
+        .exceptionally(
+            throwable -> {
+              log.with("message_hash", messageHash)
+                  .with("reason", throwable.getMessage())
+                  .warn("Could not respond to peek");
+              return null;
+            });
   }
 
+  // Must have finished before the message is acked, so stays on the caller's thread
   public void storeMessageBeforeSkipping(SkippedMessage skippedMessage) {
 
-    RestTemplate restTemplate = new RestTemplate();
     UriComponents uriComponents = createUriComponents("/storeskippedmessage");
 
     restTemplate.postForObject(uriComponents.toUri(), skippedMessage, Void.class);
   }
 
+  // The hashes of the messages from the given service that have been quarantined
+  public Set<String> getSkippedMessageHashes(String service) {
+    UriComponents uriComponents = createUriComponents("/skippedmessages");
+
+    Map<String, List<SkippedMessage>> skippedMessages =
+        restTemplate
+            .exchange(
+                uriComponents.toUri(),
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<Map<String, List<SkippedMessage>>>() {})
+            .getBody();
+
+    if (skippedMessages == null) {
+      return Set.of();
+    }
+
+    return skippedMessages.entrySet().stream()
+        .filter(
+            entry ->
+                entry.getValue().stream()
+                    .anyMatch(skippedMessage -> service.equals(skippedMessage.getService())))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toSet());
+  }
+
+  private ExceptionReportResponse postReport(ExceptionReport exceptionReport) {
+    UriComponents uriComponents = createUriComponents("/reportexception");
+
+    return restTemplate.postForObject(
+        uriComponents.toUri(), exceptionReport, ExceptionReportResponse.class);
+  }
+
+  private void cacheDecision(String key, ExceptionReportResponse response) {
+    decisions.put(key, new CachedDecision(response, System.currentTimeMillis() + decisionCacheTtl));
+  }
+
+  /*
+   * Deliberately drops logIt and peek. The exception manager sets logIt only the first time it
+   * sees a message and peek only once for each peek asked for, so repeating them would log the
+   * same failure on every redelivery and send the same payload back for every one.
+   */
+  private ExceptionReportResponse repeatDecision(ExceptionReportResponse response) {
+    ExceptionReportResponse repeat = new ExceptionReportResponse();
+    repeat.setSkipIt(response.isSkipIt());
+    return repeat;
+  }
+
   private UriComponents createUriComponents(String path) {
     return UriComponentsBuilder.newInstance()
         .scheme(scheme)
@@ -73,4 +249,10 @@ public class ExceptionManagerClient {
         .build()
         .encode();
   }
+
+  @Data
+  private static class CachedDecision {
+    private final ExceptionReportResponse response;
+    private final long expiresAt;
+  }
 }
@@ -0,0 +1,23 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+/*
+ * A failed call from the async Notify client. Carries the HTTP status the same way as the Notify
+ * library's NotificationClientException, with 0 meaning there was no response at all.
+ */
+public class NotifyHttpException extends RuntimeException {
+  private final int httpResult;
+
+  public NotifyHttpException(int httpResult, String message) {
+    super(message);
+    this.httpResult = httpResult;
+  }
+
+  public NotifyHttpException(int httpResult, String message, Throwable cause) {
+    super(message, cause);
+    this.httpResult = httpResult;
+  }
+
+  public int getHttpResult() {
+    return httpResult;
+  }
+}
@@ -0,0 +1,216 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
+
+/*
+ * Sits in front of every call to Gov Notify in the pod. Two things have to allow a call before it
+ * is made:
+ *
+ * - a token bucket, refilled at the configured rate and holding at most one second of tokens, which
+ *   keeps us under the per-key rate limit however many consumers there are
+ * - an adaptive concurrency limit (AIMD): each success raises it by 1/limit, so it grows by about
+ *   one per round of calls, and a 429 or 5xx halves it, at most once per second so that a burst of
+ *   failures from one overload only counts once
+ *
+ * Callers must release every permit they acquire, saying how the call went. acquire blocks the
+ * caller until it has a permit; acquireAsync returns a future that completes with one instead, so
+ * that sends waiting their turn don't each hold a thread.
+ */
+@Component
+public class NotifyRateLimiter {
+  private static final long DECREASE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  public enum Outcome {
+    SUCCESS,
+    THROTTLED,
+    FAILED;
+
+    public static Outcome of(int httpStatus) {
+      if (httpStatus == 429 || httpStatus >= 500) {
+        return THROTTLED;
+      }
+
+      return httpStatus >= 200 && httpStatus < 300 ? SUCCESS : FAILED;
+    }
+  }
+
+  private final long tokenIntervalNanos;
+  private final long burstNanos;
+  private final int minConcurrency;
+  private final int maxConcurrency;
+  private final long acquireTimeoutMillis;
+  private final Counter throttledCalls;
+  private final Object tokenLock = new Object();
+  private final Deque<CompletableFuture<Void>> asyncWaiters = new ArrayDeque<>();
+
+  private long nextTokenTime = System.nanoTime();
+  private double concurrencyLimit;
+  private int inFlight;
+  private long lastDecreaseTime = System.nanoTime() - DECREASE_INTERVAL_NANOS;
+
+  public NotifyRateLimiter(
+      MeterRegistry meterRegistry,
+      @Value("${notify.rate-limit.requests-per-second}") double requestsPerSecond,
+      @Value("${notify.rate-limit.min-concurrency}") int minConcurrency,
+      @Value("${notify.rate-limit.initial-concurrency}") int initialConcurrency,
+      @Value("${notify.rate-limit.max-concurrency}") int maxConcurrency,
+      @Value("${notify.rate-limit.acquire-timeout}") long acquireTimeoutMillis) {
+    this.tokenIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+    this.burstNanos = TimeUnit.SECONDS.toNanos(1);
+    this.minConcurrency = minConcurrency;
+    this.maxConcurrency = maxConcurrency;
+    this.acquireTimeoutMillis = acquireTimeoutMillis;
+    this.concurrencyLimit = Math.max(minConcurrency, Math.min(maxConcurrency, initialConcurrency));
+
+    Gauge.builder("notify.concurrency.limit", this, NotifyRateLimiter::getConcurrencyLimit)
+        .register(meterRegistry);
+    Gauge.builder("notify.in.flight", this, NotifyRateLimiter::getInFlight).register(meterRegistry);
+    throttledCalls = meterRegistry.counter("notify.throttled");
+  }
+
+  public void acquire() throws InterruptedException {
+    long startTime = System.nanoTime();
+    try {
+      acquirePermit(startTime);
+    } finally {
+      PipelineProgress.recordWait(System.nanoTime() - startTime);
+    }
+  }
+
+  private void acquirePermit(long startTime) throws InterruptedException {
+    long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+
+    synchronized (this) {
+      while (inFlight >= (int) concurrencyLimit) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new RuntimeException("Timed out waiting for a Gov Notify concurrency permit");
+        }
+
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+
+      inFlight++;
+    }
+
+    long tokenWait = reserveToken();
+    if (tokenWait > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(tokenWait);
+      } catch (InterruptedException e) {
+        release(Outcome.FAILED);
+        throw e;
+      }
+    }
+  }
+
+  public CompletableFuture<Void> acquireAsync() {
+    CompletableFuture<Void> concurrencyPermit = new CompletableFuture<>();
+    boolean granted;
+    synchronized (this) {
+      granted = inFlight < (int) concurrencyLimit;
+      if (granted) {
+        inFlight++;
+      } else {
+        asyncWaiters.add(concurrencyPermit);
+      }
+    }
+
+    if (granted) {
+      concurrencyPermit.complete(null);
+    } else {
+      // Still queued when the timeout comes means it was never granted, so there's no permit to
+      // give
+      // back
+      CompletableFuture.delayedExecutor(acquireTimeoutMillis, TimeUnit.MILLISECONDS)
+          .execute(
+              () -> {
+                boolean timedOut;
+                synchronized (this) {
+                  timedOut = asyncWaiters.remove(concurrencyPermit);
+                }
+                if (timedOut) {
+                  concurrencyPermit.completeExceptionally(
+                      new RuntimeException(
+                          "Timed out waiting for a Gov Notify concurrency permit"));
+                }
+              });
+    }
+
+    return concurrencyPermit.thenCompose(
+        permit -> {
+          long tokenWait = reserveToken();
+          if (tokenWait <= 0) {
+            return CompletableFuture.completedFuture(null);
+          }
+
+          return CompletableFuture.runAsync(
+              () -> {}, CompletableFuture.delayedExecutor(tokenWait, TimeUnit.NANOSECONDS));
+        });
+  }
+
+  public void release(Outcome outcome) {
+    // Completed outside the lock, as whatever was waiting for the permit runs on completion
+    for (CompletableFuture<Void> concurrencyPermit : releasePermit(outcome)) {
+      concurrencyPermit.complete(null);
+    }
+  }
+
+  private synchronized List<CompletableFuture<Void>> releasePermit(Outcome outcome) {
+    inFlight--;
+
+    if (outcome == Outcome.SUCCESS) {
+      concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+    } else if (outcome == Outcome.THROTTLED) {
+      throttledCalls.increment();
+
+      long now = System.nanoTime();
+      if (now - lastDecreaseTime >= DECREASE_INTERVAL_NANOS) {
+        concurrencyLimit = Math.max(minConcurrency, concurrencyLimit / 2);
+        lastDecreaseTime = now;
+      }
+    }
+
+    List<CompletableFuture<Void>> granted = new ArrayList<>();
+    while (inFlight < (int) concurrencyLimit && !asyncWaiters.isEmpty()) {
+      inFlight++;
+      granted.add(asyncWaiters.poll());
+    }
+
+    notifyAll();
+    return granted;
+  }
+
+  public synchronized double getConcurrencyLimit() {
+    return concurrencyLimit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  // Tokens left unused build up to at most one burst's worth
+  private long reserveToken() {
+    synchronized (tokenLock) {
+      long now = System.nanoTime();
+      if (nextTokenTime < now - burstNanos) {
+        nextTokenTime = now - burstNanos;
+      }
+
+      long tokenTime = nextTokenTime;
+      nextTokenTime += tokenIntervalNanos;
+      return tokenTime - now;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import java.io.IOException;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow.Subscription;
+
+/*
+ * Parses a UacQid[] response body as it arrives, one chunk at a time, with Jackson's non-blocking
+ * parser, so the body is never held in memory as a whole and no thread waits on the socket. Fields
+ * other than uac and qid are skipped, however deeply nested.
+ *
+ * Each pair is handed to the sink as soon as its object closes, straight from two reused character
+ * buffers, so parsing allocates nothing per pair. The body is the number of pairs handed over.
+ */
+class UacQidBodySubscriber implements BodySubscriber<Integer> {
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private final CompletableFuture<Integer> result = new CompletableFuture<>();
+  private final UacQidSink sink;
+  private final StringBuilder uac = new StringBuilder();
+  private final StringBuilder qid = new StringBuilder();
+  private final JsonParser parser;
+  private final ByteArrayFeeder feeder;
+  private Subscription subscription;
+  private int depth;
+  private boolean arrayClosed;
+  private String fieldName;
+  private boolean inPair;
+  private boolean hasUac;
+  private boolean hasQid;
+  private int count;
+
+  UacQidBodySubscriber(UacQidSink sink) {
+    this.sink = sink;
+    try {
+      parser = jsonFactory.createNonBlockingByteArrayParser();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+  }
+
+  @Override
+  public CompletionStage<Integer> getBody() {
+    return result;
+  }
+
+  @Override
+  public void onSubscribe(Subscription subscription) {
+    this.subscription = subscription;
+    subscription.request(Long.MAX_VALUE);
+  }
+
+  @Override
+  public void onNext(List<ByteBuffer> buffers) {
+    try {
+      for (ByteBuffer buffer : buffers) {
+        feed(buffer);
+        parseAvailableTokens();
+      }
+    } catch (IOException | RuntimeException e) {
+      subscription.cancel();
+      result.completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    result.completeExceptionally(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    try {
+      feeder.endOfInput();
+      parseAvailableTokens();
+
+      if (!arrayClosed) {
+        throw new IOException("UAC QID response ended before the array was complete");
+      }
+
+      result.complete(count);
+    } catch (IOException | RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  private void feed(ByteBuffer buffer) throws IOException {
+    int length = buffer.remaining();
+
+    if (buffer.hasArray()) {
+      int start = buffer.arrayOffset() + buffer.position();
+      feeder.feedInput(buffer.array(), start, start + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      feeder.feedInput(bytes, 0, length);
+    }
+  }
+
+  private void parseAvailableTokens() throws IOException {
+    JsonToken token;
+
+    while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+      switch (token) {
+        case START_ARRAY:
+        case START_OBJECT:
+          depth++;
+          if (depth == 1 && token != JsonToken.START_ARRAY) {
+            throw new IOException("Expected an array of UAC QIDs");
+          }
+          if (depth == 2 && token == JsonToken.START_OBJECT) {
+            inPair = true;
+            hasUac = false;
+            hasQid = false;
+          }
+          break;
+
+        case END_ARRAY:
+        case END_OBJECT:
+          if (depth == 2 && token == JsonToken.END_OBJECT) {
+            completePair();
+          }
+          depth--;
+          arrayClosed = depth == 0;
+          break;
+
+        case FIELD_NAME:
+          fieldName = parser.getCurrentName();
+          break;
+
+        default:
+          if (depth == 2 && inPair) {
+            setField(token);
+          }
+          break;
+      }
+    }
+  }
+
+  private void setField(JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) {
+      return;
+    }
+
+    if ("uac".equals(fieldName)) {
+      copyText(uac);
+      hasUac = true;
+    } else if ("qid".equals(fieldName)) {
+      copyText(qid);
+      hasQid = true;
+    }
+  }
+
+  private void copyText(StringBuilder target) throws IOException {
+    target.setLength(0);
+    target.append(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+  }
+
+  private void completePair() throws IOException {
+    inPair = false;
+
+    if (!hasUac || !hasQid) {
+      throw new IOException("UAC QID response contains a pair without both a uac and a qid");
+    }
+
+    sink.accept(uac, qid);
+    count++;
+  }
+}
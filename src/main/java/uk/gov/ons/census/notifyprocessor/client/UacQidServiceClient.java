@@ -1,37 +1,137 @@
 package uk.gov.ons.census.notifyprocessor.client;
 
-import java.util.Arrays;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 import uk.gov.ons.census.notifyprocessor.model.UacQid;
 
+/*
+ * One shared HttpClient, which keeps a pool of keep-alive connections to the UAC QID service and
+ * runs on the refill executor. Requests are asynchronous and the response is parsed as it streams
+ * in, so no thread is tied up for the round-trip. Every request goes through the circuit breaker,
+ * so while the service is down refills fail straight away instead of piling up.
+ */
 @Component
 public class UacQidServiceClient {
+  private final String scheme;
+  private final String host;
+  private final String port;
+  private final Duration readTimeout;
+  private final HttpClient httpClient;
+  private final CircuitBreaker circuitBreaker;
+  private final Timer requestTimer;
+  private final Timer failedRequestTimer;
 
-  @Value("${uacservice.connection.scheme}")
-  private String scheme;
+  public UacQidServiceClient(
+      @Value("${uacservice.connection.scheme}") String scheme,
+      @Value("${uacservice.connection.host}") String host,
+      @Value("${uacservice.connection.port}") String port,
+      @Value("${uacservice.connection.connect-timeout}") long connectTimeout,
+      @Value("${uacservice.connection.read-timeout}") long readTimeout,
+      @Qualifier("uacQidRefillExecutor") Executor executor,
+      @Qualifier("uacQidServiceCircuitBreaker") CircuitBreaker circuitBreaker,
+      MeterRegistry meterRegistry) {
+    this.scheme = scheme;
+    this.host = host;
+    this.port = port;
+    this.readTimeout = Duration.ofMillis(readTimeout);
+    this.httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(connectTimeout))
+            .executor(executor)
+            .build();
+    this.circuitBreaker = circuitBreaker;
+    this.requestTimer = makeRequestTimer(meterRegistry, "success");
+    this.failedRequestTimer = makeRequestTimer(meterRegistry, "failure");
+  }
+
+  public CompletableFuture<List<UacQid>> getUacQids(Integer questionnaireType, int numberToCreate) {
+    List<UacQid> uacQids = new ArrayList<>(numberToCreate);
+
+    return streamUacQids(
+            questionnaireType,
+            numberToCreate,
+            (uac, qid) -> {
+              UacQid uacQid = new UacQid();
+              uacQid.setUac(uac.toString());
+              uacQid.setQid(qid.toString());
+              uacQids.add(uacQid);
+            })
+        .thenApply(count -> uacQids);
+  }
 
-  @Value("${uacservice.connection.host}")
-  private String host;
+  // Hands each pair to the sink as it is parsed; completes with the number of pairs
+  public CompletableFuture<Integer> streamUacQids(
+      Integer questionnaireType, int numberToCreate, UacQidSink sink) {
+    if (!circuitBreaker.tryAcquirePermission()) {
+      return CompletableFuture.failedFuture(
+          new CircuitBreakerOpenException(circuitBreaker.getName()));
+    }
 
-  @Value("${uacservice.connection.port}")
-  private String port;
+    long startTime = System.nanoTime();
+    CompletableFuture<Integer> uacQidCount;
+    try {
+      UriComponents uriComponents =
+          createUriComponents(questionnaireType, numberToCreate, "multiple_qids");
+      HttpRequest request =
+          HttpRequest.newBuilder(uriComponents.toUri()).timeout(readTimeout).GET().build();
 
-  public List<UacQid> getUacQids(Integer questionnaireType, int numberToCreate) {
-    RestTemplate restTemplate = new RestTemplate();
+      uacQidCount =
+          httpClient
+              .sendAsync(request, uacQidBodyHandler(sink))
+              .thenApply(response -> response.body());
+    } catch (RuntimeException e) {
+      uacQidCount = CompletableFuture.failedFuture(e);
+    }
+
+    return uacQidCount.whenComplete(
+        (count, throwable) -> {
+          if (throwable == null) {
+            circuitBreaker.recordSuccess();
+            requestTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+          } else {
+            circuitBreaker.recordFailure();
+            failedRequestTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+          }
+        });
+  }
+
+  private Timer makeRequestTimer(MeterRegistry meterRegistry, String outcome) {
+    return Timer.builder("uacqid.service.request")
+        .description("Time taken to fetch a batch of UAC QIDs, including parsing the response")
+        .tag("outcome", outcome)
+        .register(meterRegistry);
+  }
 
-    UriComponents uriComponents =
-        createUriComponents(questionnaireType, numberToCreate, "multiple_qids");
-    ResponseEntity<UacQid[]> responseEntity =
-        restTemplate.exchange(uriComponents.toUri(), HttpMethod.GET, null, UacQid[].class);
+  private BodyHandler<Integer> uacQidBodyHandler(UacQidSink sink) {
+    return responseInfo -> {
+      if (responseInfo.statusCode() / 100 == 2) {
+        return new UacQidBodySubscriber(sink);
+      }
 
-    return Arrays.asList(responseEntity.getBody());
+      return BodySubscribers.mapping(
+          BodySubscribers.ofString(StandardCharsets.UTF_8),
+          body -> {
+            throw new RuntimeException(
+                "UAC QID service returned " + responseInfo.statusCode() + ": " + body);
+          });
+    };
   }
 
   private UriComponents createUriComponents(
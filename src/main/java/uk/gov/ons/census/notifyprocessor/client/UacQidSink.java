@@ -0,0 +1,10 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+/*
+ * Receives each UAC/QID pair as it is parsed. The character sequences are only valid for the
+ * duration of the call, because their buffers are reused for the next pair.
+ */
+@FunctionalInterface
+public interface UacQidSink {
+  void accept(CharSequence uac, CharSequence qid);
+}
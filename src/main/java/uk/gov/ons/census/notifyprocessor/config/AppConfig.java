@@ -4,6 +4,11 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import java.util.TimeZone;
 import javax.annotation.PostConstruct;
 import org.springframework.amqp.core.AmqpAdmin;
@@ -12,30 +17,76 @@ import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.transaction.RabbitTransactionManager;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
 import org.springframework.web.client.RestTemplate;
+import uk.gov.ons.census.notifyprocessor.messaging.PublisherConfirmTracker;
 
 @Configuration
 @EnableScheduling
 public class AppConfig {
+  @Value("${queueconfig.delivery-guarantee}")
+  private DeliveryGuarantee deliveryGuarantee;
+
+  @Value("${uacservice.uacqid-refill-threads}")
+  private int uacQidRefillThreads;
+
+  @Value("${notify.dispatch-threads}")
+  private int notifyDispatchThreads;
+
+  @Value("${exceptionmanager.report-threads}")
+  private int exceptionReportThreads;
+
   @Bean
   public RabbitTemplate rabbitTemplate(
-      ConnectionFactory connectionFactory, Jackson2JsonMessageConverter messageConverter) {
+      ConnectionFactory connectionFactory,
+      Jackson2JsonMessageConverter messageConverter,
+      PublisherConfirmTracker publisherConfirmTracker) {
+    /* The connection factory's confirm type comes from spring.rabbitmq.publisher-confirm-type, and
+     * has to match: a template only correlates confirms on a factory that asks for them, and a
+     * channel in confirm mode can't be transacted.
+     */
+    if (deliveryGuarantee == DeliveryGuarantee.CONFIRMS
+        && !connectionFactory.isPublisherConfirms()) {
+      throw new IllegalStateException(
+          "Delivery guarantee CONFIRMS needs spring.rabbitmq.publisher-confirm-type: correlated");
+    } else if (deliveryGuarantee == DeliveryGuarantee.TRANSACTIONS
+        && connectionFactory.isPublisherConfirms()) {
+      throw new IllegalStateException(
+          "Delivery guarantee TRANSACTIONS needs spring.rabbitmq.publisher-confirm-type: none");
+    }
+
     RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
     rabbitTemplate.setMessageConverter(messageConverter);
-    rabbitTemplate.setChannelTransacted(true);
+
+    if (deliveryGuarantee == DeliveryGuarantee.CONFIRMS) {
+      rabbitTemplate.setCorrelationDataPostProcessor(publisherConfirmTracker);
+    } else {
+      rabbitTemplate.setChannelTransacted(true);
+    }
+
     return rabbitTemplate;
   }
 
+  // Shared by the message converter and the receivers that read message bodies themselves
   @Bean
-  public Jackson2JsonMessageConverter messageConverter() {
+  public ObjectMapper objectMapper() {
     ObjectMapper objectMapper = new ObjectMapper();
     objectMapper.registerModule(new JavaTimeModule());
     objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    return objectMapper;
+  }
+
+  @Bean
+  public Jackson2JsonMessageConverter messageConverter(ObjectMapper objectMapper) {
     return new Jackson2JsonMessageConverter(objectMapper);
   }
 
@@ -46,6 +97,10 @@ public class AppConfig {
 
   @Bean
   PlatformTransactionManager transactionManager(ConnectionFactory connectionFactory) {
+    if (deliveryGuarantee == DeliveryGuarantee.CONFIRMS) {
+      return new NoOpTransactionManager();
+    }
+
     return new RabbitTransactionManager(connectionFactory);
   }
 
@@ -54,8 +109,86 @@ public class AppConfig {
     return new RestTemplate();
   }
 
+  @Bean
+  public PrometheusMeterRegistry meterRegistry() {
+    return new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+  }
+
+  @Bean
+  public ThreadPoolTaskExecutor uacQidRefillExecutor(MeterRegistry meterRegistry) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(uacQidRefillThreads);
+    executor.setMaxPoolSize(uacQidRefillThreads);
+    executor.setThreadNamePrefix("uacqid-refill-");
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    executor.setAwaitTerminationSeconds(30);
+    executor.initialize();
+
+    new ExecutorServiceMetrics(
+            executor.getThreadPoolExecutor(), "uacQidRefillExecutor", Tags.empty())
+        .bindTo(meterRegistry);
+
+    return executor;
+  }
+
+  // Reports to the exception manager are made here so that consumers only wait as long as they must
+  @Bean
+  public ThreadPoolTaskExecutor exceptionReportExecutor(MeterRegistry meterRegistry) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(exceptionReportThreads);
+    executor.setMaxPoolSize(exceptionReportThreads);
+    executor.setThreadNamePrefix("exception-report-");
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    executor.setAwaitTerminationSeconds(30);
+    executor.initialize();
+
+    new ExecutorServiceMetrics(
+            executor.getThreadPoolExecutor(), "exceptionReportExecutor", Tags.empty())
+        .bindTo(meterRegistry);
+
+    return executor;
+  }
+
+  // Bounds the SMS sends in flight to Gov Notify across every enriched fulfilment consumer
+  @Bean
+  public ThreadPoolTaskExecutor notifyDispatchExecutor(MeterRegistry meterRegistry) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(notifyDispatchThreads);
+    executor.setMaxPoolSize(notifyDispatchThreads);
+    executor.setThreadNamePrefix("notify-dispatch-");
+    executor.setWaitForTasksToCompleteOnShutdown(true);
+    executor.setAwaitTerminationSeconds(30);
+    executor.initialize();
+
+    new ExecutorServiceMetrics(
+            executor.getThreadPoolExecutor(), "notifyDispatchExecutor", Tags.empty())
+        .bindTo(meterRegistry);
+
+    return executor;
+  }
+
   @PostConstruct
   public void init() {
     TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
   }
+
+  /*
+   * With publisher confirms nothing is transacted, but the receivers are still @Transactional, so
+   * this stops them from opening and committing an empty Rabbit transaction for every message.
+   */
+  private static class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+    @Override
+    protected Object doGetTransaction() {
+      return new Object();
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {}
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {}
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {}
+  }
 }
@@ -0,0 +1,31 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/*
+ * Bounds and targets for scaling the consumers of each listener container, under
+ * queueconfig.autoscaling. The two containers are scaled separately because fulfilments are bound
+ * by the UAC QID service and enriched fulfilments by Gov Notify's latency.
+ */
+@Data
+@Component
+@ConfigurationProperties("queueconfig.autoscaling")
+public class AutoscalingProperties {
+  private boolean enabled;
+  private Limits fulfilment = new Limits();
+  private Limits enrichedFulfilment = new Limits();
+
+  @Data
+  public static class Limits {
+    private int minConsumers = 1;
+    private int maxConsumers = 50;
+
+    // How long we're willing to take to work through whatever is on the queue
+    private long targetDrainTime = 30000;
+
+    // Above this fraction of failed deliveries we back off rather than add load downstream
+    private double maxErrorRate = 0.5;
+  }
+}
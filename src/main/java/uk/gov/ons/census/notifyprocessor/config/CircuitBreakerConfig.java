@@ -0,0 +1,26 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+
+@Configuration
+public class CircuitBreakerConfig {
+  @Value("${circuitbreaker.failure-threshold}")
+  private int failureThreshold;
+
+  @Value("${circuitbreaker.open-duration}")
+  private long openDuration;
+
+  @Bean
+  public CircuitBreaker uacQidServiceCircuitBreaker(MeterRegistry meterRegistry) {
+    return new CircuitBreaker("uacQidService", failureThreshold, openDuration, meterRegistry);
+  }
+
+  @Bean
+  public CircuitBreaker notifyCircuitBreaker(MeterRegistry meterRegistry) {
+    return new CircuitBreaker("notify", failureThreshold, openDuration, meterRegistry);
+  }
+}
@@ -0,0 +1,9 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+public enum DeliveryGuarantee {
+  // Publishes and the inbound ack are committed together in a Rabbit channel transaction
+  TRANSACTIONS,
+
+  // Publishes are confirmed asynchronously and the inbound message is acked once all are confirmed
+  CONFIRMS
+}
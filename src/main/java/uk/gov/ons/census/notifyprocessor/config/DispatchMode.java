@@ -0,0 +1,9 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+public enum DispatchMode {
+  // Each consumer, or dispatch thread when batching, waits for its SMS to be sent
+  BLOCKING,
+
+  // Consumers hand each SMS to the async Notify client and ack it when the send completes
+  ASYNC
+}
@@ -1,31 +1,72 @@
 package uk.gov.ons.census.notifyprocessor.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
 import org.springframework.integration.amqp.support.DefaultAmqpHeaderMapper;
 import org.springframework.integration.channel.DirectChannel;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.retry.backoff.FixedBackOffPolicy;
+import org.springframework.retry.RetryPolicy;
 import org.springframework.retry.interceptor.RetryOperationsInterceptor;
+import org.springframework.retry.policy.ExceptionClassifierRetryPolicy;
+import org.springframework.retry.policy.NeverRetryPolicy;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
 import uk.gov.ons.census.notifyprocessor.client.ExceptionManagerClient;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
+import uk.gov.ons.census.notifyprocessor.messaging.AsyncEnrichedFulfilmentReceiver;
+import uk.gov.ons.census.notifyprocessor.messaging.DelayedRequeueRecoverer;
+import uk.gov.ons.census.notifyprocessor.messaging.EnrichedFulfilmentBatchReceiver;
+import uk.gov.ons.census.notifyprocessor.messaging.ExponentialJitterBackOffPolicy;
+import uk.gov.ons.census.notifyprocessor.messaging.FailureClass;
+import uk.gov.ons.census.notifyprocessor.messaging.FulfilmentBatchReceiver;
 import uk.gov.ons.census.notifyprocessor.messaging.ManagedMessageRecoverer;
-import uk.gov.ons.census.notifyprocessor.model.EnrichedFulfilmentRequest;
-import uk.gov.ons.census.notifyprocessor.model.ResponseManagementEvent;
+import uk.gov.ons.census.notifyprocessor.messaging.PipelineProgressAdvice;
+import uk.gov.ons.census.notifyprocessor.messaging.PublisherConfirmAckAdvice;
+import uk.gov.ons.census.notifyprocessor.messaging.PublisherConfirmTracker;
+import uk.gov.ons.census.notifyprocessor.messaging.QuarantineAdvice;
+import uk.gov.ons.census.notifyprocessor.messaging.QuarantineIndex;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+import uk.gov.ons.census.notifyprocessor.service.FulfilmentRequestService;
 
 @Configuration
 public class MessageConsumerConfig {
+  private static final Logger log = LoggerFactory.getLogger(MessageConsumerConfig.class);
+  private static final String SERVICE_NAME = "Notify Processor";
+
   private final ExceptionManagerClient exceptionManagerClient;
   private final ConnectionFactory connectionFactory;
+  private final FulfilmentRequestService fulfilmentRequestService;
+  private final EnrichedFulfilmentRequestService enrichedFulfilmentRequestService;
+  private final PublisherConfirmTracker publisherConfirmTracker;
+  private final Executor notifyDispatchExecutor;
+  private final RabbitTemplate rabbitTemplate;
+  private final ObjectMapper objectMapper;
+  private final MeterRegistry meterRegistry;
 
   @Value("${messagelogging.logstacktraces}")
   private boolean logStackTraces;
@@ -39,16 +80,88 @@ public class MessageConsumerConfig {
   @Value("${queueconfig.retry-delay}")
   private int retryDelay;
 
+  @Value("${queueconfig.rate-limited-retry-delay}")
+  private int rateLimitedRetryDelay;
+
+  @Value("${queueconfig.retry-multiplier}")
+  private double retryMultiplier;
+
+  @Value("${queueconfig.retry-max-delay}")
+  private int retryMaxDelay;
+
+  @Value("${queueconfig.retry-mode}")
+  private RetryMode retryMode;
+
+  @Value("${queueconfig.delivery-guarantee}")
+  private DeliveryGuarantee deliveryGuarantee;
+
+  @Value("${queueconfig.delay-queue-confirm-timeout}")
+  private long delayQueueConfirmTimeout;
+
+  @Value("${queueconfig.fulfilment-prefetch}")
+  private int fulfilmentPrefetch;
+
+  @Value("${queueconfig.fulfilment-ack-batch-size}")
+  private int fulfilmentAckBatchSize;
+
+  @Value("${queueconfig.enriched-fulfilment-prefetch}")
+  private int enrichedFulfilmentPrefetch;
+
+  @Value("${queueconfig.enriched-fulfilment-ack-batch-size}")
+  private int enrichedFulfilmentAckBatchSize;
+
+  @Value("${queueconfig.fulfilment-batch-size}")
+  private int fulfilmentBatchSize;
+
+  @Value("${queueconfig.fulfilment-batch-receive-timeout}")
+  private long fulfilmentBatchReceiveTimeout;
+
+  @Value("${queueconfig.enriched-fulfilment-batch-size}")
+  private int enrichedFulfilmentBatchSize;
+
+  @Value("${queueconfig.enriched-fulfilment-batch-receive-timeout}")
+  private long enrichedFulfilmentBatchReceiveTimeout;
+
+  @Value("${queueconfig.enriched-fulfilment-dispatch-mode}")
+  private DispatchMode enrichedFulfilmentDispatchMode;
+
+  @Value("${queueconfig.enriched-fulfilment-async-consumers}")
+  private int enrichedFulfilmentAsyncConsumers;
+
+  @Value("${queueconfig.enriched-fulfilment-async-stop-timeout}")
+  private long enrichedFulfilmentAsyncStopTimeout;
+
+  @Value("${queueconfig.quarantine-index-size}")
+  private int quarantineIndexSize;
+
   @Value("${queueconfig.fulfilment-request-inbound-queue}")
   private String fulfilmentInboundQueue;
 
   @Value("${queueconfig.enriched-fulfilment-queue}")
   private String enrichedFulfilmentQueue;
 
+  @Value("${queueconfig.dead-letter-exchange}")
+  private String deadLetterExchange;
+
   public MessageConsumerConfig(
-      ExceptionManagerClient exceptionManagerClient, ConnectionFactory connectionFactory) {
+      ExceptionManagerClient exceptionManagerClient,
+      ConnectionFactory connectionFactory,
+      FulfilmentRequestService fulfilmentRequestService,
+      EnrichedFulfilmentRequestService enrichedFulfilmentRequestService,
+      PublisherConfirmTracker publisherConfirmTracker,
+      @Qualifier("notifyDispatchExecutor") Executor notifyDispatchExecutor,
+      RabbitTemplate rabbitTemplate,
+      ObjectMapper objectMapper,
+      MeterRegistry meterRegistry) {
     this.exceptionManagerClient = exceptionManagerClient;
     this.connectionFactory = connectionFactory;
+    this.fulfilmentRequestService = fulfilmentRequestService;
+    this.enrichedFulfilmentRequestService = enrichedFulfilmentRequestService;
+    this.publisherConfirmTracker = publisherConfirmTracker;
+    this.notifyDispatchExecutor = notifyDispatchExecutor;
+    this.rabbitTemplate = rabbitTemplate;
+    this.objectMapper = objectMapper;
+    this.meterRegistry = meterRegistry;
   }
 
   @Bean
@@ -61,7 +174,52 @@ public class MessageConsumerConfig {
     return new DirectChannel();
   }
 
+  // Starts with everything the exception manager has already quarantined from this service
   @Bean
+  public QuarantineIndex quarantineIndex() {
+    QuarantineIndex quarantineIndex = new QuarantineIndex(quarantineIndexSize, meterRegistry);
+
+    try {
+      quarantineIndex.addAll(exceptionManagerClient.getSkippedMessageHashes(SERVICE_NAME));
+    } catch (Exception e) {
+      log.with("reason", e.getMessage())
+          .warn("Could not load quarantined messages from Exception Manager");
+    }
+
+    return quarantineIndex;
+  }
+
+  @Bean
+  public PipelineProgress fulfilmentProgress() {
+    return new PipelineProgress("fulfilment", meterRegistry);
+  }
+
+  @Bean
+  public PipelineProgress enrichedFulfilmentProgress() {
+    return new PipelineProgress("enriched_fulfilment", meterRegistry);
+  }
+
+  // One delay queue per retry attempt for each inbound queue, dead lettering back to that queue
+  @Bean
+  @ConditionalOnProperty(name = "queueconfig.retry-mode", havingValue = "DELAYED_REQUEUE")
+  public Declarables retryDelayQueues() {
+    List<Declarable> queues = new ArrayList<>();
+    for (String queueName : List.of(fulfilmentInboundQueue, enrichedFulfilmentQueue)) {
+      for (int attempt = 1; attempt < retryAttempts; attempt++) {
+        queues.add(
+            QueueBuilder.durable(DelayedRequeueRecoverer.getDelayQueueName(queueName, attempt))
+                .deadLetterExchange("")
+                .deadLetterRoutingKey(queueName)
+                .build());
+      }
+    }
+
+    return new Declarables(queues);
+  }
+
+  // In batch mode the fulfilment container has its own batch listener instead of the adapter
+  @Bean
+  @ConditionalOnExpression("${queueconfig.fulfilment-batch-size} <= 1")
   public AmqpInboundChannelAdapter fulfilmentInbound(
       @Qualifier("fulfilmentContainer") SimpleMessageListenerContainer listenerContainer,
       @Qualifier("fulfilmentInputChannel") MessageChannel channel) {
@@ -69,6 +227,9 @@ public class MessageConsumerConfig {
   }
 
   @Bean
+  @ConditionalOnExpression(
+      "${queueconfig.enriched-fulfilment-batch-size} <= 1"
+          + " and '${queueconfig.enriched-fulfilment-dispatch-mode}' == 'BLOCKING'")
   public AmqpInboundChannelAdapter enrichedfulfilmentInbound(
       @Qualifier("enrichedFulfilmentContainer") SimpleMessageListenerContainer listenerContainer,
       @Qualifier("enrichedFulfilmentInputChannel") MessageChannel channel) {
@@ -77,42 +238,249 @@ public class MessageConsumerConfig {
 
   @Bean
   public SimpleMessageListenerContainer fulfilmentContainer() {
-    return setupListenerContainer(fulfilmentInboundQueue, ResponseManagementEvent.class);
+    if (fulfilmentBatchSize > 1) {
+      return setupFulfilmentBatchListenerContainer();
+    }
+
+    SimpleMessageListenerContainer container =
+        setupListenerContainer(
+            fulfilmentInboundQueue,
+            fulfilmentProgress(),
+            fulfilmentPrefetch,
+            fulfilmentAckBatchSize,
+            fulfilmentBatchReceiveTimeout);
+
+    if (deliveryGuarantee == DeliveryGuarantee.CONFIRMS) {
+      // Only the fulfilment container publishes, so only it needs to wait for confirms to ack
+      container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+      container.setAdviceChain(
+          new PipelineProgressAdvice(fulfilmentProgress()),
+          new PublisherConfirmAckAdvice(publisherConfirmTracker),
+          new QuarantineAdvice(quarantineIndex(), false),
+          makeRetryInterceptor(fulfilmentInboundQueue));
+    }
+
+    return container;
   }
 
   @Bean
   public SimpleMessageListenerContainer enrichedFulfilmentContainer() {
-    return setupListenerContainer(enrichedFulfilmentQueue, EnrichedFulfilmentRequest.class);
+    // A failure would take sent messages back with it, see setupListenerContainer
+    if (enrichedFulfilmentAckBatchSize > 1) {
+      throw new IllegalStateException(
+          "queueconfig.enriched-fulfilment-ack-batch-size must be 1, an SMS can't be unsent, use"
+              + " queueconfig.enriched-fulfilment-batch-size to consume in batches");
+    }
+
+    if (enrichedFulfilmentDispatchMode == DispatchMode.ASYNC) {
+      return setupAsyncEnrichedFulfilmentListenerContainer();
+    }
+
+    if (enrichedFulfilmentBatchSize > 1) {
+      return setupEnrichedFulfilmentBatchListenerContainer();
+    }
+
+    return setupListenerContainer(
+        enrichedFulfilmentQueue,
+        enrichedFulfilmentProgress(),
+        enrichedFulfilmentPrefetch,
+        enrichedFulfilmentAckBatchSize,
+        enrichedFulfilmentBatchReceiveTimeout);
   }
 
+  /*
+   * An ack batch size over 1 acks that many messages at once, waiting up to the receive timeout for
+   * the batch to fill. When a message fails out of the listener the container nacks with multiple
+   * set, so every unacked message before it in the batch, though it was processed, goes the same
+   * way: dead lettered along with it, or requeued and processed again. For fulfilments that means
+   * publishing a UAC QID twice, so their ack batch size is a trade-off; for enriched fulfilments it
+   * would mean sending an SMS twice, so theirs must be 1.
+   */
   private SimpleMessageListenerContainer setupListenerContainer(
-      String queueName, Class expectedMessageType) {
-    FixedBackOffPolicy fixedBackOffPolicy = new FixedBackOffPolicy();
-    fixedBackOffPolicy.setBackOffPeriod(retryDelay);
+      String queueName,
+      PipelineProgress pipelineProgress,
+      int prefetch,
+      int ackBatchSize,
+      long receiveTimeout) {
+    SimpleMessageListenerContainer container =
+        new SimpleMessageListenerContainer(connectionFactory);
+    container.setQueueNames(queueName);
+    container.setConcurrentConsumers(consumers);
+    container.setPrefetchCount(prefetch);
+    container.setBatchSize(ackBatchSize);
+    container.setReceiveTimeout(receiveTimeout);
+    container.setAdviceChain(
+        new PipelineProgressAdvice(pipelineProgress),
+        new QuarantineAdvice(quarantineIndex(), false),
+        makeRetryInterceptor(queueName));
+    return container;
+  }
 
-    ManagedMessageRecoverer managedMessageRecoverer =
-        new ManagedMessageRecoverer(
-            exceptionManagerClient,
-            expectedMessageType,
-            logStackTraces,
-            "Notify Processor",
-            queueName);
+  private SimpleMessageListenerContainer setupFulfilmentBatchListenerContainer() {
+    // Retries happen per message inside the batch, so that one bad message can't fail the rest
+    FulfilmentBatchReceiver fulfilmentBatchReceiver =
+        new FulfilmentBatchReceiver(
+            fulfilmentRequestService,
+            makeRetryTemplate(),
+            makeRecoverer(fulfilmentInboundQueue),
+            deliveryGuarantee == DeliveryGuarantee.CONFIRMS ? publisherConfirmTracker : null,
+            rabbitTemplate,
+            fulfilmentInboundQueue,
+            deadLetterExchange,
+            objectMapper);
+
+    SimpleMessageListenerContainer container =
+        new SimpleMessageListenerContainer(connectionFactory);
+    container.setQueueNames(fulfilmentInboundQueue);
+    container.setConcurrentConsumers(consumers);
+    container.setPrefetchCount(fulfilmentPrefetch);
+    container.setConsumerBatchEnabled(true);
+    container.setDeBatchingEnabled(true);
+    container.setBatchSize(fulfilmentBatchSize);
+    container.setReceiveTimeout(fulfilmentBatchReceiveTimeout);
+    container.setMessageListener(fulfilmentBatchReceiver);
 
-    RetryOperationsInterceptor retryOperationsInterceptor =
-        RetryInterceptorBuilder.stateless()
-            .maxAttempts(retryAttempts)
-            .backOffPolicy(fixedBackOffPolicy)
-            .recoverer(managedMessageRecoverer)
-            .build();
+    if (deliveryGuarantee == DeliveryGuarantee.CONFIRMS) {
+      container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    } else {
+      container.setChannelTransacted(true);
+    }
 
+    container.setAdviceChain(
+        new PipelineProgressAdvice(fulfilmentProgress()),
+        new QuarantineAdvice(quarantineIndex(), deliveryGuarantee == DeliveryGuarantee.CONFIRMS));
+
+    return container;
+  }
+
+  private SimpleMessageListenerContainer setupEnrichedFulfilmentBatchListenerContainer() {
+    EnrichedFulfilmentBatchReceiver enrichedFulfilmentBatchReceiver =
+        new EnrichedFulfilmentBatchReceiver(
+            enrichedFulfilmentRequestService,
+            makeRetryTemplate(),
+            makeRecoverer(enrichedFulfilmentQueue),
+            notifyDispatchExecutor,
+            objectMapper);
+
+    // Nothing is published from here, so each message is acked by hand once its SMS is sent
     SimpleMessageListenerContainer container =
         new SimpleMessageListenerContainer(connectionFactory);
-    container.setQueueNames(queueName);
+    container.setQueueNames(enrichedFulfilmentQueue);
     container.setConcurrentConsumers(consumers);
-    container.setAdviceChain(retryOperationsInterceptor);
+    container.setPrefetchCount(enrichedFulfilmentPrefetch);
+    container.setConsumerBatchEnabled(true);
+    container.setDeBatchingEnabled(true);
+    container.setBatchSize(enrichedFulfilmentBatchSize);
+    container.setReceiveTimeout(enrichedFulfilmentBatchReceiveTimeout);
+    container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    container.setAdviceChain(
+        new PipelineProgressAdvice(enrichedFulfilmentProgress()),
+        new QuarantineAdvice(quarantineIndex(), true));
+    container.setMessageListener(enrichedFulfilmentBatchReceiver);
     return container;
   }
 
+  private SimpleMessageListenerContainer setupAsyncEnrichedFulfilmentListenerContainer() {
+    // With delayed requeue the recoverer does the retrying, as it does for the other containers
+    AsyncEnrichedFulfilmentReceiver asyncEnrichedFulfilmentReceiver =
+        new AsyncEnrichedFulfilmentReceiver(
+            enrichedFulfilmentRequestService,
+            makeBackOffPolicy(),
+            retryMode == RetryMode.DELAYED_REQUEUE ? 1 : retryAttempts,
+            makeRecoverer(enrichedFulfilmentQueue),
+            enrichedFulfilmentProgress(),
+            notifyDispatchExecutor,
+            objectMapper);
+
+    // The consumers only hand messages over, so a few of them with a large prefetch will do.
+    // Stopping waits for the sends already out before the channels they're acked on are closed
+    SimpleMessageListenerContainer container =
+        new SimpleMessageListenerContainer(connectionFactory) {
+          @Override
+          protected void doStart() {
+            asyncEnrichedFulfilmentReceiver.start();
+            super.doStart();
+          }
+
+          @Override
+          protected void doStop() {
+            asyncEnrichedFulfilmentReceiver.stop(enrichedFulfilmentAsyncStopTimeout);
+            super.doStop();
+          }
+        };
+    container.setQueueNames(enrichedFulfilmentQueue);
+    container.setConcurrentConsumers(enrichedFulfilmentAsyncConsumers);
+    container.setPrefetchCount(enrichedFulfilmentPrefetch);
+    container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    // No PipelineProgressAdvice, the receiver records progress when each send is settled
+    container.setAdviceChain(new QuarantineAdvice(quarantineIndex(), true));
+    container.setMessageListener(asyncEnrichedFulfilmentReceiver);
+    return container;
+  }
+
+  private RetryTemplate makeRetryTemplate() {
+    RetryTemplate retryTemplate = new RetryTemplate();
+    retryTemplate.setRetryPolicy(makeRetryPolicy());
+    retryTemplate.setBackOffPolicy(makeBackOffPolicy());
+    return retryTemplate;
+  }
+
+  private RetryOperationsInterceptor makeRetryInterceptor(String queueName) {
+    return RetryInterceptorBuilder.stateless()
+        .retryPolicy(makeRetryPolicy())
+        .backOffPolicy(makeBackOffPolicy())
+        .recoverer(makeRecoverer(queueName))
+        .build();
+  }
+
+  /* Failures that will never succeed go straight to the recoverer. With delayed requeue every
+   * failure does, and the recoverer decides whether to park the message for a later retry.
+   */
+  private RetryPolicy makeRetryPolicy() {
+    if (retryMode == RetryMode.DELAYED_REQUEUE) {
+      return new NeverRetryPolicy();
+    }
+
+    RetryPolicy neverRetryPolicy = new NeverRetryPolicy();
+    RetryPolicy simpleRetryPolicy = new SimpleRetryPolicy(retryAttempts);
+    ExceptionClassifierRetryPolicy retryPolicy = new ExceptionClassifierRetryPolicy();
+    retryPolicy.setExceptionClassifier(
+        throwable ->
+            FailureClass.of(throwable) == FailureClass.NON_RETRYABLE
+                ? neverRetryPolicy
+                : simpleRetryPolicy);
+    return retryPolicy;
+  }
+
+  private ExponentialJitterBackOffPolicy makeBackOffPolicy() {
+    return new ExponentialJitterBackOffPolicy(
+        retryDelay, rateLimitedRetryDelay, retryMultiplier, retryMaxDelay);
+  }
+
+  private MessageRecoverer makeRecoverer(String queueName) {
+    ManagedMessageRecoverer managedMessageRecoverer =
+        new ManagedMessageRecoverer(
+            exceptionManagerClient,
+            quarantineIndex(),
+            logStackTraces,
+            SERVICE_NAME,
+            queueName,
+            meterRegistry);
+
+    if (retryMode == RetryMode.DELAYED_REQUEUE) {
+      return new DelayedRequeueRecoverer(
+          rabbitTemplate,
+          queueName,
+          retryAttempts,
+          makeBackOffPolicy(),
+          managedMessageRecoverer,
+          deliveryGuarantee == DeliveryGuarantee.CONFIRMS,
+          delayQueueConfirmTimeout);
+    }
+
+    return managedMessageRecoverer;
+  }
+
   private AmqpInboundChannelAdapter makeAdapter(
       AbstractMessageListenerContainer listenerContainer, MessageChannel channel) {
     AmqpInboundChannelAdapter adapter = new AmqpInboundChannelAdapter(listenerContainer);
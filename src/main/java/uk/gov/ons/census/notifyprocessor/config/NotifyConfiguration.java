@@ -1,13 +1,17 @@
 package uk.gov.ons.census.notifyprocessor.config;
 
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import uk.gov.ons.census.notifyprocessor.client.AsyncNotifyClient;
 import uk.gov.service.notify.NotificationClient;
 import uk.gov.service.notify.NotificationClientApi;
 
 @Configuration
 public class NotifyConfiguration {
+  private final Environment environment;
 
   @Value("${notify.apiKey}")
   private String apiKey;
@@ -15,9 +19,29 @@ public class NotifyConfiguration {
   @Value("${notify.baseUrl}")
   private String baseUrl;
 
+  @Value("${notify.async.connect-timeout}")
+  private long asyncConnectTimeout;
+
+  @Value("${notify.async.request-timeout}")
+  private long asyncRequestTimeout;
+
+  public NotifyConfiguration(Environment environment) {
+    this.environment = environment;
+  }
+
+  @PostConstruct
+  public void checkTemplateConfiguration() {
+    NotifyTemplateProperties.rejectLegacyTemplateIds(environment);
+  }
+
   @Bean
   public NotificationClientApi notificationClient() {
 
     return new NotificationClient(apiKey, baseUrl);
   }
+
+  @Bean
+  public AsyncNotifyClient asyncNotifyClient() {
+    return new AsyncNotifyClient(apiKey, baseUrl, asyncConnectTimeout, asyncRequestTimeout);
+  }
 }
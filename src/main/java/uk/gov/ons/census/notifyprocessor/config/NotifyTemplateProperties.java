@@ -0,0 +1,66 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.source.ConfigurationPropertyName;
+import org.springframework.boot.context.properties.source.ConfigurationPropertyName.Form;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.context.properties.source.IterableConfigurationPropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/*
+ * The fulfilment codes we send SMS for, keyed by code under notify.templates. A new code only needs
+ * an entry here, e.g. notify.templates.UACHHT1.template-id, or NOTIFY_TEMPLATES_UACHHT1_TEMPLATEID
+ * from the environment.
+ */
+@Data
+@Component
+@ConfigurationProperties("notify")
+public class NotifyTemplateProperties {
+  private Map<String, Template> templates = new LinkedHashMap<>();
+
+  /*
+   * Template ids used to be set straight under notify, e.g. notify.UACHHT1 or NOTIFY_UACHHT1. Those
+   * are no longer read, so one left over from an old deployment fails startup rather than quietly
+   * leaving the default template id in use.
+   */
+  public static void rejectLegacyTemplateIds(Environment environment) {
+    List<String> legacyNames =
+        StreamSupport.stream(ConfigurationPropertySources.get(environment).spliterator(), false)
+            .filter(source -> source instanceof IterableConfigurationPropertySource)
+            .flatMap(source -> ((IterableConfigurationPropertySource) source).stream())
+            .filter(NotifyTemplateProperties::isLegacyTemplateId)
+            .map(ConfigurationPropertyName::toString)
+            .distinct()
+            .collect(Collectors.toList());
+
+    if (!legacyNames.isEmpty()) {
+      throw new IllegalStateException(
+          "Template ids are now set as notify.templates.<CODE>.template-id, "
+              + "move or remove: "
+              + String.join(", ", legacyNames));
+    }
+  }
+
+  private static boolean isLegacyTemplateId(ConfigurationPropertyName name) {
+    return name.getNumberOfElements() == 2
+        && name.getElement(0, Form.UNIFORM).equals("notify")
+        && name.getElement(1, Form.UNIFORM).toLowerCase(Locale.ROOT).startsWith("uac");
+  }
+
+  @Data
+  public static class Template {
+    private Integer questionnaireType;
+    private String templateId;
+
+    // Individual requests are linked to the individual case, when there is one
+    private boolean individual;
+  }
+}
@@ -0,0 +1,9 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+public enum RetryMode {
+  // Retries happen on the consumer thread, which sleeps through each backoff
+  IN_PLACE,
+
+  // Failed messages are parked on a delay queue and dead lettered back once the backoff expires
+  DELAYED_REQUEUE
+}
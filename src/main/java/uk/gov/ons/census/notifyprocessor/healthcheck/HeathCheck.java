@@ -1,27 +1,152 @@
 package uk.gov.ons.census.notifyprocessor.healthcheck;
 
-import java.io.BufferedWriter;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.util.List;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidCache;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidCacheLifecycle;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
 
+/*
+ * Liveness only means the pipelines are getting through their messages: a consumer that is wedged
+ * on a call that never returns stops the liveness file being refreshed, where before it would have
+ * been touched regardless. Readiness additionally needs every container to have active consumers
+ * and no circuit breaker open, and the readiness file is removed as soon as that stops being true.
+ */
 @Component
 public class HeathCheck {
+  private static final Logger log = LoggerFactory.getLogger(HeathCheck.class);
+
+  private final UacQidCacheLifecycle uacQidCacheLifecycle;
+  private final UacQidCache uacQidCache;
+  private final List<PipelineProgress> pipelines;
+  private final List<SimpleMessageListenerContainer> containers;
+  private final List<CircuitBreaker> circuitBreakers;
+
+  private boolean live = true;
+  private boolean ready = false;
+
   @Value("${healthcheck.filename}")
   private String fileName;
 
+  @Value("${healthcheck.readiness-filename}")
+  private String readinessFileName;
+
+  @Value("${healthcheck.stall-threshold}")
+  private long stallThreshold;
+
+  public HeathCheck(
+      UacQidCacheLifecycle uacQidCacheLifecycle,
+      UacQidCache uacQidCache,
+      @Qualifier("fulfilmentProgress") PipelineProgress fulfilmentProgress,
+      @Qualifier("enrichedFulfilmentProgress") PipelineProgress enrichedFulfilmentProgress,
+      @Qualifier("fulfilmentContainer") SimpleMessageListenerContainer fulfilmentContainer,
+      @Qualifier("enrichedFulfilmentContainer")
+          SimpleMessageListenerContainer enrichedFulfilmentContainer,
+      @Qualifier("uacQidServiceCircuitBreaker") CircuitBreaker uacQidServiceCircuitBreaker,
+      @Qualifier("notifyCircuitBreaker") CircuitBreaker notifyCircuitBreaker) {
+    this.uacQidCacheLifecycle = uacQidCacheLifecycle;
+    this.uacQidCache = uacQidCache;
+    this.pipelines = List.of(fulfilmentProgress, enrichedFulfilmentProgress);
+    this.containers = List.of(fulfilmentContainer, enrichedFulfilmentContainer);
+    this.circuitBreakers = List.of(uacQidServiceCircuitBreaker, notifyCircuitBreaker);
+  }
+
   @Scheduled(fixedDelayString = "${healthcheck.frequency}")
   public void updateFileWithCurrentTimestamp() {
-    Path path = Paths.get(fileName);
-    LocalDateTime now = LocalDateTime.now();
+    // Not ready until the UAC QID pools have been reloaded and warmed up (or given up on)
+    if (!uacQidCacheLifecycle.isComplete()) {
+      return;
+    }
+
+    String stalledPipeline = findStalledPipeline();
+    if (stalledPipeline == null) {
+      writeTimestamp(Paths.get(fileName));
+    }
+
+    String notReadyReason = stalledPipeline != null ? stalledPipeline : findNotReadyReason();
+    if (notReadyReason == null) {
+      writeTimestamp(Paths.get(readinessFileName));
+    } else {
+      try {
+        Files.deleteIfExists(Paths.get(readinessFileName));
+      } catch (IOException e) {
+        // Ignored
+      }
+    }
+
+    logTransitions(stalledPipeline == null, notReadyReason);
+  }
+
+  private String findStalledPipeline() {
+    for (PipelineProgress pipeline : pipelines) {
+      if (pipeline.isStalled(stallThreshold)) {
+        return "pipeline " + pipeline.getName() + " has stalled";
+      }
+    }
+
+    return null;
+  }
+
+  private String findNotReadyReason() {
+    for (CircuitBreaker circuitBreaker : circuitBreakers) {
+      if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+        return "circuit breaker " + circuitBreaker.getName() + " is open";
+      }
+    }
+
+    for (SimpleMessageListenerContainer container : containers) {
+      if (container.getActiveConsumerCount() == 0) {
+        return "no active consumers on " + String.join(",", container.getQueueNames());
+      }
+    }
+
+    return null;
+  }
+
+  private void logTransitions(boolean nowLive, String notReadyReason) {
+    boolean nowReady = notReadyReason == null;
+
+    if (live && !nowLive) {
+      log.with("reason", notReadyReason)
+          .with("pool_sizes", uacQidCache.getPoolSizes())
+          .error("No longer live");
+    } else if (!live && nowLive) {
+      log.info("Live again");
+    }
+
+    if (ready && !nowReady) {
+      log.with("reason", notReadyReason)
+          .with("pool_sizes", uacQidCache.getPoolSizes())
+          .warn("No longer ready");
+    } else if (!ready && nowReady) {
+      log.info("Ready");
+    }
+
+    live = nowLive;
+    ready = nowReady;
+  }
+
+  // Written alongside and renamed into place, so a probe never sees a partly written file
+  static void writeTimestamp(Path path) {
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
 
-    try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-      writer.write(now.toString());
+    try {
+      Files.write(tempPath, LocalDateTime.now().toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(
+          tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     } catch (IOException e) {
       // Ignored
     }
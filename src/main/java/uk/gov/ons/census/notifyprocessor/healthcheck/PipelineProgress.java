@@ -0,0 +1,144 @@
+package uk.gov.ons.census.notifyprocessor.healthcheck;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Whether a pipeline's consumers are getting through their messages. A pipeline is stalled when
+ * it has had messages in flight for longer than the threshold without finishing any of them - an
+ * idle pipeline, or one whose container is stopped, is never stalled. Running totals of what has
+ * been processed, and how long it took, are kept for scaling the pipeline's consumers.
+ *
+ * The time counted is service time: what a consumer thread spends queued behind a shared limit,
+ * such as the Notify rate limiter or an empty UAC QID pool, is reported with recordWait and taken
+ * off. Otherwise consumers blocked on a bottleneck would look busy and be scaled up, adding only
+ * more waiters.
+ */
+public class PipelineProgress {
+  private final String name;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile long busySince;
+  private volatile long lastCompletedAt = System.currentTimeMillis();
+  private volatile long lastSucceededAt;
+  private final LongAdder invocations = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder messages = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+
+  private static final ThreadLocal<long[]> threadWaitNanos =
+      ThreadLocal.withInitial(() -> new long[1]);
+
+  public PipelineProgress(String name, MeterRegistry meterRegistry) {
+    this.name = name;
+
+    Gauge.builder("pipeline.in.flight", inFlight, AtomicInteger::get)
+        .description("Messages being processed")
+        .tag("pipeline", name)
+        .register(meterRegistry);
+    Gauge.builder("pipeline.last.success.age", this, PipelineProgress::getSecondsSinceSuccess)
+        .description("Seconds since a message was last processed successfully")
+        .tag("pipeline", name)
+        .baseUnit("seconds")
+        .register(meterRegistry);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void started() {
+    if (inFlight.getAndIncrement() == 0) {
+      busySince = System.currentTimeMillis();
+    }
+  }
+
+  public void finished(boolean succeeded, int messageCount, long elapsedNanos) {
+    long now = System.currentTimeMillis();
+    lastCompletedAt = now;
+    if (succeeded) {
+      lastSucceededAt = now;
+    } else {
+      failures.increment();
+    }
+    invocations.increment();
+    messages.add(messageCount);
+    busyNanos.add(elapsedNanos);
+    inFlight.decrementAndGet();
+  }
+
+  // Called by whatever blocked the current thread on a shared limit, with how long it waited
+  public static void recordWait(long waitNanos) {
+    threadWaitNanos.get()[0] += waitNanos;
+  }
+
+  // The wait recorded on the current thread since it was last taken
+  public static long takeWaitNanos() {
+    long[] waitNanos = threadWaitNanos.get();
+    long taken = waitNanos[0];
+    waitNanos[0] = 0;
+    return taken;
+  }
+
+  public Totals getTotals() {
+    return new Totals(invocations.sum(), failures.sum(), messages.sum(), busyNanos.sum());
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public boolean isStalled(long stallThresholdMillis) {
+    if (inFlight.get() == 0) {
+      return false;
+    }
+
+    long lastProgress = Math.max(busySince, lastCompletedAt);
+    return System.currentTimeMillis() - lastProgress > stallThresholdMillis;
+  }
+
+  private double getSecondsSinceSuccess() {
+    return lastSucceededAt == 0
+        ? Double.NaN
+        : (System.currentTimeMillis() - lastSucceededAt) / 1000.0;
+  }
+
+  public static class Totals {
+    private final long invocations;
+    private final long failures;
+    private final long messages;
+    private final long busyNanos;
+
+    public Totals(long invocations, long failures, long messages, long busyNanos) {
+      this.invocations = invocations;
+      this.failures = failures;
+      this.messages = messages;
+      this.busyNanos = busyNanos;
+    }
+
+    public long getInvocations() {
+      return invocations;
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    public long getMessages() {
+      return messages;
+    }
+
+    public long getBusyNanos() {
+      return busyNanos;
+    }
+
+    public Totals since(Totals earlier) {
+      return new Totals(
+          invocations - earlier.invocations,
+          failures - earlier.failures,
+          messages - earlier.messages,
+          busyNanos - earlier.busyNanos);
+    }
+  }
+}
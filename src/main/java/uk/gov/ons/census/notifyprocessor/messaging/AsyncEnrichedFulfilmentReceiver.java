@@ -0,0 +1,257 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.messaging.MessagingException;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
+import uk.gov.ons.census.notifyprocessor.model.EnrichedFulfilmentRequest;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+
+/*
+ * Hands each enriched fulfilment to the async Notify client and returns straight away, so a few
+ * consumers can have as many SMS sends in flight as their prefetch allows. The container is in
+ * MANUAL ack mode and each message is settled when its own send finishes, on whichever thread that
+ * happens. Retries are scheduled with the same backoff as everywhere else rather than slept
+ * through, and the recoverer, which can block on the exception manager, runs on the executor.
+ * Pipeline progress is recorded from delivery to settling here, as an advice on the container
+ * would only see the hand-over.
+ *
+ * Because the consumers don't wait for the sends, the container stopping doesn't either, and
+ * closing the channels under sends that have already gone out would requeue those messages to be
+ * sent again. So the container calls stop before it shuts down: new deliveries and pending retries
+ * are requeued straight away, and the sends already out are waited for so they can still be acked.
+ */
+public class AsyncEnrichedFulfilmentReceiver implements ChannelAwareMessageListener {
+  private static final Logger log = LoggerFactory.getLogger(AsyncEnrichedFulfilmentReceiver.class);
+  private final EnrichedFulfilmentRequestService enrichedFulfilmentRequestService;
+  private final ExponentialJitterBackOffPolicy backOffPolicy;
+  private final int maxAttempts;
+  private final MessageRecoverer messageRecoverer;
+  private final PipelineProgress pipelineProgress;
+  private final Executor executor;
+  private final ObjectMapper objectMapper;
+  private final Set<Delivery> pendingRetries = ConcurrentHashMap.newKeySet();
+  private final Object inFlightLock = new Object();
+
+  private volatile boolean stopping;
+  private int inFlight;
+
+  public AsyncEnrichedFulfilmentReceiver(
+      EnrichedFulfilmentRequestService enrichedFulfilmentRequestService,
+      ExponentialJitterBackOffPolicy backOffPolicy,
+      int maxAttempts,
+      MessageRecoverer messageRecoverer,
+      PipelineProgress pipelineProgress,
+      Executor executor,
+      ObjectMapper objectMapper) {
+    this.enrichedFulfilmentRequestService = enrichedFulfilmentRequestService;
+    this.backOffPolicy = backOffPolicy;
+    this.maxAttempts = maxAttempts;
+    this.messageRecoverer = messageRecoverer;
+    this.pipelineProgress = pipelineProgress;
+    this.executor = executor;
+    this.objectMapper = objectMapper;
+  }
+
+  public void start() {
+    stopping = false;
+  }
+
+  // True when everything in flight was settled in time; anything left is requeued by the broker
+  public boolean stop(long timeoutMillis) {
+    stopping = true;
+
+    for (Delivery pendingRetry : pendingRetries) {
+      if (pendingRetries.remove(pendingRetry)) {
+        settle(pendingRetry, false, true);
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    synchronized (inFlightLock) {
+      while (inFlight > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          log.with("in_flight", inFlight)
+              .warn("Stopped before all enriched fulfilment requests were settled");
+          return false;
+        }
+
+        try {
+          TimeUnit.NANOSECONDS.timedWait(inFlightLock, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public void onMessage(Message message, Channel channel) {
+    Delivery delivery = new Delivery(message, channel, System.nanoTime());
+    pipelineProgress.started();
+    synchronized (inFlightLock) {
+      inFlight++;
+    }
+
+    if (stopping) {
+      settle(delivery, false, true);
+      return;
+    }
+
+    EnrichedFulfilmentRequest enrichedFulfilmentRequest;
+    try {
+      enrichedFulfilmentRequest =
+          objectMapper.readValue(message.getBody(), EnrichedFulfilmentRequest.class);
+    } catch (IOException e) {
+      recoverLater(delivery, e);
+      return;
+    }
+
+    send(enrichedFulfilmentRequest, delivery, 1);
+  }
+
+  private void send(
+      EnrichedFulfilmentRequest enrichedFulfilmentRequest, Delivery delivery, int attempt) {
+    CompletableFuture<Void> send;
+    try {
+      send = enrichedFulfilmentRequestService.processMessageAsync(enrichedFulfilmentRequest);
+    } catch (RuntimeException e) {
+      send = CompletableFuture.failedFuture(e);
+    }
+
+    send.whenComplete(
+        (result, failure) -> {
+          if (failure == null) {
+            settle(delivery, true, false);
+            return;
+          }
+
+          Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+          FailureClass failureClass = FailureClass.of(cause);
+          if (failureClass == FailureClass.NON_RETRYABLE || attempt >= maxAttempts) {
+            recoverLater(delivery, cause);
+            return;
+          }
+
+          scheduleRetry(
+              enrichedFulfilmentRequest,
+              delivery,
+              attempt + 1,
+              backOffPolicy.getDelay(attempt, failureClass));
+        });
+  }
+
+  // Whichever of the retry and stop removes it from pendingRetries deals with the message
+  private void scheduleRetry(
+      EnrichedFulfilmentRequest enrichedFulfilmentRequest,
+      Delivery delivery,
+      int attempt,
+      long delay) {
+    pendingRetries.add(delivery);
+    if (stopping) {
+      if (pendingRetries.remove(delivery)) {
+        settle(delivery, false, true);
+      }
+      return;
+    }
+
+    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+        .execute(
+            () -> {
+              if (pendingRetries.remove(delivery)) {
+                send(enrichedFulfilmentRequest, delivery, attempt);
+              }
+            });
+  }
+
+  private void recoverLater(Delivery delivery, Throwable cause) {
+    // Wrapped the same way as a failure in the inbound channel adapter, so the recoverer sees
+    // the same cause chain whichever consumption mode is in use
+    Throwable throwable =
+        new ListenerExecutionFailedException(
+            "Failed to send enriched fulfilment request",
+            new MessagingException(cause.getMessage(), cause),
+            delivery.message);
+
+    try {
+      executor.execute(() -> recover(delivery, throwable));
+    } catch (RejectedExecutionException e) {
+      // Only happens while shutting down, so leave it for another instance
+      settle(delivery, false, true);
+    }
+  }
+
+  private void recover(Delivery delivery, Throwable throwable) {
+    try {
+      messageRecoverer.recover(delivery.message, throwable);
+    } catch (AmqpRejectAndDontRequeueException rejectException) {
+      settle(delivery, false, false);
+      log.with("delivery_tag", delivery.message.getMessageProperties().getDeliveryTag())
+          .debug("Rejected enriched fulfilment request");
+      return;
+    } catch (RuntimeException e) {
+      settle(delivery, false, true);
+      log.with("delivery_tag", delivery.message.getMessageProperties().getDeliveryTag())
+          .warn("Could not recover enriched fulfilment request, requeued", e);
+      return;
+    }
+
+    // The recoverer has dealt with it, e.g. the exception manager said to skip it
+    settle(delivery, true, false);
+  }
+
+  // Closed channels throw ShutdownSignalException rather than IOException, so both are caught
+  private void settle(Delivery delivery, boolean ack, boolean requeue) {
+    long deliveryTag = delivery.message.getMessageProperties().getDeliveryTag();
+    try {
+      if (ack) {
+        delivery.channel.basicAck(deliveryTag, false);
+      } else {
+        delivery.channel.basicReject(deliveryTag, requeue);
+      }
+    } catch (IOException | RuntimeException e) {
+      log.with("delivery_tag", deliveryTag)
+          .warn("Could not settle enriched fulfilment request, it will be redelivered", e);
+    } finally {
+      pipelineProgress.finished(ack, 1, System.nanoTime() - delivery.receivedAt);
+      synchronized (inFlightLock) {
+        inFlight--;
+        if (inFlight == 0) {
+          inFlightLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  // Compared by identity, as the same delivery tag can come from more than one channel
+  private static class Delivery {
+    private final Message message;
+    private final Channel channel;
+    private final long receivedAt;
+
+    private Delivery(Message message, Channel channel, long receivedAt) {
+      this.message = message;
+      this.channel = channel;
+      this.receivedAt = receivedAt;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidCache;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker.State;
+import uk.gov.ons.census.notifyprocessor.client.UacQidServiceClient;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper;
+
+/*
+ * Stops consuming from a queue while the service its messages need is down, so the messages wait
+ * safely on the queue instead of every consumer retrying them and reporting them to the exception
+ * manager. Fulfilment requests need the UAC QID service and enriched fulfilments need Notify.
+ *
+ * Runs on a schedule rather than from the breakers themselves, because the breakers trip on
+ * consumer threads and a container can't be stopped from one of its own consumers. While a breaker
+ * is open a probe is sent each time it is due a half-open trial; once the probe gets through the
+ * breaker closes and consumption starts again. Only containers stopped here are started here.
+ */
+@Component
+public class CircuitBreakerConsumerControl {
+  private static final Logger log = LoggerFactory.getLogger(CircuitBreakerConsumerControl.class);
+
+  private final CircuitBreaker uacQidServiceCircuitBreaker;
+  private final CircuitBreaker notifyCircuitBreaker;
+  private final MessageListenerContainer fulfilmentContainer;
+  private final MessageListenerContainer enrichedFulfilmentContainer;
+  private final UacQidServiceClient uacQidServiceClient;
+  private final UacQidCache uacQidCache;
+  private final TemplateMapper templateMapper;
+  private final EnrichedFulfilmentRequestService enrichedFulfilmentRequestService;
+  private final AtomicBoolean fulfilmentPaused = new AtomicBoolean();
+  private final AtomicBoolean enrichedFulfilmentPaused = new AtomicBoolean();
+
+  @Value("${circuitbreaker.probe-timeout}")
+  private long probeTimeout;
+
+  public CircuitBreakerConsumerControl(
+      @Qualifier("uacQidServiceCircuitBreaker") CircuitBreaker uacQidServiceCircuitBreaker,
+      @Qualifier("notifyCircuitBreaker") CircuitBreaker notifyCircuitBreaker,
+      @Qualifier("fulfilmentContainer") MessageListenerContainer fulfilmentContainer,
+      @Qualifier("enrichedFulfilmentContainer")
+          MessageListenerContainer enrichedFulfilmentContainer,
+      UacQidServiceClient uacQidServiceClient,
+      UacQidCache uacQidCache,
+      TemplateMapper templateMapper,
+      EnrichedFulfilmentRequestService enrichedFulfilmentRequestService) {
+    this.uacQidServiceCircuitBreaker = uacQidServiceCircuitBreaker;
+    this.notifyCircuitBreaker = notifyCircuitBreaker;
+    this.fulfilmentContainer = fulfilmentContainer;
+    this.enrichedFulfilmentContainer = enrichedFulfilmentContainer;
+    this.uacQidServiceClient = uacQidServiceClient;
+    this.uacQidCache = uacQidCache;
+    this.templateMapper = templateMapper;
+    this.enrichedFulfilmentRequestService = enrichedFulfilmentRequestService;
+  }
+
+  @Scheduled(fixedDelayString = "${circuitbreaker.check-interval}")
+  public void checkCircuitBreakers() {
+    control(
+        uacQidServiceCircuitBreaker,
+        fulfilmentContainer,
+        "fulfilmentContainer",
+        fulfilmentPaused,
+        this::probeUacQidService);
+    control(
+        notifyCircuitBreaker,
+        enrichedFulfilmentContainer,
+        "enrichedFulfilmentContainer",
+        enrichedFulfilmentPaused,
+        enrichedFulfilmentRequestService::probeNotify);
+  }
+
+  private void control(
+      CircuitBreaker circuitBreaker,
+      MessageListenerContainer container,
+      String containerName,
+      AtomicBoolean paused,
+      Runnable probe) {
+    if (circuitBreaker.getState() == State.OPEN) {
+      if (container.isRunning() && paused.compareAndSet(false, true)) {
+        log.with("circuit_breaker", circuitBreaker.getName())
+            .with("container", containerName)
+            .warn("Pausing consumption until the circuit breaker closes");
+        container.stop();
+      }
+
+      try {
+        probe.run();
+      } catch (RuntimeException e) {
+        // Expected while the service is down - the breaker has already counted it
+        log.with("circuit_breaker", circuitBreaker.getName())
+            .with("reason", e.getMessage())
+            .debug("Circuit breaker probe did not get through");
+      }
+    }
+
+    if (circuitBreaker.getState() == State.CLOSED && paused.compareAndSet(true, false)) {
+      log.with("circuit_breaker", circuitBreaker.getName())
+          .with("container", containerName)
+          .info("Resuming consumption, circuit breaker closed");
+      container.start();
+    }
+  }
+
+  // Asks for a single pair, which goes into the cache rather than being wasted unless it is full
+  private void probeUacQidService() {
+    int questionnaireType = templateMapper.getQuestionnaireTypes().iterator().next();
+
+    List<UacQid> uacQids;
+    try {
+      uacQids =
+          uacQidServiceClient
+              .getUacQids(questionnaireType, 1)
+              .get(probeTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (Exception e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+
+    uacQidCache.preload(Map.of(questionnaireType, uacQids));
+  }
+}
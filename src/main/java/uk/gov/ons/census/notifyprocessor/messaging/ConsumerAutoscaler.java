@@ -0,0 +1,225 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.config.AutoscalingProperties;
+import uk.gov.ons.census.notifyprocessor.config.AutoscalingProperties.Limits;
+import uk.gov.ons.census.notifyprocessor.config.DispatchMode;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress.Totals;
+
+/*
+ * Sets each container's consumer count from what it did over the last interval. By Little's law the
+ * consumers busy on average are the total processing time divided by the interval; we keep some
+ * headroom over that, and add enough to clear the queue within the target drain time at the rate a
+ * consumer has been getting through messages. Scaling up at most doubles the consumers and scaling
+ * down takes off a quarter at a time, so one odd interval can't swing it from one bound to the
+ * other.
+ *
+ * While the pipeline's circuit breaker isn't closed, or too many deliveries are failing, adding
+ * consumers would only add load to a struggling service, so we drop back instead. A container that
+ * was paused by its breaker starts again at its minimum and scales up from there.
+ *
+ * The ASYNC enriched fulfilment container is left alone. Its consumers only hand messages over, so
+ * their count says nothing about how many sends are in flight, and it is built with its own
+ * consumer count rather than queueconfig.consumers, which every scaled container starts with.
+ */
+@Component
+@ConditionalOnProperty(name = "queueconfig.autoscaling.enabled", havingValue = "true")
+public class ConsumerAutoscaler {
+  private static final Logger log = LoggerFactory.getLogger(ConsumerAutoscaler.class);
+  private static final double HEADROOM = 1.25;
+
+  private final RabbitTemplate rabbitTemplate;
+  private final Pipeline fulfilment;
+  private final Pipeline enrichedFulfilment;
+
+  public ConsumerAutoscaler(
+      RabbitTemplate rabbitTemplate,
+      AutoscalingProperties autoscalingProperties,
+      @Qualifier("fulfilmentContainer") SimpleMessageListenerContainer fulfilmentContainer,
+      @Qualifier("enrichedFulfilmentContainer")
+          SimpleMessageListenerContainer enrichedFulfilmentContainer,
+      @Qualifier("fulfilmentProgress") PipelineProgress fulfilmentProgress,
+      @Qualifier("enrichedFulfilmentProgress") PipelineProgress enrichedFulfilmentProgress,
+      @Qualifier("uacQidServiceCircuitBreaker") CircuitBreaker uacQidServiceCircuitBreaker,
+      @Qualifier("notifyCircuitBreaker") CircuitBreaker notifyCircuitBreaker,
+      @Value("${queueconfig.consumers}") int consumers,
+      @Value("${queueconfig.enriched-fulfilment-dispatch-mode}")
+          DispatchMode enrichedFulfilmentDispatchMode,
+      @Value("${notify.rate-limit.max-concurrency}") int notifyMaxConcurrency,
+      @Value("${queueconfig.fulfilment-request-inbound-queue}") String fulfilmentInboundQueue,
+      @Value("${queueconfig.enriched-fulfilment-queue}") String enrichedFulfilmentQueue,
+      MeterRegistry meterRegistry) {
+    // Every enriched fulfilment consumer needs a Notify permit, so any more would only queue for
+    // one
+    if (enrichedFulfilmentDispatchMode != DispatchMode.ASYNC
+        && autoscalingProperties.getEnrichedFulfilment().getMaxConsumers() > notifyMaxConcurrency) {
+      throw new IllegalStateException(
+          "queueconfig.autoscaling.enriched-fulfilment.max-consumers must not be more than"
+              + " notify.rate-limit.max-concurrency");
+    }
+
+    this.rabbitTemplate = rabbitTemplate;
+    this.fulfilment =
+        new Pipeline(
+            fulfilmentInboundQueue,
+            fulfilmentContainer,
+            fulfilmentProgress,
+            uacQidServiceCircuitBreaker,
+            autoscalingProperties.getFulfilment(),
+            consumers,
+            meterRegistry);
+    this.enrichedFulfilment =
+        enrichedFulfilmentDispatchMode == DispatchMode.ASYNC
+            ? null
+            : new Pipeline(
+                enrichedFulfilmentQueue,
+                enrichedFulfilmentContainer,
+                enrichedFulfilmentProgress,
+                notifyCircuitBreaker,
+                autoscalingProperties.getEnrichedFulfilment(),
+                consumers,
+                meterRegistry);
+  }
+
+  @Scheduled(fixedDelayString = "${queueconfig.autoscaling.interval}")
+  public void scaleConsumers() {
+    scale(fulfilment);
+    if (enrichedFulfilment != null) {
+      scale(enrichedFulfilment);
+    }
+  }
+
+  private void scale(Pipeline pipeline) {
+    long now = System.nanoTime();
+    Totals totals = pipeline.progress.getTotals();
+    Totals interval = totals.since(pipeline.lastTotals);
+    long intervalNanos = now - pipeline.lastScaledAt;
+    pipeline.lastTotals = totals;
+    pipeline.lastScaledAt = now;
+
+    long queueDepth;
+    try {
+      queueDepth =
+          rabbitTemplate.execute(
+              channel -> channel.queueDeclarePassive(pipeline.queueName).getMessageCount());
+    } catch (RuntimeException e) {
+      log.with("queue", pipeline.queueName)
+          .with("reason", e.getMessage())
+          .warn("Could not get queue depth, leaving consumers as they are");
+      return;
+    }
+    pipeline.queueDepth.set(queueDepth);
+
+    int current = pipeline.consumers;
+    int desired =
+        desiredConsumers(
+            current,
+            queueDepth,
+            interval,
+            intervalNanos,
+            pipeline.circuitBreaker.getState(),
+            pipeline.limits);
+
+    if (desired != current) {
+      log.with("queue", pipeline.queueName)
+          .with("queue_depth", queueDepth)
+          .with("from", current)
+          .with("to", desired)
+          .info("Scaling consumers");
+      pipeline.container.setConcurrentConsumers(desired);
+      pipeline.consumers = desired;
+    }
+  }
+
+  static int desiredConsumers(
+      int current,
+      long queueDepth,
+      Totals interval,
+      long intervalNanos,
+      CircuitBreaker.State circuitBreakerState,
+      Limits limits) {
+    if (circuitBreakerState != CircuitBreaker.State.CLOSED) {
+      return limits.getMinConsumers();
+    }
+
+    int stepDown = current - Math.max(1, current / 4);
+
+    if (interval.getInvocations() > 0
+        && (double) interval.getFailures() / interval.getInvocations() > limits.getMaxErrorRate()) {
+      return clamp(stepDown, limits);
+    }
+
+    if (interval.getMessages() == 0 || interval.getBusyNanos() == 0) {
+      // Nothing got done - either there was nothing to do, or consumers are stuck and more of
+      // them would only get stuck too
+      return clamp(queueDepth == 0 ? stepDown : current, limits);
+    }
+
+    double busyConsumers = (double) interval.getBusyNanos() / intervalNanos;
+    double messagesPerConsumerSecond =
+        interval.getMessages() / (interval.getBusyNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+    double drainConsumers =
+        queueDepth / (messagesPerConsumerSecond * limits.getTargetDrainTime() / 1000.0);
+
+    int desired = (int) Math.ceil(Math.max(busyConsumers * HEADROOM, drainConsumers));
+    desired = Math.min(desired, current * 2);
+    desired = Math.max(desired, stepDown);
+    return clamp(desired, limits);
+  }
+
+  private static int clamp(int consumers, Limits limits) {
+    return Math.max(limits.getMinConsumers(), Math.min(limits.getMaxConsumers(), consumers));
+  }
+
+  private static class Pipeline {
+    private final String queueName;
+    private final SimpleMessageListenerContainer container;
+    private final PipelineProgress progress;
+    private final CircuitBreaker circuitBreaker;
+    private final Limits limits;
+    private final AtomicLong queueDepth = new AtomicLong();
+    private volatile int consumers;
+    private Totals lastTotals;
+    private long lastScaledAt = System.nanoTime();
+
+    private Pipeline(
+        String queueName,
+        SimpleMessageListenerContainer container,
+        PipelineProgress progress,
+        CircuitBreaker circuitBreaker,
+        Limits limits,
+        int consumers,
+        MeterRegistry meterRegistry) {
+      this.queueName = queueName;
+      this.container = container;
+      this.progress = progress;
+      this.circuitBreaker = circuitBreaker;
+      this.limits = limits;
+      this.consumers = consumers;
+      this.lastTotals = progress.getTotals();
+
+      Gauge.builder("queue.consumers", this, pipeline -> pipeline.consumers)
+          .description("Consumers the autoscaler has set on the queue's container")
+          .tag("queue", queueName)
+          .register(meterRegistry);
+      Gauge.builder("queue.depth", queueDepth, AtomicLong::get)
+          .description("Messages ready on the queue when last checked")
+          .tag("queue", queueName)
+          .register(meterRegistry);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+
+/*
+ * Retries a failed message later instead of sleeping on the consumer thread. The message is
+ * republished to a delay queue with a per-message expiry, and the delay queue dead letters it back
+ * to the queue it came from when that expires. Each attempt has its own delay queue, so a message
+ * with a short expiry is never stuck behind one with a much longer expiry. Once the attempts are
+ * used up, or if the failure isn't worth retrying, the message goes to the delegate recoverer.
+ *
+ * The failed message is acked once this returns, and none of the listener containers are
+ * transacted, so the send can't commit with the ack. With transactions the template commits the
+ * send in its own transaction before returning; with publisher confirms this waits for the broker
+ * to confirm it. Either way the message is on the delay queue before it's acked, and a send that
+ * isn't confirmed throws so that the message is requeued rather than lost.
+ */
+public class DelayedRequeueRecoverer implements MessageRecoverer {
+  public static final String RETRY_COUNT_HEADER = "x-notify-processor-retry-count";
+
+  private static final Logger log = LoggerFactory.getLogger(DelayedRequeueRecoverer.class);
+
+  private final RabbitTemplate rabbitTemplate;
+  private final String queueName;
+  private final int maxAttempts;
+  private final ExponentialJitterBackOffPolicy backOffPolicy;
+  private final MessageRecoverer delegate;
+  private final boolean waitForConfirm;
+  private final long confirmTimeoutMillis;
+
+  public DelayedRequeueRecoverer(
+      RabbitTemplate rabbitTemplate,
+      String queueName,
+      int maxAttempts,
+      ExponentialJitterBackOffPolicy backOffPolicy,
+      MessageRecoverer delegate,
+      boolean waitForConfirm,
+      long confirmTimeoutMillis) {
+    this.rabbitTemplate = rabbitTemplate;
+    this.queueName = queueName;
+    this.maxAttempts = maxAttempts;
+    this.backOffPolicy = backOffPolicy;
+    this.delegate = delegate;
+    this.waitForConfirm = waitForConfirm;
+    this.confirmTimeoutMillis = confirmTimeoutMillis;
+  }
+
+  public static String getDelayQueueName(String queueName, int attempt) {
+    return queueName + ".delay." + attempt;
+  }
+
+  @Override
+  public void recover(Message message, Throwable throwable) {
+    FailureClass failureClass = FailureClass.of(throwable);
+    MessageProperties messageProperties = message.getMessageProperties();
+    Integer previousRetries = messageProperties.getHeader(RETRY_COUNT_HEADER);
+    int failedAttempts = (previousRetries == null ? 0 : previousRetries) + 1;
+
+    if (failureClass == FailureClass.NON_RETRYABLE || failedAttempts >= maxAttempts) {
+      delegate.recover(message, throwable);
+      return;
+    }
+
+    long delay = backOffPolicy.getDelay(failedAttempts, failureClass);
+    messageProperties.setHeader(RETRY_COUNT_HEADER, failedAttempts);
+    messageProperties.setExpiration(Long.toString(delay));
+    if (messageProperties.getDeliveryMode() == null) {
+      messageProperties.setDeliveryMode(
+          messageProperties.getReceivedDeliveryMode() == null
+              ? MessageDeliveryMode.PERSISTENT
+              : messageProperties.getReceivedDeliveryMode());
+    }
+
+    String delayQueueName = getDelayQueueName(queueName, failedAttempts);
+    if (waitForConfirm) {
+      sendAndWaitForConfirm(delayQueueName, message);
+    } else {
+      rabbitTemplate.send("", delayQueueName, message);
+    }
+
+    log.with("queue", queueName)
+        .with("attempt", failedAttempts)
+        .with("delay", delay)
+        .with("failure_class", failureClass.name())
+        .debug("Message parked on delay queue for retry");
+  }
+
+  private void sendAndWaitForConfirm(String delayQueueName, Message message) {
+    CorrelationData correlationData = new CorrelationData(UUID.randomUUID().toString());
+    rabbitTemplate.send("", delayQueueName, message, correlationData);
+
+    Confirm confirm;
+    try {
+      confirm = correlationData.getFuture().get(confirmTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AmqpException("Interrupted waiting for delay queue publish to be confirmed", e);
+    } catch (ExecutionException | TimeoutException e) {
+      throw new AmqpException("Delay queue publish was not confirmed", e);
+    }
+
+    if (!confirm.isAck()) {
+      throw new AmqpException("Delay queue publish was nacked: " + confirm.getReason());
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.census.notifyprocessor.model.EnrichedFulfilmentRequest;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+
+/*
+ * Sends a batch of enriched fulfilments to Gov Notify concurrently instead of one HTTP request at a
+ * time per consumer. Each SMS is sent, with its own retries, on the shared dispatch executor, whose
+ * fixed size bounds how many requests are in flight to Notify across all consumers. The container
+ * is in MANUAL ack mode and the consumer thread settles each message only once its own send has
+ * finished: acked when it succeeded, otherwise handed to the recoverer just like a single message.
+ */
+public class EnrichedFulfilmentBatchReceiver implements ChannelAwareBatchMessageListener {
+  private static final Logger log = LoggerFactory.getLogger(EnrichedFulfilmentBatchReceiver.class);
+  private final EnrichedFulfilmentRequestService enrichedFulfilmentRequestService;
+  private final RetryTemplate retryTemplate;
+  private final MessageRecoverer messageRecoverer;
+  private final Executor dispatchExecutor;
+  private final ObjectMapper objectMapper;
+
+  public EnrichedFulfilmentBatchReceiver(
+      EnrichedFulfilmentRequestService enrichedFulfilmentRequestService,
+      RetryTemplate retryTemplate,
+      MessageRecoverer messageRecoverer,
+      Executor dispatchExecutor,
+      ObjectMapper objectMapper) {
+    this.enrichedFulfilmentRequestService = enrichedFulfilmentRequestService;
+    this.retryTemplate = retryTemplate;
+    this.messageRecoverer = messageRecoverer;
+    this.dispatchExecutor = dispatchExecutor;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  public void onMessageBatch(List<Message> messages, Channel channel) {
+    List<CompletableFuture<Throwable>> sends = new ArrayList<>(messages.size());
+
+    try {
+      for (Message message : messages) {
+        sends.add(CompletableFuture.supplyAsync(() -> sendWithRetries(message), dispatchExecutor));
+      }
+    } catch (RejectedExecutionException e) {
+      // Only happens while shutting down. The sends already dispatched are still seen through
+      log.with("dispatched", sends.size())
+          .with("requeued", messages.size() - sends.size())
+          .warn("Dispatch executor refused enriched fulfilments, requeueing the rest of the batch");
+    }
+
+    for (int i = 0; i < sends.size(); i++) {
+      Message message = messages.get(i);
+      Throwable failure;
+
+      try {
+        failure = sends.get(i).join();
+      } catch (CompletionException e) {
+        // A send's own failure is its result, so this is only something the retry itself threw
+        failure = e.getCause();
+      }
+
+      if (failure == null) {
+        settle(channel, message, true, false);
+      } else {
+        recover(message, failure, channel);
+      }
+    }
+
+    for (Message message : messages.subList(sends.size(), messages.size())) {
+      settle(channel, message, false, true);
+    }
+  }
+
+  private Throwable sendWithRetries(Message message) {
+    return retryTemplate.execute(
+        context -> {
+          send(message);
+          return null;
+        },
+        context -> context.getLastThrowable());
+  }
+
+  private void send(Message message) {
+    try {
+      EnrichedFulfilmentRequest enrichedFulfilmentRequest =
+          objectMapper.readValue(message.getBody(), EnrichedFulfilmentRequest.class);
+      enrichedFulfilmentRequestService.processMessage(enrichedFulfilmentRequest);
+    } catch (Exception e) {
+      // Wrapped the same way as a failure in the inbound channel adapter, so the recoverer sees
+      // the same cause chain whichever consumption mode is in use
+      throw new ListenerExecutionFailedException(
+          "Failed to send enriched fulfilment request in batch",
+          new MessagingException(e.getMessage(), e),
+          message);
+    }
+  }
+
+  private void recover(Message message, Throwable throwable, Channel channel) {
+    try {
+      messageRecoverer.recover(message, throwable);
+    } catch (AmqpRejectAndDontRequeueException rejectException) {
+      settle(channel, message, false, false);
+      log.with("delivery_tag", message.getMessageProperties().getDeliveryTag())
+          .debug("Rejected enriched fulfilment request from batch");
+      return;
+    } catch (RuntimeException e) {
+      settle(channel, message, false, true);
+      log.with("delivery_tag", message.getMessageProperties().getDeliveryTag())
+          .warn("Could not recover enriched fulfilment request, requeued", e);
+      return;
+    }
+
+    // The recoverer has dealt with it, e.g. the exception manager said to skip it
+    settle(channel, message, true, false);
+  }
+
+  private void settle(Channel channel, Message message, boolean ack, boolean requeue) {
+    long deliveryTag = message.getMessageProperties().getDeliveryTag();
+    try {
+      if (ack) {
+        channel.basicAck(deliveryTag, false);
+      } else {
+        channel.basicReject(deliveryTag, requeue);
+      }
+    } catch (IOException e) {
+      throw new AmqpIOException(e);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.backoff.BackOffContext;
+import org.springframework.retry.backoff.BackOffInterruptedException;
+import org.springframework.retry.backoff.BackOffPolicy;
+import org.springframework.retry.backoff.Sleeper;
+import org.springframework.retry.backoff.ThreadWaitSleeper;
+
+/*
+ * Backs off exponentially from an initial delay up to a cap, with the delay for rate limited
+ * failures starting higher. Each delay is randomised between half and all of its nominal value, so
+ * messages that failed together don't all come back together.
+ */
+public class ExponentialJitterBackOffPolicy implements BackOffPolicy {
+  private final long initialInterval;
+  private final long rateLimitedInterval;
+  private final double multiplier;
+  private final long maxInterval;
+  private Sleeper sleeper = new ThreadWaitSleeper();
+
+  public ExponentialJitterBackOffPolicy(
+      long initialInterval, long rateLimitedInterval, double multiplier, long maxInterval) {
+    this.initialInterval = initialInterval;
+    this.rateLimitedInterval = rateLimitedInterval;
+    this.multiplier = multiplier;
+    this.maxInterval = maxInterval;
+  }
+
+  public void setSleeper(Sleeper sleeper) {
+    this.sleeper = sleeper;
+  }
+
+  @Override
+  public BackOffContext start(RetryContext retryContext) {
+    return new JitterBackOffContext(retryContext);
+  }
+
+  @Override
+  public void backOff(BackOffContext backOffContext) throws BackOffInterruptedException {
+    RetryContext retryContext = ((JitterBackOffContext) backOffContext).retryContext;
+    long delay =
+        getDelay(retryContext.getRetryCount(), FailureClass.of(retryContext.getLastThrowable()));
+
+    try {
+      sleeper.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BackOffInterruptedException("Thread interrupted while sleeping", e);
+    }
+  }
+
+  // The delay before retrying after the given number of failed attempts
+  public long getDelay(int failedAttempts, FailureClass failureClass) {
+    long nominal = getNominalDelay(failedAttempts, failureClass);
+    return nominal / 2 + ThreadLocalRandom.current().nextLong(nominal / 2 + 1);
+  }
+
+  public long getNominalDelay(int failedAttempts, FailureClass failureClass) {
+    long interval =
+        failureClass == FailureClass.RATE_LIMITED ? rateLimitedInterval : initialInterval;
+    double delay = interval * Math.pow(multiplier, Math.max(0, failedAttempts - 1));
+    return (long) Math.min(delay, maxInterval);
+  }
+
+  private static class JitterBackOffContext implements BackOffContext {
+    private final RetryContext retryContext;
+
+    private JitterBackOffContext(RetryContext retryContext) {
+      this.retryContext = retryContext;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Describes a failed message for the logs and the exception manager. When a downstream outage
+ * makes every message fail this runs for each of them, so it has to stay cheap: the JSON check is
+ * a token scan over the raw bytes rather than a full deserialisation, and the root cause is found
+ * by walking stack frames rather than rendering the whole stack trace to strings.
+ */
+public final class FailureAnalysis {
+  private static final String OUR_CODE = "uk.gov.ons.census";
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private FailureAnalysis() {}
+
+  // Messages are always JSON objects, so anything else at the top level counts as invalid
+  public static String validateJson(byte[] rawMessageBody) {
+    try (JsonParser parser = jsonFactory.createParser(rawMessageBody)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return "Invalid JSON: not a JSON object";
+      }
+
+      parser.skipChildren();
+
+      if (parser.nextToken() != null) {
+        return "Invalid JSON: content after the end of the object";
+      }
+
+      return "Valid JSON";
+    } catch (IOException e) {
+      return String.format("Invalid JSON: %s", e.getMessage());
+    }
+  }
+
+  /* The first frame of our own code, looking at the root cause first and then at each exception
+   * wrapping it, formatted as the line would be in a printed stack trace. If none of our code is
+   * in any of them then the root cause itself is described instead.
+   */
+  public static String findUsefulRootCause(Throwable throwable) {
+    List<Throwable> causes = new ArrayList<>();
+    for (Throwable cause = throwable; cause != null && !causes.contains(cause); ) {
+      causes.add(cause);
+      cause = cause.getCause();
+    }
+
+    for (int i = causes.size() - 1; i >= 0; i--) {
+      for (StackTraceElement frame : causes.get(i).getStackTrace()) {
+        if (frame.getClassName().startsWith(OUR_CODE)) {
+          return "\tat " + frame;
+        }
+      }
+    }
+
+    return causes.get(causes.size() - 1).toString();
+  }
+}
@@ -0,0 +1,76 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidTimeoutException;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreakerOpenException;
+import uk.gov.ons.census.notifyprocessor.client.NotifyHttpException;
+import uk.gov.service.notify.NotificationClientException;
+
+/*
+ * How a failed message should be retried, decided from the first recognisable exception in the
+ * cause chain. Anything unrecognised is retried, as it always has been.
+ */
+public enum FailureClass {
+  // Will fail the same way every time, so goes straight to the recoverer
+  NON_RETRYABLE,
+
+  // Gov Notify is throttling us, so the retry waits longer than usual
+  RATE_LIMITED,
+
+  RETRYABLE;
+
+  public static FailureClass of(Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      FailureClass failureClass = classify(cause);
+      if (failureClass != null) {
+        return failureClass;
+      }
+
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+
+    return RETRYABLE;
+  }
+
+  private static FailureClass classify(Throwable cause) {
+    if (cause instanceof NotificationClientException) {
+      return ofHttpResult(((NotificationClientException) cause).getHttpResult());
+    }
+
+    if (cause instanceof NotifyHttpException) {
+      return ofHttpResult(((NotifyHttpException) cause).getHttpResult());
+    }
+
+    /* Retrying while a circuit breaker is open would only fail again straight away. The recoverer
+     * puts these messages back on the queue rather than dead lettering them.
+     */
+    if (cause instanceof CircuitBreakerOpenException) {
+      return NON_RETRYABLE;
+    }
+
+    // Unreadable messages stay unreadable. Checked before IOException, which this extends
+    if (cause instanceof JsonProcessingException
+        || cause instanceof org.springframework.amqp.support.converter.MessageConversionException
+        || cause instanceof org.springframework.messaging.converter.MessageConversionException) {
+      return NON_RETRYABLE;
+    }
+
+    if (cause instanceof UacQidTimeoutException || cause instanceof IOException) {
+      return RETRYABLE;
+    }
+
+    return null;
+  }
+
+  private static FailureClass ofHttpResult(int httpResult) {
+    if (httpResult == 429) {
+      return RATE_LIMITED;
+    }
+
+    // A status of 0 means the request never got a response, which is worth trying again
+    return httpResult >= 400 && httpResult < 500 ? NON_RETRYABLE : RETRYABLE;
+  }
+}
@@ -0,0 +1,182 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.ImmediateRequeueAmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.census.notifyprocessor.model.ResponseManagementEvent;
+import uk.gov.ons.census.notifyprocessor.service.FulfilmentRequestService;
+import uk.gov.ons.census.notifyprocessor.service.FulfilmentRequestService.Enrichment;
+
+/*
+ * Consumes fulfilment requests a batch at a time. Every message in the batch is enriched on its own,
+ * with its own retries and recovery, and then all of the outbound messages are published in the
+ * container's channel transaction, so the whole batch costs a single commit. When a publisher
+ * confirm tracker is given, the container is in MANUAL ack mode instead and each message is acked
+ * once its own publishes have been confirmed.
+ *
+ * A transacted batch acks its last delivery tag, with multiple set, when it commits. Settling one of
+ * its messages on its own beforehand would make that ack refer to an unknown tag whenever the
+ * settled message was the last in the batch, and the broker would close the channel, rolling back
+ * the whole batch to be redelivered again and again. So in that mode a message that has to be
+ * dead lettered or requeued is instead republished, in the same transaction, to where the broker
+ * would have put it, and acked along with the rest of the batch.
+ */
+public class FulfilmentBatchReceiver implements ChannelAwareBatchMessageListener {
+  private static final Logger log = LoggerFactory.getLogger(FulfilmentBatchReceiver.class);
+  private final FulfilmentRequestService fulfilmentRequestService;
+  private final RetryTemplate retryTemplate;
+  private final MessageRecoverer messageRecoverer;
+  private final PublisherConfirmTracker publisherConfirmTracker;
+  private final RabbitTemplate rabbitTemplate;
+  private final String queueName;
+  private final String deadLetterExchange;
+  private final ObjectMapper objectMapper;
+
+  public FulfilmentBatchReceiver(
+      FulfilmentRequestService fulfilmentRequestService,
+      RetryTemplate retryTemplate,
+      MessageRecoverer messageRecoverer,
+      PublisherConfirmTracker publisherConfirmTracker,
+      RabbitTemplate rabbitTemplate,
+      String queueName,
+      String deadLetterExchange,
+      ObjectMapper objectMapper) {
+    this.fulfilmentRequestService = fulfilmentRequestService;
+    this.retryTemplate = retryTemplate;
+    this.messageRecoverer = messageRecoverer;
+    this.publisherConfirmTracker = publisherConfirmTracker;
+    this.rabbitTemplate = rabbitTemplate;
+    this.queueName = queueName;
+    this.deadLetterExchange = deadLetterExchange;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  public void onMessageBatch(List<Message> messages, Channel channel) {
+    List<Message> acceptedMessages = new ArrayList<>(messages.size());
+    List<Enrichment> enrichments = new ArrayList<>(messages.size());
+    Set<Message> rejectedMessages = new HashSet<>();
+
+    for (Message message : messages) {
+      Enrichment enrichment =
+          retryTemplate.execute(
+              context -> enrich(message),
+              context -> recover(message, context.getLastThrowable(), channel, rejectedMessages));
+
+      if (!rejectedMessages.contains(message)) {
+        acceptedMessages.add(message);
+        enrichments.add(enrichment);
+      }
+    }
+
+    if (publisherConfirmTracker == null) {
+      for (Enrichment enrichment : enrichments) {
+        if (enrichment != null) {
+          fulfilmentRequestService.publish(enrichment);
+        }
+      }
+
+      return;
+    }
+
+    for (int i = 0; i < acceptedMessages.size(); i++) {
+      long deliveryTag = acceptedMessages.get(i).getMessageProperties().getDeliveryTag();
+
+      publisherConfirmTracker.startTracking();
+      try {
+        if (enrichments.get(i) != null) {
+          fulfilmentRequestService.publish(enrichments.get(i));
+        }
+      } catch (RuntimeException e) {
+        publisherConfirmTracker.stopTracking();
+        publisherConfirmTracker.requeue(channel, deliveryTag);
+        log.with("delivery_tag", deliveryTag).warn("Could not publish fulfilment from batch", e);
+        continue;
+      }
+
+      publisherConfirmTracker.ackWhenConfirmed(
+          channel, deliveryTag, publisherConfirmTracker.stopTracking());
+    }
+  }
+
+  private Enrichment enrich(Message message) {
+    try {
+      ResponseManagementEvent fulfilmentEvent =
+          objectMapper.readValue(message.getBody(), ResponseManagementEvent.class);
+      return fulfilmentRequestService.enrich(fulfilmentEvent);
+    } catch (Exception e) {
+      // Wrapped the same way as a failure in the inbound channel adapter, so the recoverer sees
+      // the same cause chain whichever consumption mode is in use
+      throw new ListenerExecutionFailedException(
+          "Failed to process fulfilment request in batch",
+          new MessagingException(e.getMessage(), e),
+          message);
+    }
+  }
+
+  private Enrichment recover(
+      Message message, Throwable throwable, Channel channel, Set<Message> rejectedMessages) {
+    try {
+      messageRecoverer.recover(message, throwable);
+    } catch (AmqpRejectAndDontRequeueException rejectException) {
+      // Only this message is dead lettered - the rest of the batch is still acked
+      returnToBroker(message, channel, false);
+      rejectedMessages.add(message);
+      log.with("delivery_tag", message.getMessageProperties().getDeliveryTag())
+          .debug("Rejected fulfilment request from batch");
+    } catch (ImmediateRequeueAmqpException requeueException) {
+      returnToBroker(message, channel, true);
+      rejectedMessages.add(message);
+      log.with("delivery_tag", message.getMessageProperties().getDeliveryTag())
+          .debug("Requeued fulfilment request from batch");
+    }
+
+    return null;
+  }
+
+  private void returnToBroker(Message message, Channel channel, boolean requeue) {
+    MessageProperties messageProperties = message.getMessageProperties();
+
+    if (publisherConfirmTracker != null) {
+      // Each message is settled by hand in MANUAL ack mode, so it can be rejected on its own
+      try {
+        channel.basicReject(messageProperties.getDeliveryTag(), requeue);
+      } catch (IOException e) {
+        throw new AmqpIOException(e);
+      }
+      return;
+    }
+
+    if (messageProperties.getDeliveryMode() == null) {
+      messageProperties.setDeliveryMode(
+          messageProperties.getReceivedDeliveryMode() == null
+              ? MessageDeliveryMode.PERSISTENT
+              : messageProperties.getReceivedDeliveryMode());
+    }
+
+    // Requeued messages go to the back of the queue rather than the front, which is no worse
+    if (requeue) {
+      rabbitTemplate.send("", queueName, message);
+    } else {
+      rabbitTemplate.send(deadLetterExchange, queueName, message);
+    }
+  }
+}
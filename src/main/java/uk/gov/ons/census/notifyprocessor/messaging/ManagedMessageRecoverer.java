@@ -1,78 +1,80 @@
 package uk.gov.ons.census.notifyprocessor.messaging;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
-import java.io.IOException;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import net.logstash.logback.encoder.org.apache.commons.lang.exception.ExceptionUtils;
 import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.ImmediateRequeueAmqpException;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.retry.MessageRecoverer;
 import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreakerOpenException;
 import uk.gov.ons.census.notifyprocessor.client.ExceptionManagerClient;
 import uk.gov.ons.census.notifyprocessor.model.ExceptionReportResponse;
 import uk.gov.ons.census.notifyprocessor.model.SkippedMessage;
 
 public class ManagedMessageRecoverer implements MessageRecoverer {
   private static final Logger log = LoggerFactory.getLogger(ManagedMessageRecoverer.class);
-  private static final ObjectMapper objectMapper;
-  private static final MessageDigest digest;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
-  static {
-    objectMapper = new ObjectMapper();
-    objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  /* A digest isn't thread-safe, and sharing one behind a lock made every consumer queue up for it
+   * whenever everything was failing at once. Each thread keeps its own instead.
+   */
+  private static final ThreadLocal<MessageDigest> digest =
+      ThreadLocal.withInitial(ManagedMessageRecoverer::createDigest);
 
-    try {
-      digest = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      log.error("Could not initialise hashing", e);
-      throw new RuntimeException("Could not initialise hashing", e);
-    }
+  static {
+    // Fail on startup rather than on the first bad message if hashing isn't available
+    createDigest();
   }
 
   private final ExceptionManagerClient exceptionManagerClient;
-  private final Class expectedMessageType;
+  private final QuarantineIndex quarantineIndex;
+  private final MeterRegistry meterRegistry;
   private final boolean logStackTraces;
   private final String serviceName;
   private final String queueName;
 
   public ManagedMessageRecoverer(
       ExceptionManagerClient exceptionManagerClient,
-      Class expectedMessageType,
+      QuarantineIndex quarantineIndex,
       boolean logStackTraces,
       String serviceName,
-      String queueName) {
+      String queueName,
+      MeterRegistry meterRegistry) {
     this.exceptionManagerClient = exceptionManagerClient;
-    this.expectedMessageType = expectedMessageType;
+    this.quarantineIndex = quarantineIndex;
     this.logStackTraces = logStackTraces;
     this.serviceName = serviceName;
     this.queueName = queueName;
+    this.meterRegistry = meterRegistry;
   }
 
   @Override
   public void recover(Message message, Throwable throwable) {
+    if (CircuitBreakerOpenException.isCause(throwable)) {
+      // Nothing wrong with the message, so it waits on the queue until the service is back
+      countOutcome("requeued");
+      throw new ImmediateRequeueAmqpException(throwable.getMessage(), throwable);
+    }
+
     if (throwable instanceof ListenerExecutionFailedException) {
       ListenerExecutionFailedException listenerExecutionFailedException =
           (ListenerExecutionFailedException) throwable;
       byte[] rawMessageBody = message.getBody();
-      String messageHash;
-
-      // Digest is not thread-safe
-      synchronized (digest) {
-        messageHash = bytesToHexString(digest.digest(rawMessageBody));
-      }
+      String messageHash = hashMessage(rawMessageBody);
 
       String stackTraceRootCause =
-          findUsefulRootCauseInStackTrace(listenerExecutionFailedException.getCause());
+          FailureAnalysis.findUsefulRootCause(listenerExecutionFailedException.getCause());
       ExceptionReportResponse reportResult =
           getExceptionReportResponse(
               listenerExecutionFailedException, messageHash, stackTraceRootCause);
 
       if (skipMessage(
           reportResult, messageHash, rawMessageBody, listenerExecutionFailedException, message)) {
+        countOutcome("skipped");
         return; // Our work here is done
       }
 
@@ -85,10 +87,12 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
           stackTraceRootCause);
 
       // Reject the original message where it'll be retried at some future point in time
+      countOutcome("dead_lettered");
       throw new AmqpRejectAndDontRequeueException(
           String.format("Message sent to DLQ exchange, message_hash is: %s", messageHash));
     } else {
       // Very unlikely that this'd happen but let's log it anyway
+      countOutcome("unexpected");
       log.error("Unexpected exception has occurred", throwable);
     }
   }
@@ -157,6 +161,7 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
 
     // If the quarantined message is persisted OK then we can ACK the message
     if (result) {
+      quarantineIndex.add(messageHash);
       log.with("message_hash", messageHash).warn("Quarantined message");
     }
 
@@ -169,6 +174,8 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
       return;
     }
 
+    countOutcome("peeked");
+
     try {
       // Send it back to the exception manager so it can be peeked
       exceptionManagerClient.respondToPeek(messageHash, rawMessageBody);
@@ -187,50 +194,44 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
       return;
     }
 
+    countOutcome("logged");
+
     if (logStackTraces) {
       log.with("message_hash", messageHash)
-          .with("valid_json", validateJson(rawMessageBody))
+          .with("valid_json", FailureAnalysis.validateJson(rawMessageBody))
           .error("Could not process message", cause);
     } else {
       log.with("message_hash", messageHash)
-          .with("valid_json", validateJson(rawMessageBody))
+          .with("valid_json", FailureAnalysis.validateJson(rawMessageBody))
           .with("cause", cause.getMessage())
           .with("root_cause", stackTraceRootCause)
           .error("Could not process message");
     }
   }
 
-  private String bytesToHexString(byte[] hash) {
-    StringBuffer hexString = new StringBuffer();
-    for (int i = 0; i < hash.length; i++) {
-      String hex = Integer.toHexString(0xff & hash[i]);
-      if (hex.length() == 1) {
-        hexString.append('0');
-      }
-      hexString.append(hex);
-    }
-    return hexString.toString();
+  private void countOutcome(String outcome) {
+    meterRegistry.counter("message.recovery", "queue", queueName, "outcome", outcome).increment();
   }
 
-  private String validateJson(byte[] rawMessageBody) {
-    try {
-      objectMapper.readValue(new String(rawMessageBody), expectedMessageType);
-      return "Valid JSON";
-    } catch (IOException e) {
-      return String.format("Invalid JSON: %s", e.getMessage());
-    }
+  static String hashMessage(byte[] rawMessageBody) {
+    return bytesToHexString(digest.get().digest(rawMessageBody));
   }
 
-  private String findUsefulRootCauseInStackTrace(Throwable cause) {
-    String[] stackTrace = ExceptionUtils.getRootCauseStackTrace(cause);
-
-    // Iterate through the stack trace until we hit the first problem with our code
-    for (String stackTraceLine : stackTrace) {
-      if (stackTraceLine.contains("uk.gov.ons.census")) {
-        return stackTraceLine;
-      }
+  private static String bytesToHexString(byte[] hash) {
+    char[] hexChars = new char[hash.length * 2];
+    for (int i = 0; i < hash.length; i++) {
+      hexChars[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+      hexChars[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
     }
+    return new String(hexChars);
+  }
 
-    return stackTrace[0];
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      log.error("Could not initialise hashing", e);
+      throw new RuntimeException("Could not initialise hashing", e);
+    }
   }
 }
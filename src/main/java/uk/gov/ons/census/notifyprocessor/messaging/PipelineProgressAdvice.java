@@ -0,0 +1,48 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import java.util.List;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
+
+/*
+ * Goes first in a container's advice chain, so that it sees the time taken by retries and recovery.
+ * Waits the consumer thread reported to PipelineProgress in the meantime aren't counted as busy.
+ */
+public class PipelineProgressAdvice implements MethodInterceptor {
+  private final PipelineProgress pipelineProgress;
+
+  public PipelineProgressAdvice(PipelineProgress pipelineProgress) {
+    this.pipelineProgress = pipelineProgress;
+  }
+
+  @Override
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    pipelineProgress.started();
+    PipelineProgress.takeWaitNanos();
+    long startTime = System.nanoTime();
+    boolean succeeded = false;
+
+    try {
+      Object result = invocation.proceed();
+      succeeded = true;
+      return result;
+    } finally {
+      long elapsed = System.nanoTime() - startTime;
+      pipelineProgress.finished(
+          succeeded,
+          countMessages(invocation),
+          Math.max(0, elapsed - PipelineProgress.takeWaitNanos()));
+    }
+  }
+
+  // Batch containers are invoked with the whole batch as the second argument
+  private static int countMessages(MethodInvocation invocation) {
+    Object[] arguments = invocation.getArguments();
+    if (arguments != null && arguments.length > 1 && arguments[1] instanceof List) {
+      return ((List<?>) arguments[1]).size();
+    }
+
+    return 1;
+  }
+}
@@ -0,0 +1,46 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.rabbitmq.client.Channel;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+
+/*
+ * Wraps a MANUAL ack listener container's listener so that the inbound message is settled once the
+ * publishes it caused have been confirmed. Must be first in the advice chain so that the retries
+ * and recovery happen inside it.
+ */
+public class PublisherConfirmAckAdvice implements MethodInterceptor {
+  private final PublisherConfirmTracker publisherConfirmTracker;
+
+  public PublisherConfirmAckAdvice(PublisherConfirmTracker publisherConfirmTracker) {
+    this.publisherConfirmTracker = publisherConfirmTracker;
+  }
+
+  @Override
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    Channel channel = (Channel) invocation.getArguments()[0];
+    Message message = (Message) invocation.getArguments()[1];
+    long deliveryTag = message.getMessageProperties().getDeliveryTag();
+
+    publisherConfirmTracker.startTracking();
+
+    Object result;
+    try {
+      result = invocation.proceed();
+    } catch (AmqpRejectAndDontRequeueException e) {
+      publisherConfirmTracker.stopTracking();
+      channel.basicReject(deliveryTag, false);
+      throw e;
+    } catch (Throwable t) {
+      publisherConfirmTracker.stopTracking();
+      publisherConfirmTracker.requeue(channel, deliveryTag);
+      throw t;
+    }
+
+    publisherConfirmTracker.ackWhenConfirmed(
+        channel, deliveryTag, publisherConfirmTracker.stopTracking());
+    return result;
+  }
+}
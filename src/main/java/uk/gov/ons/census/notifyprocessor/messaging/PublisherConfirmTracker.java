@@ -0,0 +1,106 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.CorrelationDataPostProcessor;
+import org.springframework.stereotype.Component;
+
+/*
+ * Collects the correlation data of everything published while an inbound message is being handled
+ * and acks that inbound message only when the broker has confirmed every one of those publishes.
+ * A nack requeues the inbound message, which gives the same at-least-once guarantee as the channel
+ * transaction without waiting for a tx.commit on the consumer thread.
+ */
+@Component
+public class PublisherConfirmTracker implements CorrelationDataPostProcessor {
+  private static final Logger log = LoggerFactory.getLogger(PublisherConfirmTracker.class);
+
+  private static final ThreadLocal<List<CorrelationData>> trackedConfirms = new ThreadLocal<>();
+
+  public void startTracking() {
+    trackedConfirms.set(new ArrayList<>());
+  }
+
+  public List<CorrelationData> stopTracking() {
+    List<CorrelationData> confirms = trackedConfirms.get();
+    trackedConfirms.remove();
+    return confirms == null ? List.of() : confirms;
+  }
+
+  @Override
+  public CorrelationData postProcess(Message message, CorrelationData correlationData) {
+    List<CorrelationData> confirms = trackedConfirms.get();
+    if (confirms == null) {
+      return correlationData;
+    }
+
+    CorrelationData trackedCorrelationData =
+        correlationData != null
+            ? correlationData
+            : new CorrelationData(UUID.randomUUID().toString());
+    confirms.add(trackedCorrelationData);
+    return trackedCorrelationData;
+  }
+
+  public void ackWhenConfirmed(Channel channel, long deliveryTag, List<CorrelationData> confirms) {
+    if (confirms.isEmpty()) {
+      settle(channel, deliveryTag, true);
+      return;
+    }
+
+    AtomicInteger outstandingConfirms = new AtomicInteger(confirms.size());
+    AtomicBoolean allConfirmed = new AtomicBoolean(true);
+
+    for (CorrelationData correlationData : confirms) {
+      correlationData
+          .getFuture()
+          .addCallback(
+              confirm -> {
+                if (!confirm.isAck()) {
+                  log.with("delivery_tag", deliveryTag)
+                      .with("reason", confirm.getReason())
+                      .warn("Publish was not confirmed, inbound message will be requeued");
+                  allConfirmed.set(false);
+                }
+
+                if (outstandingConfirms.decrementAndGet() == 0) {
+                  settle(channel, deliveryTag, allConfirmed.get());
+                }
+              },
+              failure -> {
+                allConfirmed.set(false);
+
+                if (outstandingConfirms.decrementAndGet() == 0) {
+                  settle(channel, deliveryTag, false);
+                }
+              });
+    }
+  }
+
+  public void requeue(Channel channel, long deliveryTag) {
+    settle(channel, deliveryTag, false);
+  }
+
+  private void settle(Channel channel, long deliveryTag, boolean ack) {
+    try {
+      if (ack) {
+        channel.basicAck(deliveryTag, false);
+      } else {
+        channel.basicNack(deliveryTag, false, true);
+      }
+    } catch (IOException e) {
+      // The broker will redeliver the message when the channel is closed, so nothing is lost
+      log.with("delivery_tag", deliveryTag)
+          .warn("Could not settle inbound message after publisher confirm", e);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.util.ArrayList;
+import java.util.List;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+
+/*
+ * Skips messages that have already been quarantined before the listener sees them. Goes ahead of
+ * the retries in the advice chain, and works for both single messages and batches. A skipped
+ * message is acked here if the container is in MANUAL ack mode and nothing further out in the
+ * advice chain acks it, otherwise it's acked like any other message that was processed.
+ */
+public class QuarantineAdvice implements MethodInterceptor {
+  private static final Logger log = LoggerFactory.getLogger(QuarantineAdvice.class);
+
+  private final QuarantineIndex quarantineIndex;
+  private final boolean ackSkippedMessages;
+
+  public QuarantineAdvice(QuarantineIndex quarantineIndex, boolean ackSkippedMessages) {
+    this.quarantineIndex = quarantineIndex;
+    this.ackSkippedMessages = ackSkippedMessages;
+  }
+
+  @Override
+  public Object invoke(MethodInvocation invocation) throws Throwable {
+    Channel channel = (Channel) invocation.getArguments()[0];
+    Object data = invocation.getArguments()[1];
+
+    if (data instanceof Message) {
+      if (skipIfQuarantined(channel, (Message) data)) {
+        return null;
+      }
+
+      return invocation.proceed();
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Message> messages = (List<Message>) data;
+    List<Message> messagesToProcess = new ArrayList<>(messages.size());
+    for (Message message : messages) {
+      if (!skipIfQuarantined(channel, message)) {
+        messagesToProcess.add(message);
+      }
+    }
+
+    if (messagesToProcess.isEmpty()) {
+      return null;
+    }
+
+    invocation.getArguments()[1] = messagesToProcess;
+    return invocation.proceed();
+  }
+
+  private boolean skipIfQuarantined(Channel channel, Message message) throws Exception {
+    String messageHash = ManagedMessageRecoverer.hashMessage(message.getBody());
+    if (!quarantineIndex.contains(messageHash)) {
+      return false;
+    }
+
+    if (ackSkippedMessages) {
+      channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+    }
+
+    log.with("message_hash", messageHash).debug("Skipped previously quarantined message");
+    return true;
+  }
+}
@@ -0,0 +1,104 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * The hashes of messages that have already been quarantined, so that when one turns up again it
+ * can be skipped straight away instead of going through the listener, its retries and another
+ * round trip to the exception manager. A hash is only added once a copy of the message is held by
+ * the exception manager, so nothing needs storing when it's skipped again.
+ *
+ * Most messages aren't in here, and a Bloom filter answers that without taking a lock. Anything
+ * that might be is checked against a bounded map, which evicts the least recently seen hash. The
+ * filter can't forget evicted hashes, but they only cost a lookup in the map.
+ */
+public class QuarantineIndex {
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+
+  private final int maxSize;
+  private final AtomicLongArray bloomFilter;
+  private final int bloomFilterBits;
+  private final int bloomFilterHashes;
+  private final Map<String, Boolean> recentHashes;
+
+  public QuarantineIndex(int maxSize, MeterRegistry meterRegistry) {
+    this.maxSize = maxSize;
+
+    double bits = -maxSize * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+    bloomFilterBits = (int) Math.max(64, Math.ceil(bits));
+    bloomFilterHashes = (int) Math.max(1, Math.round(bits / maxSize * Math.log(2)));
+    bloomFilter = new AtomicLongArray((bloomFilterBits + 63) / 64);
+
+    recentHashes =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > QuarantineIndex.this.maxSize;
+          }
+        };
+
+    meterRegistry.gauge("quarantine.index.size", this, QuarantineIndex::size);
+  }
+
+  public boolean contains(String messageHash) {
+    long hash1 = hash1(messageHash);
+    long hash2 = hash2(messageHash);
+
+    for (int i = 0; i < bloomFilterHashes; i++) {
+      int bit = bit(hash1, hash2, i);
+      if ((bloomFilter.get(bit >>> 6) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    synchronized (recentHashes) {
+      return recentHashes.get(messageHash) != null;
+    }
+  }
+
+  public void add(String messageHash) {
+    long hash1 = hash1(messageHash);
+    long hash2 = hash2(messageHash);
+
+    synchronized (recentHashes) {
+      recentHashes.put(messageHash, Boolean.TRUE);
+    }
+
+    for (int i = 0; i < bloomFilterHashes; i++) {
+      int bit = bit(hash1, hash2, i);
+      long mask = 1L << bit;
+      bloomFilter.accumulateAndGet(bit >>> 6, mask, (word, newBit) -> word | newBit);
+    }
+  }
+
+  public void addAll(Collection<String> messageHashes) {
+    messageHashes.forEach(this::add);
+  }
+
+  public int size() {
+    synchronized (recentHashes) {
+      return recentHashes.size();
+    }
+  }
+
+  // The hashes are hex SHA-256 digests, so any 64 bits of them are already evenly distributed
+  private int bit(long hash1, long hash2, int i) {
+    return (int) Math.floorMod(hash1 + i * hash2, (long) bloomFilterBits);
+  }
+
+  private long hash1(String messageHash) {
+    return messageHash.length() >= 16
+        ? Long.parseUnsignedLong(messageHash.substring(0, 16), 16)
+        : messageHash.hashCode();
+  }
+
+  private long hash2(String messageHash) {
+    return messageHash.length() >= 32
+        ? Long.parseUnsignedLong(messageHash.substring(16, 32), 16) | 1
+        : 31L * messageHash.hashCode() | 1;
+  }
+}
@@ -0,0 +1,81 @@
+package uk.gov.ons.census.notifyprocessor.metrics;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/*
+ * Serves the Prometheus registry's scrape for Prometheus to collect. This isn't a web application,
+ * so rather than pull in a servlet container for one endpoint it uses the HTTP server that comes
+ * with the JDK. The endpoint has no authentication, so it listens on metrics.address only, which
+ * is the loopback interface unless an environment opens it up to its scraper.
+ */
+@Component
+@ConditionalOnProperty(name = "metrics.enabled", havingValue = "true")
+public class MetricsEndpoint {
+  private static final Logger log = LoggerFactory.getLogger(MetricsEndpoint.class);
+  private final PrometheusMeterRegistry meterRegistry;
+  private final String address;
+  private final int port;
+  private final String path;
+  private HttpServer httpServer;
+
+  public MetricsEndpoint(
+      PrometheusMeterRegistry meterRegistry,
+      @Value("${metrics.address}") String address,
+      @Value("${metrics.port}") int port,
+      @Value("${metrics.path}") String path) {
+    this.meterRegistry = meterRegistry;
+    this.address = address;
+    this.port = port;
+    this.path = path;
+  }
+
+  @PostConstruct
+  public void start() throws IOException {
+    httpServer = HttpServer.create(new InetSocketAddress(address, port), 0);
+    httpServer.createContext(path, this::scrape);
+    httpServer.start();
+
+    log.with("address", address).with("port", getPort()).with("path", path).info("Serving metrics");
+  }
+
+  @PreDestroy
+  public void stop() {
+    httpServer.stop(0);
+  }
+
+  public int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  private void scrape(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      byte[] body = meterRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+}
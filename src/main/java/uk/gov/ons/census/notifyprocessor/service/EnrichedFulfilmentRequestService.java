@@ -1,9 +1,21 @@
 package uk.gov.ons.census.notifyprocessor.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import uk.gov.ons.census.notifyprocessor.client.AsyncNotifyClient;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.client.NotifyHttpException;
+import uk.gov.ons.census.notifyprocessor.client.NotifyRateLimiter;
+import uk.gov.ons.census.notifyprocessor.client.NotifyRateLimiter.Outcome;
 import uk.gov.ons.census.notifyprocessor.model.EnrichedFulfilmentRequest;
 import uk.gov.service.notify.NotificationClientApi;
 import uk.gov.service.notify.NotificationClientException;
@@ -14,27 +26,180 @@ public class EnrichedFulfilmentRequestService {
 
   private final NotificationClientApi notificationClient;
 
+  private final AsyncNotifyClient asyncNotifyClient;
+
+  private final NotifyRateLimiter notifyRateLimiter;
+
+  private final CircuitBreaker notifyCircuitBreaker;
+
+  private final Map<Outcome, Timer> sendSmsTimers = new EnumMap<>(Outcome.class);
+
   public EnrichedFulfilmentRequestService(
-      NotificationClientApi notificationClient, @Value("${notify.senderId}") String senderId) {
+      NotificationClientApi notificationClient,
+      AsyncNotifyClient asyncNotifyClient,
+      NotifyRateLimiter notifyRateLimiter,
+      @Qualifier("notifyCircuitBreaker") CircuitBreaker notifyCircuitBreaker,
+      @Value("${notify.senderId}") String senderId,
+      MeterRegistry meterRegistry) {
     this.notificationClient = notificationClient;
+    this.asyncNotifyClient = asyncNotifyClient;
+    this.notifyRateLimiter = notifyRateLimiter;
+    this.notifyCircuitBreaker = notifyCircuitBreaker;
     this.senderId = senderId;
+
+    for (Outcome outcome : Outcome.values()) {
+      sendSmsTimers.put(
+          outcome,
+          Timer.builder("notify.send.sms")
+              .description("Time taken by Gov Notify to answer a request to send an SMS")
+              .tag("outcome", outcome.name().toLowerCase())
+              .register(meterRegistry));
+    }
   }
 
   public void processMessage(EnrichedFulfilmentRequest fulfilmentRequest) {
     try {
-      notificationClient.sendSms(
-          fulfilmentRequest.getTemplateId(),
-          fulfilmentRequest.getMobileNumber(),
-          Map.of("uac", fulfilmentRequest.getUac()),
-          UUID.randomUUID().toString(),
-          senderId);
+      notifyRateLimiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting to send to Gov Notify", e);
+    }
+
+    Outcome outcome = Outcome.FAILED;
+    try {
+      notifyCircuitBreaker.checkPermission();
+
+      long sendStartTime = System.nanoTime();
+      try {
+        notificationClient.sendSms(
+            fulfilmentRequest.getTemplateId(),
+            fulfilmentRequest.getMobileNumber(),
+            Map.of("uac", fulfilmentRequest.getUac()),
+            UUID.randomUUID().toString(),
+            senderId);
+        outcome = Outcome.SUCCESS;
+      } catch (NotificationClientException e) {
+        outcome = Outcome.of(e.getHttpResult());
+        recordNotifyResult(e.getHttpResult());
+        throw new RuntimeException(
+            String.format(
+                "Gov Notify sendSms NotificationClientException error with status code %d and "
+                    + "message: %s",
+                e.getHttpResult(), e.getMessage()),
+            e);
+      } catch (RuntimeException e) {
+        notifyCircuitBreaker.recordFailure();
+        throw e;
+      } finally {
+        sendSmsTimers.get(outcome).record(System.nanoTime() - sendStartTime, TimeUnit.NANOSECONDS);
+      }
+
+      notifyCircuitBreaker.recordSuccess();
+    } finally {
+      notifyRateLimiter.release(outcome);
+    }
+  }
+
+  /*
+   * The same as processMessage, except that nothing is waited for. The send goes out once the rate
+   * limiter grants a permit, so sends queued behind the limiter's concurrency hold no thread, and
+   * the limiter's max-concurrency still caps the sends in flight at Notify. The permit is released,
+   * and the breaker told, when the send finishes.
+   */
+  public CompletableFuture<Void> processMessageAsync(EnrichedFulfilmentRequest fulfilmentRequest) {
+    // A permit that is never granted is never released
+    return notifyRateLimiter
+        .acquireAsync()
+        .thenCompose(permit -> sendWithPermit(fulfilmentRequest));
+  }
+
+  private CompletableFuture<Void> sendWithPermit(EnrichedFulfilmentRequest fulfilmentRequest) {
+    Map<String, String> personalisation;
+    try {
+      personalisation = Map.of("uac", fulfilmentRequest.getUac());
+      notifyCircuitBreaker.checkPermission();
+    } catch (RuntimeException e) {
+      notifyRateLimiter.release(Outcome.FAILED);
+      return CompletableFuture.failedFuture(e);
+    }
+
+    // From here the breaker has given permission, so every way out has to record the outcome
+    long sendStartTime = System.nanoTime();
+    CompletableFuture<Void> send;
+    try {
+      send =
+          asyncNotifyClient.sendSms(
+              fulfilmentRequest.getTemplateId(),
+              fulfilmentRequest.getMobileNumber(),
+              personalisation,
+              UUID.randomUUID().toString(),
+              senderId);
+    } catch (RuntimeException e) {
+      notifyCircuitBreaker.recordFailure();
+      sendSmsTimers
+          .get(Outcome.FAILED)
+          .record(System.nanoTime() - sendStartTime, TimeUnit.NANOSECONDS);
+      notifyRateLimiter.release(Outcome.FAILED);
+      return CompletableFuture.failedFuture(e);
+    }
+
+    return send.handle(
+        (result, failure) -> {
+          Outcome outcome = Outcome.SUCCESS;
+          try {
+            if (failure == null) {
+              notifyCircuitBreaker.recordSuccess();
+              return null;
+            }
+
+            Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+            if (cause instanceof NotifyHttpException) {
+              int httpResult = ((NotifyHttpException) cause).getHttpResult();
+              outcome = Outcome.of(httpResult);
+              recordNotifyResult(httpResult);
+              throw new CompletionException(
+                  new RuntimeException(
+                      String.format(
+                          "Gov Notify sendSms error with status code %d and message: %s",
+                          httpResult, cause.getMessage()),
+                      cause));
+            }
+
+            outcome = Outcome.FAILED;
+            notifyCircuitBreaker.recordFailure();
+            throw new CompletionException(cause);
+          } finally {
+            sendSmsTimers
+                .get(outcome)
+                .record(System.nanoTime() - sendStartTime, TimeUnit.NANOSECONDS);
+            notifyRateLimiter.release(outcome);
+          }
+        });
+  }
+
+  // A cheap read that tells us whether Notify is back, used while its circuit breaker is open
+  public void probeNotify() {
+    notifyCircuitBreaker.checkPermission();
+
+    try {
+      notificationClient.getAllTemplates("sms");
+      notifyCircuitBreaker.recordSuccess();
     } catch (NotificationClientException e) {
+      recordNotifyResult(e.getHttpResult());
       throw new RuntimeException(
-          String.format(
-              "Gov Notify sendSms NotificationClientException error with status code %d and "
-                  + "message: %s",
-              e.getHttpResult(), e.getMessage()),
-          e);
+          "Gov Notify probe failed with status code " + e.getHttpResult(), e);
+    } catch (RuntimeException e) {
+      notifyCircuitBreaker.recordFailure();
+      throw e;
+    }
+  }
+
+  // Only no response at all or a server error means Notify is down; anything else means it's up
+  private void recordNotifyResult(int httpResult) {
+    if (httpResult == 0 || httpResult >= 500) {
+      notifyCircuitBreaker.recordFailure();
+    } else {
+      notifyCircuitBreaker.recordSuccess();
     }
   }
 }
@@ -2,41 +2,24 @@ package uk.gov.ons.census.notifyprocessor.service;
 
 import static uk.gov.ons.census.notifyprocessor.model.EventType.RM_UAC_CREATED;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.time.OffsetDateTime;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import uk.gov.ons.census.notifyprocessor.cache.UacQidCache;
 import uk.gov.ons.census.notifyprocessor.model.*;
 import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper;
-import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper.Tuple;
+import uk.gov.ons.census.notifyprocessor.utilities.TemplateRoute;
 
 @Service
 public class FulfilmentRequestService {
 
-  private static final String INDIVIDUAL_QUESTIONNAIRE_REQUEST_ENGLAND = "UACIT1";
-  private static final String INDIVIDUAL_QUESTIONNAIRE_REQUEST_WALES_ENGLISH = "UACIT2";
-  private static final String INDIVIDUAL_QUESTIONNAIRE_REQUEST_WALES_WELSH = "UACIT2W";
-  private static final String INDIVIDUAL_QUESTIONNAIRE_REQUEST_NORTHERN_IRELAND = "UACIT4";
-
-  private static final String INDIVIDUAL_QUESTIONNAIRE_REQUEST_VIA_EQ_ENGLAND = "UACITA1";
-  private static final String INDIVIDUAL_QUESTIONNAIRE_REQUEST_VIA_EQ_WALES_ENGLISH = "UACITA2B";
-  private static final String INDIVIDUAL_QUESTIONNAIRE_REQUEST_VIA_EQ_NORTHERN_IRELAND = "UACITA4";
-  private static final Set<String> individualResponseRequestCodes =
-      new HashSet<>(
-          Arrays.asList(
-              INDIVIDUAL_QUESTIONNAIRE_REQUEST_ENGLAND,
-              INDIVIDUAL_QUESTIONNAIRE_REQUEST_WALES_ENGLISH,
-              INDIVIDUAL_QUESTIONNAIRE_REQUEST_WALES_WELSH,
-              INDIVIDUAL_QUESTIONNAIRE_REQUEST_NORTHERN_IRELAND,
-              INDIVIDUAL_QUESTIONNAIRE_REQUEST_VIA_EQ_ENGLAND,
-              INDIVIDUAL_QUESTIONNAIRE_REQUEST_VIA_EQ_WALES_ENGLISH,
-              INDIVIDUAL_QUESTIONNAIRE_REQUEST_VIA_EQ_NORTHERN_IRELAND));
-
   private final UacQidCache uacQidCache;
 
   private final TemplateMapper templateMapper;
@@ -47,53 +30,113 @@ public class FulfilmentRequestService {
 
   private final String uacQidCreatedExchange;
 
+  private final Timer processTimer;
+
+  private final Timer processFailureTimer;
+
+  private final Timer enrichTimer;
+
+  private final Timer enrichFailureTimer;
+
   public FulfilmentRequestService(
       UacQidCache uacQidCache,
       TemplateMapper templateMapper,
       RabbitTemplate rabbitTemplate,
       @Value("${queueconfig.enriched-fulfilment-exchange}") String enrichedFulfilmentExchange,
-      @Value("${queueconfig.uac-qid-created-exchange}") String uacQidCreatedExchange) {
+      @Value("${queueconfig.uac-qid-created-exchange}") String uacQidCreatedExchange,
+      MeterRegistry meterRegistry) {
     this.uacQidCache = uacQidCache;
     this.templateMapper = templateMapper;
     this.rabbitTemplate = rabbitTemplate;
     this.enrichedFulfilmentExchange = enrichedFulfilmentExchange;
     this.uacQidCreatedExchange = uacQidCreatedExchange;
+    this.processTimer = makeTimer(meterRegistry, "fulfilment.process", "success");
+    this.processFailureTimer = makeTimer(meterRegistry, "fulfilment.process", "failure");
+    this.enrichTimer = makeTimer(meterRegistry, "fulfilment.enrich", "success");
+    this.enrichFailureTimer = makeTimer(meterRegistry, "fulfilment.enrich", "failure");
   }
 
   public void processMessage(ResponseManagementEvent fulfilmentEvent) {
+    long startTime = System.nanoTime();
+
+    try {
+      Enrichment enrichment = enrich(fulfilmentEvent);
+      if (enrichment != null) {
+        publish(enrichment);
+      }
+    } catch (RuntimeException e) {
+      processFailureTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+      throw e;
+    }
+
+    processTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+  }
+
+  /*
+   * Builds the outbound messages for a fulfilment without sending anything, so that a failure part
+   * way through never leaves a UAC-QID created message on the channel without its SMS request.
+   */
+  public Enrichment enrich(ResponseManagementEvent fulfilmentEvent) {
+    long startTime = System.nanoTime();
+    Enrichment enrichment;
+
+    try {
+      enrichment = buildEnrichment(fulfilmentEvent);
+    } catch (RuntimeException e) {
+      enrichFailureTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+      throw e;
+    }
+
+    enrichTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+    return enrichment;
+  }
+
+  private Enrichment buildEnrichment(ResponseManagementEvent fulfilmentEvent) {
     String fulfilmentCode = fulfilmentEvent.getPayload().getFulfilmentRequest().getFulfilmentCode();
-    Tuple tuple = templateMapper.getTemplate(fulfilmentCode);
-    if (tuple == null) {
-      return;
+    TemplateRoute route = templateMapper.getTemplate(fulfilmentCode);
+    if (route == null) {
+      return null;
     }
 
     UUID caseId = fulfilmentEvent.getPayload().getFulfilmentRequest().getCaseId();
 
-    if (individualResponseRequestCodes.contains(fulfilmentCode)
+    if (route.isIndividual()
         && fulfilmentEvent.getPayload().getFulfilmentRequest().getIndividualCaseId() != null) {
       caseId = fulfilmentEvent.getPayload().getFulfilmentRequest().getIndividualCaseId();
     }
 
-    UacQid uacqid = getUacQidPair(tuple.getQuestionnaireType(), caseId, fulfilmentEvent.getEvent());
+    UacQid uacqid = uacQidCache.getUacQidPair(route.getQuestionnaireType());
 
     EnrichedFulfilmentRequest enrichedFulfilmentRequest = new EnrichedFulfilmentRequest();
-    enrichedFulfilmentRequest.setTemplateId(tuple.getTemplateId());
+    enrichedFulfilmentRequest.setTemplateId(route.getTemplateId());
     enrichedFulfilmentRequest.setMobileNumber(
         fulfilmentEvent.getPayload().getFulfilmentRequest().getContact().getTelNo());
-    String uac = uacqid.getUac();
+    enrichedFulfilmentRequest.setUac(formatUac(uacqid.getUac()));
+
+    return new Enrichment(
+        buildUacQidCreatedEvent(uacqid, caseId, fulfilmentEvent.getEvent()),
+        enrichedFulfilmentRequest);
+  }
+
+  static String formatUac(String uac) {
     String formattedUac =
         String.format(
             "%s %s %s %s",
             uac.substring(0, 4), uac.substring(4, 8), uac.substring(8, 12), uac.substring(12, 16));
-    enrichedFulfilmentRequest.setUac(formattedUac.toUpperCase());
+    return formattedUac.toUpperCase();
+  }
+
+  public void publish(Enrichment enrichment) {
+    // This message to Case Processor will ensure the UAC-QID is persisted: eventual consistency
+    rabbitTemplate.convertAndSend(uacQidCreatedExchange, "", enrichment.getUacQidCreatedEvent());
 
     // Send a message to ourselves - in case Gov Notify is down
-    rabbitTemplate.convertAndSend(enrichedFulfilmentExchange, "", enrichedFulfilmentRequest);
+    rabbitTemplate.convertAndSend(
+        enrichedFulfilmentExchange, "", enrichment.getEnrichedFulfilmentRequest());
   }
 
-  private UacQid getUacQidPair(int questionnaireType, UUID caseId, Event receivedEvent) {
-    UacQid uacqid = uacQidCache.getUacQidPair(questionnaireType);
-
+  private ResponseManagementEvent buildUacQidCreatedEvent(
+      UacQid uacqid, UUID caseId, Event receivedEvent) {
     UacQidCreated uacQidCreated = new UacQidCreated();
     uacQidCreated.setCaseId(caseId);
     uacQidCreated.setQid(uacqid.getQid());
@@ -111,9 +154,17 @@ public class FulfilmentRequestService {
     payload.setUacQidCreated(uacQidCreated);
     responseManagementEvent.setPayload(payload);
 
-    // This message to Case Processor will ensure the UAC-QID is persisted: eventual consistency
-    rabbitTemplate.convertAndSend(uacQidCreatedExchange, "", responseManagementEvent);
+    return responseManagementEvent;
+  }
+
+  private static Timer makeTimer(MeterRegistry meterRegistry, String name, String outcome) {
+    return Timer.builder(name).tag("outcome", outcome).register(meterRegistry);
+  }
 
-    return uacqid;
+  @Data
+  @AllArgsConstructor
+  public static class Enrichment {
+    private ResponseManagementEvent uacQidCreatedEvent;
+    private EnrichedFulfilmentRequest enrichedFulfilmentRequest;
   }
 }
@@ -0,0 +1,102 @@
+package uk.gov.ons.census.notifyprocessor.utilities;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties;
+
+/*
+ * Watches an optional YAML file holding a notify.templates section - the same shape as in
+ * application.yml - and reloads the template routes whenever it changes, so templates and
+ * fulfilment codes can be changed without restarting (and so draining) the consumers. The file
+ * replaces the whole table. A file which fails validation is logged and counted, and the current
+ * table stays in use until the file changes again.
+ */
+@Component
+public class TemplateFileReloader {
+  private static final Logger log = LoggerFactory.getLogger(TemplateFileReloader.class);
+
+  private final TemplateMapper templateMapper;
+  private final String templatesFile;
+  private final Counter successfulReloads;
+  private final Counter failedReloads;
+
+  private FileTime lastModified;
+
+  public TemplateFileReloader(
+      TemplateMapper templateMapper,
+      MeterRegistry meterRegistry,
+      @Value("${notify.templates-file}") String templatesFile) {
+    this.templateMapper = templateMapper;
+    this.templatesFile = templatesFile;
+
+    Gauge.builder("notify.templates.version", templateMapper, TemplateMapper::getVersion)
+        .register(meterRegistry);
+    successfulReloads = meterRegistry.counter("notify.templates.reloads", "outcome", "success");
+    failedReloads = meterRegistry.counter("notify.templates.reloads", "outcome", "failure");
+  }
+
+  @Scheduled(fixedDelayString = "${notify.templates-file-check-interval}")
+  public void checkTemplatesFile() {
+    if (templatesFile.isBlank()) {
+      return;
+    }
+
+    Path path = Paths.get(templatesFile);
+    FileTime modified;
+    try {
+      modified = Files.getLastModifiedTime(path);
+    } catch (NoSuchFileException e) {
+      return;
+    } catch (IOException e) {
+      log.with("templates_file", templatesFile).warn("Could not check templates file", e);
+      return;
+    }
+
+    if (modified.equals(lastModified)) {
+      return;
+    }
+
+    lastModified = modified;
+
+    try {
+      long version = templateMapper.reload(readTemplates(path));
+      successfulReloads.increment();
+      log.with("templates_file", templatesFile)
+          .with("version", version)
+          .info("Reloaded fulfilment templates");
+    } catch (IOException | RuntimeException e) {
+      failedReloads.increment();
+      log.with("templates_file", templatesFile)
+          .with("version", templateMapper.getVersion())
+          .error("Rejected templates file, keeping current fulfilment templates", e);
+    }
+  }
+
+  private NotifyTemplateProperties readTemplates(Path path) throws IOException {
+    Binder binder =
+        new Binder(
+            ConfigurationPropertySources.from(
+                new YamlPropertySourceLoader()
+                    .load(path.toString(), new FileSystemResource(path.toFile()))));
+
+    return binder
+        .bind("notify", NotifyTemplateProperties.class)
+        .orElseGet(NotifyTemplateProperties::new);
+  }
+}
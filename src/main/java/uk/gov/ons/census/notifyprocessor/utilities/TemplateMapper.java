@@ -1,126 +1,86 @@
 package uk.gov.ons.census.notifyprocessor.utilities;
 
-import lombok.AllArgsConstructor;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.stream.Collectors;
 import lombok.Data;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties.Template;
 
+/*
+ * Maps fulfilment codes to their route. Each table is built once and never changes, so a lookup is
+ * a single hash probe that hands back a shared route without allocating or locking. Reloading
+ * builds and validates a whole new table first and then swaps it in, so a bad reload leaves the
+ * current one in use and a lookup never sees half of one and half of the other.
+ */
 @Component
 public class TemplateMapper {
-  private static final int HOUSEHOLD_ENGLAND = 1;
-  private static final int HOUSEHOLD_WALES = 2;
-  private static final int HOUSEHOLD_WALES_IN_WELSH = 3;
-  private static final int HOUSEHOLD_NI = 4;
-  private static final int INDIVIDUAL_RESPONSE_ENGLAND = 21;
-  private static final int INDIVIDUAL_RESPONSE_WALES = 22;
-  private static final int INDIVIDUAL_RESPONSE_WALES_IN_WELSH = 23;
-  private static final int INDIVIDUAL_RESPONSE_NI = 24;
-  private static final int CE_ENGLAND = 31;
-  private static final int CE_WALES = 32;
-  private static final int CE_WALES_IN_WELSH = 33;
-  private final String UACHHT1;
-  private final String UACHHT2W;
-  private final String UACHHT2;
-  private final String UACHHT4;
-  private final String UACIT1;
-  private final String UACIT2W;
-  private final String UACIT2;
-  private final String UACIT4;
-  private final String UACCET1;
-  private final String UACCET2W;
-  private final String UACCET2;
-  private final String UACITA1;
-  private final String UACITA2B;
-  private final String UACITA4;
+  private volatile RoutingTable routingTable;
 
-  public TemplateMapper(
-      @Value("${notify.UACHHT1}") String UACHHT1,
-      @Value("${notify.UACHHT2W}") String UACHHT2W,
-      @Value("${notify.UACHHT2}") String UACHHT2,
-      @Value("${notify.UACHHT4}") String UACHHT4,
-      @Value("${notify.UACIT1}") String UACIT1,
-      @Value("${notify.UACIT2W}") String UACIT2W,
-      @Value("${notify.UACIT2}") String UACIT2,
-      @Value("${notify.UACIT4}") String UACIT4,
-      @Value("${notify.UACCET1}") String UACCET1,
-      @Value("${notify.UACCET2W}") String UACCET2W,
-      @Value("${notify.UACCET2}") String UACCET2,
-      @Value("${notify.UACITA1}") String UACITA1,
-      @Value("${notify.UACITA2B}") String UACITA2B,
-      @Value("${notify.UACITA4}") String UACITA4) {
-    this.UACHHT1 = UACHHT1;
-    this.UACHHT2W = UACHHT2W;
-    this.UACHHT2 = UACHHT2;
-    this.UACHHT4 = UACHHT4;
-    this.UACIT1 = UACIT1;
-    this.UACIT2W = UACIT2W;
-    this.UACIT2 = UACIT2;
-    this.UACIT4 = UACIT4;
-    this.UACCET1 = UACCET1;
-    this.UACCET2W = UACCET2W;
-    this.UACCET2 = UACCET2;
-    this.UACITA1 = UACITA1;
-    this.UACITA2B = UACITA2B;
-    this.UACITA4 = UACITA4;
+  public TemplateMapper(NotifyTemplateProperties notifyTemplateProperties) {
+    routingTable = buildRoutingTable(notifyTemplateProperties, 1);
   }
 
-  public Tuple getTemplate(String fulfilmentCode) {
-    Tuple result = null;
-    switch (fulfilmentCode) {
-      case "UACHHT1":
-        result = new Tuple(HOUSEHOLD_ENGLAND, UACHHT1);
-        break;
-      case "UACHHT2":
-        result = new Tuple(HOUSEHOLD_WALES, UACHHT2);
-        break;
-      case "UACHHT2W":
-        result = new Tuple(HOUSEHOLD_WALES_IN_WELSH, UACHHT2W);
-        break;
-      case "UACHHT4":
-        result = new Tuple(HOUSEHOLD_NI, UACHHT4);
-        break;
-      case "UACIT1":
-        result = new Tuple(INDIVIDUAL_RESPONSE_ENGLAND, UACIT1);
-        break;
-      case "UACIT2":
-        result = new Tuple(INDIVIDUAL_RESPONSE_WALES, UACIT2);
-        break;
-      case "UACIT2W":
-        result = new Tuple(INDIVIDUAL_RESPONSE_WALES_IN_WELSH, UACIT2W);
-        break;
-      case "UACIT4":
-        result = new Tuple(INDIVIDUAL_RESPONSE_NI, UACIT4);
-        break;
-      case "UACCET1":
-        result = new Tuple(CE_ENGLAND, UACCET1);
-        break;
-      case "UACCET2":
-        result = new Tuple(CE_WALES, UACCET2);
-        break;
-      case "UACCET2W":
-        result = new Tuple(CE_WALES_IN_WELSH, UACCET2W);
-        break;
-      case "UACITA1":
-        result = new Tuple(INDIVIDUAL_RESPONSE_ENGLAND, UACITA1);
-        break;
-      case "UACITA2B":
-        result = new Tuple(INDIVIDUAL_RESPONSE_WALES, UACITA2B);
-        break;
-      case "UACITA4":
-        result = new Tuple(INDIVIDUAL_RESPONSE_NI, UACITA4);
-        break;
+  public TemplateRoute getTemplate(String fulfilmentCode) {
+    return routingTable.getRoutes().get(fulfilmentCode);
+  }
+
+  public Set<Integer> getQuestionnaireTypes() {
+    return routingTable.getQuestionnaireTypes();
+  }
+
+  public long getVersion() {
+    return routingTable.getVersion();
+  }
+
+  // Reloads are rare and serialised, only the swap itself needs to be visible to lookups
+  public synchronized long reload(NotifyTemplateProperties notifyTemplateProperties) {
+    RoutingTable newRoutingTable =
+        buildRoutingTable(notifyTemplateProperties, routingTable.getVersion() + 1);
+    routingTable = newRoutingTable;
+    return newRoutingTable.getVersion();
+  }
+
+  private static RoutingTable buildRoutingTable(
+      NotifyTemplateProperties notifyTemplateProperties, long version) {
+    Map<String, TemplateRoute> routes = new HashMap<>();
+
+    for (Entry<String, Template> entry : notifyTemplateProperties.getTemplates().entrySet()) {
+      Template template = entry.getValue();
+      if (template.getQuestionnaireType() == null || template.getTemplateId() == null) {
+        throw new IllegalStateException(
+            "Fulfilment code "
+                + entry.getKey()
+                + " needs both a questionnaire-type and a template-id");
+      }
+
+      // Map keys bound from environment variables arrive lower case, but codes never are
+      routes.put(
+          entry.getKey().toUpperCase(Locale.ROOT),
+          new TemplateRoute(
+              template.getQuestionnaireType(), template.getTemplateId(), template.isIndividual()));
+    }
 
-      default:
-        break;
+    if (routes.isEmpty()) {
+      throw new IllegalStateException("No fulfilment codes configured under notify.templates");
     }
 
-    return result;
+    return new RoutingTable(
+        Map.copyOf(routes),
+        routes.values().stream()
+            .map(TemplateRoute::getQuestionnaireType)
+            .collect(Collectors.toUnmodifiableSet()),
+        version);
   }
 
   @Data
-  @AllArgsConstructor
-  public static class Tuple {
-    public int questionnaireType;
-    public String templateId;
+  private static class RoutingTable {
+    private final Map<String, TemplateRoute> routes;
+    private final Set<Integer> questionnaireTypes;
+    private final long version;
   }
 }
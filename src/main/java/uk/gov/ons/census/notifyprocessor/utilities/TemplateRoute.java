@@ -0,0 +1,11 @@
+package uk.gov.ons.census.notifyprocessor.utilities;
+
+import lombok.Value;
+
+/* Everything a fulfilment code decides about its SMS. Shared between requests, so immutable. */
+@Value
+public class TemplateRoute {
+  int questionnaireType;
+  String templateId;
+  boolean individual;
+}
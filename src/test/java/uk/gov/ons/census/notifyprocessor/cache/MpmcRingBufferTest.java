@@ -0,0 +1,96 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class MpmcRingBufferTest {
+
+  @Test
+  public void testCapacityIsRoundedUpToPowerOfTwo() {
+    assertThat(new MpmcRingBuffer<Integer>(1000).capacity()).isEqualTo(1024);
+    assertThat(new MpmcRingBuffer<Integer>(1024).capacity()).isEqualTo(1024);
+  }
+
+  @Test
+  public void testBoundedFifo() {
+    // given
+    MpmcRingBuffer<Integer> underTest = new MpmcRingBuffer<>(4);
+
+    // when
+    for (int i = 0; i < 4; i++) {
+      assertThat(underTest.offer(i)).isTrue();
+    }
+
+    // then
+    assertThat(underTest.offer(4)).isFalse();
+    assertThat(underTest.size()).isEqualTo(4);
+    for (int i = 0; i < 4; i++) {
+      assertThat(underTest.poll()).isEqualTo(i);
+    }
+    assertThat(underTest.poll()).isNull();
+    assertThat(underTest.size()).isZero();
+  }
+
+  @Test
+  public void testConcurrentProducersAndConsumersLoseNothing() throws Exception {
+    // given
+    int producers = 4;
+    int consumers = 8;
+    int perProducer = 25_000;
+    MpmcRingBuffer<Integer> underTest = new MpmcRingBuffer<>(256);
+    Set<Integer> consumed = ConcurrentHashMap.newKeySet();
+    CountDownLatch startLatch = new CountDownLatch(1);
+    ExecutorService executorService = Executors.newFixedThreadPool(producers + consumers);
+    List<Future<?>> futures = new ArrayList<>();
+
+    // when
+    for (int p = 0; p < producers; p++) {
+      int base = p * perProducer;
+      futures.add(
+          executorService.submit(
+              () -> {
+                startLatch.await();
+                for (int i = 0; i < perProducer; i++) {
+                  while (!underTest.offer(base + i)) {
+                    Thread.yield();
+                  }
+                }
+                return null;
+              }));
+    }
+    for (int c = 0; c < consumers; c++) {
+      futures.add(
+          executorService.submit(
+              () -> {
+                startLatch.await();
+                while (consumed.size() < producers * perProducer) {
+                  Integer element = underTest.poll();
+                  if (element == null) {
+                    Thread.yield();
+                  } else {
+                    assertThat(consumed.add(element)).isTrue();
+                  }
+                }
+                return null;
+              }));
+    }
+    startLatch.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executorService.shutdown();
+
+    // then
+    assertThat(consumed).hasSize(producers * perProducer);
+    assertThat(underTest.poll()).isNull();
+  }
+}
@@ -0,0 +1,67 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+public class PackedUacQidPoolTest {
+
+  @Test
+  public void testPairsComeOutAsTheyWentIn() {
+    // given
+    PackedUacQidPool underTest = new PackedUacQidPool(4, 20);
+
+    // when
+    underTest.offer(new StringBuilder("abcd1234"), new StringBuilder("0120000001"));
+    underTest.offer(makeUacQid("a-very-long-uac-indeed", "0120000002"));
+    underTest.offer(makeUacQid("wŵ", "0120000003"));
+
+    // then
+    assertThat(underTest.size()).isEqualTo(3);
+    assertThat(underTest.poll()).isEqualTo(makeUacQid("abcd1234", "0120000001"));
+    assertThat(underTest.poll()).isEqualTo(makeUacQid("a-very-long-uac-indeed", "0120000002"));
+    assertThat(underTest.poll()).isEqualTo(makeUacQid("wŵ", "0120000003"));
+    assertThat(underTest.poll()).isNull();
+  }
+
+  @Test
+  public void testFullPoolRejectsPairs() {
+    // given
+    PackedUacQidPool underTest = new PackedUacQidPool(2, 20);
+    underTest.offer(makeUacQid("uac1", "qid1"));
+    underTest.offer(makeUacQid("uac2", "qid2"));
+
+    // when
+    boolean accepted = underTest.offer(makeUacQid("uac3", "qid3"));
+
+    // then
+    assertThat(accepted).isFalse();
+    assertThat(underTest.poll().getUac()).isEqualTo("uac1");
+    assertThat(underTest.offer(makeUacQid("uac3", "qid3"))).isTrue();
+  }
+
+  @Test
+  public void testOversizedPairsAreRejectedAndCounted() {
+    // given
+    PackedUacQidPool underTest = new PackedUacQidPool(4, 512);
+    String oversized = "1".repeat(255);
+
+    // when
+    boolean qidAccepted = underTest.offer(new StringBuilder("abcd1234"), oversized);
+    boolean uacAccepted = underTest.offer(makeUacQid(oversized, "0120000001"));
+
+    // then
+    assertThat(qidAccepted).isFalse();
+    assertThat(uacAccepted).isFalse();
+    assertThat(underTest.getRejectedCount()).isEqualTo(2);
+    assertThat(underTest.size()).isZero();
+  }
+
+  private UacQid makeUacQid(String uac, String qid) {
+    UacQid uacQid = new UacQid();
+    uacQid.setUac(uac);
+    uacQid.setQid(qid);
+    return uacQid;
+  }
+}
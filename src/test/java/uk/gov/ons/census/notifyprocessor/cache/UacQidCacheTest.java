@@ -1,20 +1,43 @@
 package uk.gov.ons.census.notifyprocessor.cache;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.jeasy.random.EasyRandom;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.springframework.test.util.ReflectionTestUtils;
 import uk.gov.ons.census.notifyprocessor.client.UacQidServiceClient;
+import uk.gov.ons.census.notifyprocessor.client.UacQidSink;
 import uk.gov.ons.census.notifyprocessor.model.UacQid;
+import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UacQidCacheTest {
@@ -23,7 +46,25 @@ public class UacQidCacheTest {
 
   @Mock UacQidServiceClient uacQidServiceClient;
 
-  @InjectMocks UacQidCache underTest;
+  @Mock TemplateMapper templateMapper;
+
+  private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private UacQidCache underTest;
+
+  @Before
+  public void setUp() {
+    when(templateMapper.getQuestionnaireTypes()).thenReturn(Set.of(1));
+    underTest =
+        new UacQidCache(
+            uacQidServiceClient,
+            templateMapper,
+            meterRegistry,
+            UacQidPoolType.PACKED_RING_BUFFER,
+            4096,
+            48);
+    ReflectionTestUtils.setField(underTest, "maxInFlightFetches", 1);
+  }
 
   @Test
   public void testToppingUpRecoversFromFailure() {
@@ -34,9 +75,9 @@ public class UacQidCacheTest {
 
     List<UacQid> uacQids1 = populateUacQidList(1, CACHE_FETCH);
 
-    when(uacQidServiceClient.getUacQids(1, CACHE_FETCH))
-        .thenThrow(new RuntimeException("api failed"))
-        .thenReturn(uacQids1);
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(CACHE_FETCH), any()))
+        .thenReturn(CompletableFuture.failedFuture(new RuntimeException("api failed")))
+        .thenAnswer(streaming(uacQids1));
 
     // when
     try {
@@ -52,6 +93,354 @@ public class UacQidCacheTest {
     fail("Expected Exception");
   }
 
+  @Test
+  public void testConcurrentConsumersEachGetDistinctUacQid() throws Exception {
+    // given
+    int threads = 50;
+    int perThread = 40;
+    ReflectionTestUtils.setField(underTest, "cacheFetch", threads * perThread);
+    ReflectionTestUtils.setField(underTest, "cacheMin", 1);
+    ReflectionTestUtils.setField(underTest, "uacQidGetTimout", 10);
+
+    List<UacQid> uacQids = populateUacQidList(1, threads * perThread);
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(threads * perThread), any()))
+        .thenAnswer(streaming(uacQids));
+
+    Set<UacQid> taken = ConcurrentHashMap.newKeySet();
+    CountDownLatch startLatch = new CountDownLatch(1);
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+
+    // when
+    for (int i = 0; i < threads; i++) {
+      futures.add(
+          executorService.submit(
+              () -> {
+                startLatch.await();
+                for (int j = 0; j < perThread; j++) {
+                  taken.add(underTest.getUacQidPair(1));
+                }
+                return null;
+              }));
+    }
+    startLatch.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executorService.shutdown();
+
+    // then
+    assertThat(taken).containsExactlyInAnyOrderElementsOf(uacQids);
+    long timedCalls =
+        meterRegistry.find("uacqid.cache.get").timers().stream().mapToLong(Timer::count).sum();
+    assertThat(timedCalls).isEqualTo(threads * perThread);
+  }
+
+  @Test
+  public void testRefillSizesFollowConsumptionRateAndDecayWhenIdle() {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheFetch", 50);
+    ReflectionTestUtils.setField(underTest, "cacheMin", 1);
+    ReflectionTestUtils.setField(underTest, "uacQidGetTimout", 2);
+    ReflectionTestUtils.setField(underTest, "rateSmoothing", 0.5);
+    ReflectionTestUtils.setField(underTest, "watermarkHeadroom", 2.0);
+    ReflectionTestUtils.setField(underTest, "refillSeconds", 10.0);
+    ReflectionTestUtils.setField(underTest, "minWatermark", 1);
+    ReflectionTestUtils.setField(underTest, "maxWatermark", 1000);
+    ReflectionTestUtils.setField(underTest, "minFetchCount", 5);
+    ReflectionTestUtils.setField(underTest, "maxFetchCount", 1000);
+
+    when(uacQidServiceClient.streamUacQids(eq(1), anyInt(), any()))
+        .thenAnswer(
+            invocation ->
+                streaming(populateUacQidList(1, invocation.getArgument(1))).answer(invocation));
+
+    for (int i = 0; i < 20; i++) {
+      underTest.getUacQidPair(1);
+    }
+
+    // when
+    underTest.adaptRefillSizes(1.0);
+
+    // then
+    assertThat(gauge("uacqid.pool.consumption.rate")).isEqualTo(20.0);
+    assertThat(gauge("uacqid.pool.fetch.count")).isBetween(200.0, 210.0);
+
+    // when
+    underTest.adaptRefillSizes(1.0);
+
+    // then
+    assertThat(gauge("uacqid.pool.consumption.rate")).isEqualTo(10.0);
+
+    // when
+    for (int i = 0; i < 20; i++) {
+      underTest.adaptRefillSizes(1.0);
+    }
+
+    // then
+    assertThat(gauge("uacqid.pool.fetch.count")).isEqualTo(5.0);
+    assertThat(gauge("uacqid.pool.watermark")).isEqualTo(1.0);
+  }
+
+  @Test
+  public void testEmptyPoolPipelinesSeveralFetches() throws Exception {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheFetch", 10);
+    ReflectionTestUtils.setField(underTest, "cacheMin", 100);
+    ReflectionTestUtils.setField(underTest, "uacQidGetTimout", 5);
+    ReflectionTestUtils.setField(underTest, "maxInFlightFetches", 3);
+
+    List<UacQidSink> sinks = new CopyOnWriteArrayList<>();
+    List<CompletableFuture<Integer>> fetches = new CopyOnWriteArrayList<>();
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(10), any()))
+        .thenAnswer(
+            invocation -> {
+              CompletableFuture<Integer> fetch = new CompletableFuture<>();
+              sinks.add(invocation.getArgument(2));
+              fetches.add(fetch);
+              return fetch;
+            });
+
+    // when
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    Future<UacQid> result = executorService.submit(() -> underTest.getUacQidPair(1));
+
+    // then
+    verify(uacQidServiceClient, timeout(5000).times(3)).streamUacQids(eq(1), eq(10), any());
+    assertThat(gauge("uacqid.pool.fetches.in.flight")).isEqualTo(3.0);
+
+    // The waiting consumer gets the first pair parsed, before any fetch has finished
+    sinks.get(0).accept("uac", "qid");
+    assertThat(result.get(5, TimeUnit.SECONDS).getUac()).isEqualTo("uac");
+
+    for (CompletableFuture<Integer> fetch : fetches) {
+      fetch.complete(0);
+    }
+    executorService.shutdown();
+  }
+
+  @Test
+  public void testWarmUpFillsPoolsBeforeFirstUse() throws Exception {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheFetch", CACHE_FETCH);
+    ReflectionTestUtils.setField(underTest, "cacheMin", CACHE_MIN);
+    ReflectionTestUtils.setField(underTest, "uacQidGetTimout", 2);
+
+    List<UacQid> uacQids = populateUacQidList(1, CACHE_FETCH);
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(CACHE_FETCH), any()))
+        .thenThrow(new RuntimeException("api failed"))
+        .thenAnswer(streaming(uacQids));
+
+    // when
+    boolean warm = underTest.warmUp(5000);
+
+    // then
+    assertThat(warm).isTrue();
+    assertThat(underTest.getUacQidPair(1)).isEqualTo(uacQids.get(0));
+    verify(uacQidServiceClient, times(2)).streamUacQids(eq(1), eq(CACHE_FETCH), any());
+  }
+
+  @Test
+  public void testWarmUpGivesUpAtDeadline() throws Exception {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheFetch", CACHE_FETCH);
+    ReflectionTestUtils.setField(underTest, "cacheMin", CACHE_MIN);
+
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(CACHE_FETCH), any()))
+        .thenThrow(new RuntimeException("api failed"));
+
+    // when
+    boolean warm = underTest.warmUp(300);
+
+    // then
+    assertThat(warm).isFalse();
+  }
+
+  @Test
+  public void testNoFetchWithoutRoomForIt() {
+    // given
+    underTest =
+        new UacQidCache(
+            uacQidServiceClient,
+            templateMapper,
+            meterRegistry,
+            UacQidPoolType.BLOCKING_QUEUE,
+            8,
+            48);
+    ReflectionTestUtils.setField(underTest, "maxInFlightFetches", 1);
+    ReflectionTestUtils.setField(underTest, "cacheFetch", 4);
+    ReflectionTestUtils.setField(underTest, "cacheMin", 7);
+    List<UacQid> uacQids = populateUacQidList(1, 6);
+    underTest.preload(Map.of(1, uacQids));
+
+    // when
+    UacQid actualUacQid = underTest.getUacQidPair(1);
+
+    // then
+    assertThat(actualUacQid).isEqualTo(uacQids.get(0));
+    verify(uacQidServiceClient, never()).streamUacQids(anyInt(), anyInt(), any());
+  }
+
+  @Test
+  public void testFetchCountMustFitAboveWatermark() {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheMin", 500);
+    ReflectionTestUtils.setField(underTest, "cacheFetch", 4000);
+
+    // when, then
+    assertThatThrownBy(underTest::checkRefillSettings)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("uacqid-fetch-count is 4000");
+
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheFetch", 0);
+
+    // when, then
+    assertThatThrownBy(underTest::checkRefillSettings)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("uacqid-fetch-count is 0");
+  }
+
+  @Test
+  public void testAdaptiveFetchCountMustFitAboveMaxWatermark() {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheMin", 500);
+    ReflectionTestUtils.setField(underTest, "cacheFetch", 1000);
+    ReflectionTestUtils.setField(underTest, "adaptiveRefill", true);
+    ReflectionTestUtils.setField(underTest, "maxWatermark", 4000);
+    ReflectionTestUtils.setField(underTest, "minFetchCount", 100);
+    ReflectionTestUtils.setField(underTest, "maxFetchCount", 2000);
+
+    // when, then
+    assertThatThrownBy(underTest::checkRefillSettings)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("uacqid-min-fetch-count is 100");
+
+    // given
+    ReflectionTestUtils.setField(underTest, "maxWatermark", 2000);
+
+    // when, then
+    underTest.checkRefillSettings();
+  }
+
+  @Test
+  public void testStopRefillsWaitsForFetchesInFlight() throws Exception {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheFetch", CACHE_FETCH);
+    ReflectionTestUtils.setField(underTest, "cacheMin", CACHE_MIN);
+    List<UacQid> uacQids = populateUacQidList(1, CACHE_FETCH);
+    CompletableFuture<Integer> fetch = new CompletableFuture<>();
+    List<UacQidSink> sinks = new CopyOnWriteArrayList<>();
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(CACHE_FETCH), any()))
+        .thenAnswer(
+            invocation -> {
+              sinks.add(invocation.getArgument(2));
+              return fetch;
+            });
+    underTest.warmUp(0);
+
+    // when
+    boolean stoppedBeforeFetchLanded = underTest.stopRefills(100);
+    for (UacQid uacQid : uacQids) {
+      sinks.get(0).accept(uacQid.getUac(), uacQid.getQid());
+    }
+    fetch.complete(uacQids.size());
+    boolean stoppedAfterFetchLanded = underTest.stopRefills(1000);
+
+    // then
+    assertThat(stoppedBeforeFetchLanded).isFalse();
+    assertThat(stoppedAfterFetchLanded).isTrue();
+    assertThat(underTest.drain().get(1)).containsExactlyElementsOf(uacQids);
+    underTest.warmUp(0);
+    verify(uacQidServiceClient, times(1)).streamUacQids(anyInt(), anyInt(), any());
+  }
+
+  @Test
+  public void testRefillsRunAgainOnceStarted() throws Exception {
+    // given
+    ReflectionTestUtils.setField(underTest, "cacheFetch", CACHE_FETCH);
+    ReflectionTestUtils.setField(underTest, "cacheMin", CACHE_MIN);
+    ReflectionTestUtils.setField(underTest, "uacQidGetTimout", 2);
+    List<UacQid> uacQids = populateUacQidList(1, CACHE_FETCH);
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(CACHE_FETCH), any()))
+        .thenAnswer(streaming(uacQids));
+    underTest.stopRefills(0);
+
+    // when
+    underTest.startRefills();
+    UacQid actualUacQid = underTest.getUacQidPair(1);
+
+    // then
+    assertThat(actualUacQid).isEqualTo(uacQids.get(0));
+  }
+
+  @Test
+  public void testFetchesInFlightKeepTheirRoom() throws Exception {
+    // given
+    underTest =
+        new UacQidCache(
+            uacQidServiceClient,
+            templateMapper,
+            meterRegistry,
+            UacQidPoolType.BLOCKING_QUEUE,
+            10,
+            48);
+    ReflectionTestUtils.setField(underTest, "maxInFlightFetches", 1);
+    ReflectionTestUtils.setField(underTest, "cacheFetch", 5);
+    ReflectionTestUtils.setField(underTest, "cacheMin", 5);
+    List<UacQid> fetched = populateUacQidList(1, 5);
+    CompletableFuture<Integer> fetch = new CompletableFuture<>();
+    List<UacQidSink> sinks = new CopyOnWriteArrayList<>();
+    when(uacQidServiceClient.streamUacQids(eq(1), eq(5), any()))
+        .thenAnswer(
+            invocation -> {
+              sinks.add(invocation.getArgument(2));
+              return fetch;
+            });
+    underTest.warmUp(0);
+
+    // when
+    Map<Integer, List<UacQid>> unpooled = underTest.preload(Map.of(1, populateUacQidList(1, 8)));
+    for (UacQid uacQid : fetched) {
+      sinks.get(0).accept(uacQid.getUac(), uacQid.getQid());
+    }
+    fetch.complete(fetched.size());
+
+    // then
+    assertThat(unpooled.get(1)).hasSize(3);
+    assertThat(underTest.getPoolSizes().get(1)).isEqualTo(10);
+    assertThat(underTest.drain().get(1)).containsAll(fetched);
+  }
+
+  @Test
+  public void testDrainedUacQidsCanBePreloaded() {
+    // given
+    List<UacQid> uacQids = populateUacQidList(1, 3);
+    underTest.preload(Map.of(1, uacQids));
+
+    // when
+    Map<Integer, List<UacQid>> drained = underTest.drain();
+
+    // then
+    assertThat(drained).containsOnlyKeys(1);
+    assertThat(drained.get(1)).containsExactlyElementsOf(uacQids);
+    assertThat(underTest.drain()).isEmpty();
+  }
+
+  private Answer<CompletableFuture<Integer>> streaming(List<UacQid> uacQids) {
+    return invocation -> {
+      UacQidSink sink = invocation.getArgument(2);
+      for (UacQid uacQid : uacQids) {
+        sink.accept(uacQid.getUac(), uacQid.getQid());
+      }
+      return CompletableFuture.completedFuture(uacQids.size());
+    };
+  }
+
+  private double gauge(String name) {
+    return meterRegistry.get(name).tag("questionnaireType", "1").gauge().value();
+  }
+
   private List<UacQid> populateUacQidList(int questionnaireType, int cacheSize) {
     EasyRandom easyRandom = new EasyRandom();
     List<UacQid> uacQids = new ArrayList<>();
@@ -0,0 +1,73 @@
+package uk.gov.ons.census.notifyprocessor.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+public class UacQidSpillFileTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testSpilledUacQidsAreReadBackOnlyOnce() throws Exception {
+    // given
+    Path path = temporaryFolder.getRoot().toPath().resolve("uacqids.spill");
+    UacQidSpillFile underTest = new UacQidSpillFile(path);
+    Map<Integer, List<UacQid>> spilled =
+        Map.of(
+            1, List.of(makeUacQid("uac1", "0120000000000001"), makeUacQid("uac2", "0120000000002")),
+            33, List.of(makeUacQid("uac3", "3320000000000003")));
+
+    // when
+    underTest.write(spilled);
+    Map<Integer, List<UacQid>> firstRead = underTest.read();
+    Map<Integer, List<UacQid>> secondRead = underTest.read();
+
+    // then
+    assertThat(firstRead).isEqualTo(spilled);
+    assertThat(secondRead).isEmpty();
+    assertThat(Files.exists(path)).isFalse();
+  }
+
+  @Test
+  public void testCorruptSpillFileIsDiscarded() throws Exception {
+    // given
+    Path path = temporaryFolder.getRoot().toPath().resolve("uacqids.spill");
+    UacQidSpillFile underTest = new UacQidSpillFile(path);
+    underTest.write(Map.of(1, List.of(makeUacQid("uac1", "0120000000000001"))));
+
+    byte[] bytes = Files.readAllBytes(path);
+    bytes[20] ^= 0x01;
+    Files.write(path, bytes);
+
+    // when
+    Map<Integer, List<UacQid>> read = underTest.read();
+
+    // then
+    assertThat(read).isEmpty();
+    assertThat(Files.exists(path)).isFalse();
+  }
+
+  @Test
+  public void testMissingSpillFileReadsAsEmpty() {
+    // given
+    UacQidSpillFile underTest =
+        new UacQidSpillFile(temporaryFolder.getRoot().toPath().resolve("missing.spill"));
+
+    // when, then
+    assertThat(underTest.read()).isEmpty();
+  }
+
+  private UacQid makeUacQid(String uac, String qid) {
+    UacQid uacQid = new UacQid();
+    uacQid.setUac(uac);
+    uacQid.setQid(qid);
+    return uacQid;
+  }
+}
@@ -0,0 +1,86 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class AsyncNotifyClientTest {
+  private static final String SMS_NOTIFY_API_URL = "/v2/notifications/sms";
+  private static final String SERVICE_ID = "11111111-2222-3333-4444-555555555555";
+  private static final String SECRET = "66666666-7777-8888-9999-000000000000";
+  private static final String API_KEY = "testkey-" + SERVICE_ID + "-" + SECRET;
+
+  @Rule public WireMockRule wireMock = new WireMockRule(wireMockConfig().dynamicPort());
+
+  @Test
+  public void testSendSms() throws Exception {
+    // Given
+    wireMock.stubFor(post(urlEqualTo(SMS_NOTIFY_API_URL)).willReturn(aResponse().withStatus(201)));
+    AsyncNotifyClient underTest = new AsyncNotifyClient(API_KEY, wireMock.baseUrl(), 5000, 5000);
+
+    // When
+    underTest.sendSms("template", "07700900001", Map.of("uac", "abc"), "ref", "sender").get();
+
+    // Then
+    wireMock.verify(
+        postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL))
+            .withHeader("Authorization", matching("Bearer .+\\..+\\..+"))
+            .withRequestBody(
+                equalToJson(
+                    "{\"phone_number\":\"07700900001\",\"template_id\":\"template\","
+                        + "\"personalisation\":{\"uac\":\"abc\"},\"reference\":\"ref\","
+                        + "\"sms_sender_id\":\"sender\"}")));
+  }
+
+  @Test
+  public void testTokenIsSignedWithSecret() throws Exception {
+    // Given
+    AsyncNotifyClient underTest = new AsyncNotifyClient(API_KEY, "http://localhost", 5000, 5000);
+
+    // When
+    String[] token = underTest.createToken(1600000000).split("\\.");
+
+    // Then
+    Base64.Decoder decoder = Base64.getUrlDecoder();
+    assertThat(new String(decoder.decode(token[1]), StandardCharsets.UTF_8))
+        .isEqualTo("{\"iss\":\"" + SERVICE_ID + "\",\"iat\":1600000000}");
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    byte[] signature = mac.doFinal((token[0] + "." + token[1]).getBytes(StandardCharsets.UTF_8));
+    assertThat(decoder.decode(token[2])).isEqualTo(signature);
+  }
+
+  @Test
+  public void testErrorStatusFailsWithStatus() {
+    // Given
+    wireMock.stubFor(post(urlEqualTo(SMS_NOTIFY_API_URL)).willReturn(aResponse().withStatus(429)));
+    AsyncNotifyClient underTest = new AsyncNotifyClient(API_KEY, wireMock.baseUrl(), 5000, 5000);
+
+    // When
+    Throwable thrown =
+        catchThrowable(
+            () -> underTest.sendSms("template", "07700900001", Map.of(), "ref", null).get());
+
+    // Then
+    assertThat(thrown).isInstanceOf(ExecutionException.class);
+    assertThat(thrown.getCause()).isInstanceOf(NotifyHttpException.class);
+    assertThat(((NotifyHttpException) thrown.getCause()).getHttpResult()).isEqualTo(429);
+  }
+}
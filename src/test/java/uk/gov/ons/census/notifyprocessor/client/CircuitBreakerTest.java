@@ -0,0 +1,82 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() {
+    CircuitBreaker underTest = new CircuitBreaker("test", 3, 60000, new SimpleMeterRegistry());
+
+    underTest.recordFailure();
+    underTest.recordFailure();
+    underTest.recordSuccess();
+    underTest.recordFailure();
+    underTest.recordFailure();
+    assertThat(underTest.getState()).isEqualTo(State.CLOSED);
+
+    underTest.recordFailure();
+    assertThat(underTest.getState()).isEqualTo(State.OPEN);
+    assertThat(underTest.tryAcquirePermission()).isFalse();
+  }
+
+  @Test
+  public void testOnlyOneTrialIsLetThroughWhenHalfOpen() throws Exception {
+    CircuitBreaker underTest = new CircuitBreaker("test", 1, 50, new SimpleMeterRegistry());
+    underTest.recordFailure();
+
+    Thread.sleep(100);
+
+    assertThat(underTest.tryAcquirePermission()).isTrue();
+    assertThat(underTest.getState()).isEqualTo(State.HALF_OPEN);
+    assertThat(underTest.tryAcquirePermission()).isFalse();
+  }
+
+  @Test
+  public void testTrialDecidesWhetherToClose() throws Exception {
+    CircuitBreaker underTest = new CircuitBreaker("test", 1, 50, new SimpleMeterRegistry());
+    underTest.recordFailure();
+
+    // Failed trial opens it again
+    Thread.sleep(100);
+    assertThat(underTest.tryAcquirePermission()).isTrue();
+    underTest.recordFailure();
+    assertThat(underTest.getState()).isEqualTo(State.OPEN);
+
+    // Late success from before it opened doesn't close it
+    underTest.recordSuccess();
+    assertThat(underTest.getState()).isEqualTo(State.OPEN);
+
+    // Successful trial closes it
+    Thread.sleep(100);
+    assertThat(underTest.tryAcquirePermission()).isTrue();
+    underTest.recordSuccess();
+    assertThat(underTest.getState()).isEqualTo(State.CLOSED);
+    assertThat(underTest.tryAcquirePermission()).isTrue();
+  }
+
+  @Test
+  public void testUnrecordedTrialOpensAgain() throws Exception {
+    CircuitBreaker underTest = new CircuitBreaker("test", 1, 50, new SimpleMeterRegistry());
+    underTest.recordFailure();
+
+    // Trial let through but its outcome is never recorded
+    Thread.sleep(100);
+    assertThat(underTest.tryAcquirePermission()).isTrue();
+    assertThat(underTest.getState()).isEqualTo(State.HALF_OPEN);
+
+    Thread.sleep(100);
+    assertThat(underTest.getState()).isEqualTo(State.OPEN);
+    assertThat(underTest.tryAcquirePermission()).isFalse();
+
+    // And is due another trial after the open duration
+    Thread.sleep(100);
+    assertThat(underTest.tryAcquirePermission()).isTrue();
+    underTest.recordSuccess();
+    assertThat(underTest.getState()).isEqualTo(State.CLOSED);
+  }
+}
@@ -0,0 +1,172 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import uk.gov.ons.census.notifyprocessor.model.ExceptionReportResponse;
+
+public class ExceptionManagerClientTest {
+  private static final String REPORT_EXCEPTION_URL = "/reportexception";
+  private static final String DECISION = "{\"logIt\":true,\"peek\":true,\"skipIt\":true}";
+
+  @Rule public WireMockRule wireMock = new WireMockRule(wireMockConfig().dynamicPort());
+
+  private ExecutorService executor;
+  private ExceptionManagerClient underTest;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(10);
+    underTest =
+        new ExceptionManagerClient(
+            "http",
+            "localhost",
+            String.valueOf(wireMock.port()),
+            5000,
+            10,
+            2000,
+            60000,
+            100,
+            executor);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testRepeatFailureReusesDecision() {
+    // given
+    stubReportException(0);
+
+    // when
+    ExceptionReportResponse first = report("hash");
+    ExceptionReportResponse second = report("hash");
+
+    // then
+    wireMock.verify(1, postRequestedFor(urlPathEqualTo(REPORT_EXCEPTION_URL)));
+    assertThat(first.isLogIt()).isTrue();
+    assertThat(first.isPeek()).isTrue();
+    assertThat(second.isSkipIt()).isTrue();
+    assertThat(second.isLogIt()).isFalse();
+    assertThat(second.isPeek()).isFalse();
+  }
+
+  @Test
+  public void testConcurrentReportsOfSameMessageAreCoalesced() throws Exception {
+    // given
+    stubReportException(500);
+
+    // when
+    List<Future<ExceptionReportResponse>> reports = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      reports.add(executor.submit(() -> report("hash")));
+    }
+    int logged = 0;
+    for (Future<ExceptionReportResponse> report : reports) {
+      logged += report.get().isLogIt() ? 1 : 0;
+    }
+
+    // then
+    wireMock.verify(1, postRequestedFor(urlPathEqualTo(REPORT_EXCEPTION_URL)));
+    assertThat(logged).isEqualTo(1);
+  }
+
+  @Test
+  public void testSlowReportTimesOutButDecisionIsKept() throws Exception {
+    // given
+    stubReportException(3000);
+
+    // when
+    assertThatThrownBy(() -> report("hash")).hasMessageContaining("Timed out");
+    Thread.sleep(2000);
+
+    // then
+    assertThat(report("hash").isSkipIt()).isTrue();
+    wireMock.verify(1, postRequestedFor(urlPathEqualTo(REPORT_EXCEPTION_URL)));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedDecisionIsForgottenWhenFull() {
+    // given
+    stubReportException(0);
+    underTest =
+        new ExceptionManagerClient(
+            "http",
+            "localhost",
+            String.valueOf(wireMock.port()),
+            5000,
+            10,
+            2000,
+            60000,
+            2,
+            executor);
+    report("still failing");
+    report("other");
+
+    // when
+    report("still failing");
+    report("new");
+    report("still failing");
+
+    // then
+    wireMock.verify(3, postRequestedFor(urlPathEqualTo(REPORT_EXCEPTION_URL)));
+    report("other");
+    wireMock.verify(4, postRequestedFor(urlPathEqualTo(REPORT_EXCEPTION_URL)));
+  }
+
+  @Test
+  public void testSkippedMessageHashesAreFilteredByService() {
+    // given
+    wireMock.stubFor(
+        get(urlPathEqualTo("/skippedmessages"))
+            .willReturn(
+                aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(
+                        "{\"ours\":[{\"service\":\"test service\"}],"
+                            + "\"theirs\":[{\"service\":\"other service\"}]}")));
+
+    // when
+    Set<String> actual = underTest.getSkippedMessageHashes("test service");
+
+    // then
+    assertThat(actual).containsExactly("ours");
+  }
+
+  private void stubReportException(int delayMillis) {
+    wireMock.stubFor(
+        post(urlPathEqualTo(REPORT_EXCEPTION_URL))
+            .willReturn(
+                aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(DECISION)
+                    .withFixedDelay(delayMillis)));
+  }
+
+  private ExceptionReportResponse report(String messageHash) {
+    return underTest.reportException(
+        messageHash, "test service", "test queue", new RuntimeException("Bad"), "root cause");
+  }
+}
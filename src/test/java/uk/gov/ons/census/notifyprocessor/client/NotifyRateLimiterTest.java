@@ -0,0 +1,129 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import uk.gov.ons.census.notifyprocessor.client.NotifyRateLimiter.Outcome;
+
+public class NotifyRateLimiterTest {
+
+  @Test
+  public void testCallsAreSpacedToTheRate() throws Exception {
+    // Given
+    NotifyRateLimiter underTest =
+        new NotifyRateLimiter(new SimpleMeterRegistry(), 50, 1, 10, 10, 1000);
+
+    // When
+    long startTime = System.nanoTime();
+    for (int i = 0; i < 26; i++) {
+      underTest.acquire();
+      underTest.release(Outcome.SUCCESS);
+    }
+    long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+    // Then - 25 gaps of 20ms
+    assertThat(elapsedMillis).isGreaterThanOrEqualTo(450);
+  }
+
+  @Test
+  public void testConcurrencyIncreasesOnSuccessAndHalvesWhenThrottled() throws Exception {
+    // Given
+    NotifyRateLimiter underTest =
+        new NotifyRateLimiter(new SimpleMeterRegistry(), 10000, 2, 8, 9, 1000);
+
+    // When
+    for (int i = 0; i < 8; i++) {
+      underTest.acquire();
+      underTest.release(Outcome.SUCCESS);
+    }
+
+    // Then
+    assertThat(underTest.getConcurrencyLimit()).isCloseTo(9, within(0.1));
+
+    // When - several throttles from the same overload only halve it once
+    underTest.acquire();
+    underTest.acquire();
+    underTest.release(Outcome.THROTTLED);
+    underTest.release(Outcome.THROTTLED);
+
+    // Then
+    assertThat(underTest.getConcurrencyLimit()).isCloseTo(4.5, within(0.1));
+    assertThat(underTest.getInFlight()).isZero();
+  }
+
+  @Test
+  public void testConcurrencyNeverDropsBelowMinimum() throws Exception {
+    // Given
+    NotifyRateLimiter underTest =
+        new NotifyRateLimiter(new SimpleMeterRegistry(), 10000, 2, 3, 10, 1000);
+
+    // When
+    underTest.acquire();
+    underTest.release(Outcome.THROTTLED);
+
+    // Then
+    assertThat(underTest.getConcurrencyLimit()).isEqualTo(2.0);
+  }
+
+  @Test
+  public void testAcquireTimesOutAtConcurrencyLimit() throws Exception {
+    // Given
+    NotifyRateLimiter underTest =
+        new NotifyRateLimiter(new SimpleMeterRegistry(), 10000, 1, 1, 1, 100);
+    underTest.acquire();
+
+    // When, then
+    assertThatThrownBy(underTest::acquire).hasMessageContaining("Timed out");
+    assertThat(underTest.getInFlight()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAsyncAcquireWaitsForReleaseAtConcurrencyLimit() throws Exception {
+    // Given
+    NotifyRateLimiter underTest =
+        new NotifyRateLimiter(new SimpleMeterRegistry(), 10000, 1, 1, 1, 1000);
+    underTest.acquireAsync().get(1, TimeUnit.SECONDS);
+
+    // When
+    CompletableFuture<Void> permit = underTest.acquireAsync();
+
+    // Then
+    assertThat(permit).isNotDone();
+
+    // When
+    underTest.release(Outcome.SUCCESS);
+
+    // Then
+    permit.get(1, TimeUnit.SECONDS);
+    assertThat(underTest.getInFlight()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAsyncAcquireTimesOutAtConcurrencyLimit() throws Exception {
+    // Given
+    NotifyRateLimiter underTest =
+        new NotifyRateLimiter(new SimpleMeterRegistry(), 10000, 1, 1, 1, 100);
+    underTest.acquire();
+
+    // When
+    CompletableFuture<Void> permit = underTest.acquireAsync();
+
+    // Then
+    assertThatThrownBy(() -> permit.get(1, TimeUnit.SECONDS)).hasMessageContaining("Timed out");
+    underTest.release(Outcome.SUCCESS);
+    assertThat(underTest.getInFlight()).isZero();
+  }
+
+  @Test
+  public void testOutcomeOfStatus() {
+    assertThat(Outcome.of(201)).isEqualTo(Outcome.SUCCESS);
+    assertThat(Outcome.of(429)).isEqualTo(Outcome.THROTTLED);
+    assertThat(Outcome.of(503)).isEqualTo(Outcome.THROTTLED);
+    assertThat(Outcome.of(400)).isEqualTo(Outcome.FAILED);
+  }
+}
@@ -0,0 +1,164 @@
+package uk.gov.ons.census.notifyprocessor.client;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker.State;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+
+public class UacQidServiceClientTest {
+  private static final String MULTIPLE_QIDS_URL = "/multiple_qids";
+  private static final int RESPONSE_DELAY_MILLIS = 500;
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Rule public WireMockRule wireMock = new WireMockRule(wireMockConfig().dynamicPort());
+
+  private ExecutorService executor;
+  private CircuitBreaker circuitBreaker;
+  private UacQidServiceClient underTest;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+    circuitBreaker = new CircuitBreaker("uacQidService", 2, 60000, new SimpleMeterRegistry());
+    underTest =
+        new UacQidServiceClient(
+            "http",
+            "localhost",
+            String.valueOf(wireMock.port()),
+            1000,
+            5000,
+            executor,
+            circuitBreaker,
+            new SimpleMeterRegistry());
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testLargeResponseIsParsed() throws Exception {
+    // given
+    List<UacQid> uacQids = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      UacQid uacQid = new UacQid();
+      uacQid.setUac("uac" + i);
+      uacQid.setQid("qid" + i);
+      uacQids.add(uacQid);
+    }
+    wireMock.stubFor(
+        get(urlPathEqualTo(MULTIPLE_QIDS_URL))
+            .willReturn(
+                aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(objectMapper.writeValueAsString(uacQids))
+                    .withChunkedDribbleDelay(20, 100)));
+
+    // when
+    List<UacQid> actual = underTest.getUacQids(1, 1000).get();
+
+    // then
+    assertThat(actual).containsExactlyElementsOf(uacQids);
+  }
+
+  @Test
+  public void testUnknownFieldsAreIgnored() throws Exception {
+    // given
+    wireMock.stubFor(
+        get(urlPathEqualTo(MULTIPLE_QIDS_URL))
+            .willReturn(
+                aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withBody(
+                        "[{\"uac\":\"a\",\"extra\":{\"uac\":\"nested\",\"list\":[1]},\"qid\":\"b\"}]")));
+
+    // when
+    List<UacQid> actual = underTest.getUacQids(1, 1).get();
+
+    // then
+    assertThat(actual).hasSize(1);
+    assertThat(actual.get(0).getUac()).isEqualTo("a");
+    assertThat(actual.get(0).getQid()).isEqualTo("b");
+  }
+
+  @Test
+  public void testErrorStatusFailsFuture() {
+    // given
+    wireMock.stubFor(
+        get(urlPathEqualTo(MULTIPLE_QIDS_URL))
+            .willReturn(aResponse().withStatus(HttpStatus.INTERNAL_SERVER_ERROR.value())));
+
+    // when, then
+    assertThatThrownBy(() -> underTest.getUacQids(1, 1).get())
+        .isInstanceOf(ExecutionException.class)
+        .hasMessageContaining("500");
+  }
+
+  @Test
+  public void testConcurrentRequestsDoNotTieUpThreads() throws Exception {
+    // given
+    wireMock.stubFor(
+        get(urlPathEqualTo(MULTIPLE_QIDS_URL))
+            .willReturn(
+                aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withBody("[{\"uac\":\"a\",\"qid\":\"b\"}]")
+                    .withFixedDelay(RESPONSE_DELAY_MILLIS)));
+
+    // when
+    long startTime = System.currentTimeMillis();
+    List<CompletableFuture<List<UacQid>>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      futures.add(underTest.getUacQids(1, 1));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    // then
+    // Eight slow requests on a two thread executor, so they can only finish this quickly if none
+    // of them holds a thread while it waits
+    assertThat(elapsed).isLessThan(RESPONSE_DELAY_MILLIS * 4);
+  }
+
+  @Test
+  public void testOpenCircuitBreakerStopsRequests() throws Exception {
+    // given
+    wireMock.stubFor(
+        get(urlPathEqualTo(MULTIPLE_QIDS_URL))
+            .willReturn(aResponse().withStatus(HttpStatus.SERVICE_UNAVAILABLE.value())));
+
+    // when
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> underTest.getUacQids(1, 10).get())
+          .hasCauseInstanceOf(RuntimeException.class);
+    }
+
+    // then
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    assertThatThrownBy(() -> underTest.getUacQids(1, 10).get())
+        .hasCauseInstanceOf(CircuitBreakerOpenException.class);
+    wireMock.verify(2, getRequestedFor(urlPathEqualTo(MULTIPLE_QIDS_URL)));
+  }
+}
@@ -0,0 +1,40 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.notifyprocessor.client.ExceptionManagerClient;
+import uk.gov.ons.census.notifyprocessor.messaging.PublisherConfirmTracker;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+import uk.gov.ons.census.notifyprocessor.service.FulfilmentRequestService;
+
+public class MessageConsumerConfigTest {
+
+  @Test
+  public void testEnrichedFulfilmentAckBatchOverOneFailsStartup() {
+    // Given
+    MessageConsumerConfig underTest =
+        new MessageConsumerConfig(
+            mock(ExceptionManagerClient.class),
+            mock(ConnectionFactory.class),
+            mock(FulfilmentRequestService.class),
+            mock(EnrichedFulfilmentRequestService.class),
+            new PublisherConfirmTracker(),
+            mock(Executor.class),
+            mock(RabbitTemplate.class),
+            new AppConfig().objectMapper(),
+            new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(underTest, "enrichedFulfilmentAckBatchSize", 10);
+
+    // When, then
+    assertThatThrownBy(underTest::enrichedFulfilmentContainer)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("enriched-fulfilment-ack-batch-size");
+  }
+}
@@ -0,0 +1,50 @@
+package uk.gov.ons.census.notifyprocessor.config;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Map;
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.env.SystemEnvironmentPropertySource;
+
+public class NotifyTemplatePropertiesTest {
+
+  @Test
+  public void testLegacyTemplateIdFromEnvironmentFailsStartup() {
+    // Given
+    StandardEnvironment environment = new StandardEnvironment();
+    environment
+        .getPropertySources()
+        .replace(
+            StandardEnvironment.SYSTEM_ENVIRONMENT_PROPERTY_SOURCE_NAME,
+            new SystemEnvironmentPropertySource(
+                StandardEnvironment.SYSTEM_ENVIRONMENT_PROPERTY_SOURCE_NAME,
+                Map.of("NOTIFY_UACHHT1", "old-template-id")));
+
+    // When, then
+    assertThatThrownBy(() -> NotifyTemplateProperties.rejectLegacyTemplateIds(environment))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("notify.uachht1");
+  }
+
+  @Test
+  public void testTemplatesAndOtherNotifySettingsAreAccepted() {
+    // Given
+    StandardEnvironment environment = new StandardEnvironment();
+    environment
+        .getPropertySources()
+        .addFirst(
+            new MapPropertySource(
+                "test-properties",
+                Map.of(
+                    "notify.templates.UACHHT1.template-id", "new-template-id",
+                    "notify.apiKey", "key",
+                    "notify.senderId", "sender")));
+
+    // When, then
+    assertThatCode(() -> NotifyTemplateProperties.rejectLegacyTemplateIds(environment))
+        .doesNotThrowAnyException();
+  }
+}
@@ -0,0 +1,98 @@
+package uk.gov.ons.census.notifyprocessor.healthcheck;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidCache;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidCacheLifecycle;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+
+public class HeathCheckTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private PipelineProgress fulfilmentProgress;
+  private SimpleMessageListenerContainer container;
+  private CircuitBreaker circuitBreaker;
+  private Path livenessFile;
+  private Path readinessFile;
+  private HeathCheck underTest;
+
+  @Before
+  public void setUp() {
+    UacQidCacheLifecycle uacQidCacheLifecycle = mock(UacQidCacheLifecycle.class);
+    when(uacQidCacheLifecycle.isComplete()).thenReturn(true);
+    fulfilmentProgress = new PipelineProgress("fulfilment", new SimpleMeterRegistry());
+    container = mock(SimpleMessageListenerContainer.class);
+    when(container.getActiveConsumerCount()).thenReturn(1);
+    when(container.getQueueNames()).thenReturn(new String[] {"test.queue"});
+    circuitBreaker = mock(CircuitBreaker.class);
+    when(circuitBreaker.getState()).thenReturn(CircuitBreaker.State.CLOSED);
+
+    underTest =
+        new HeathCheck(
+            uacQidCacheLifecycle,
+            mock(UacQidCache.class),
+            fulfilmentProgress,
+            new PipelineProgress("enriched_fulfilment", new SimpleMeterRegistry()),
+            container,
+            container,
+            circuitBreaker,
+            circuitBreaker);
+
+    livenessFile = temporaryFolder.getRoot().toPath().resolve("healthy");
+    readinessFile = temporaryFolder.getRoot().toPath().resolve("ready");
+    ReflectionTestUtils.setField(underTest, "fileName", livenessFile.toString());
+    ReflectionTestUtils.setField(underTest, "readinessFileName", readinessFile.toString());
+    ReflectionTestUtils.setField(underTest, "stallThreshold", 0L);
+  }
+
+  @Test
+  public void testHealthyPipelineWritesBothFiles() {
+    // When
+    underTest.updateFileWithCurrentTimestamp();
+
+    // Then
+    assertThat(livenessFile).exists();
+    assertThat(readinessFile).exists();
+    assertThat(temporaryFolder.getRoot().list()).containsExactlyInAnyOrder("healthy", "ready");
+  }
+
+  @Test
+  public void testStalledPipelineIsNeitherLiveNorReady() throws Exception {
+    // Given
+    fulfilmentProgress.started();
+    Thread.sleep(5);
+
+    // When
+    underTest.updateFileWithCurrentTimestamp();
+
+    // Then
+    assertThat(livenessFile).doesNotExist();
+    assertThat(readinessFile).doesNotExist();
+  }
+
+  @Test
+  public void testOpenCircuitBreakerRemovesReadiness() throws Exception {
+    // Given
+    underTest.updateFileWithCurrentTimestamp();
+    when(circuitBreaker.getState()).thenReturn(CircuitBreaker.State.OPEN);
+
+    // When
+    underTest.updateFileWithCurrentTimestamp();
+
+    // Then
+    assertThat(livenessFile).exists();
+    assertThat(readinessFile).doesNotExist();
+    assertThat(Files.readString(livenessFile)).isNotEmpty();
+  }
+}
@@ -0,0 +1,82 @@
+package uk.gov.ons.census.notifyprocessor.healthcheck;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import uk.gov.ons.census.notifyprocessor.messaging.PipelineProgressAdvice;
+
+public class PipelineProgressTest {
+
+  @Test
+  public void testIdlePipelineIsNeverStalled() throws Exception {
+    // Given
+    PipelineProgress underTest = new PipelineProgress("test", new SimpleMeterRegistry());
+
+    // When
+    Thread.sleep(5);
+
+    // Then
+    assertThat(underTest.isStalled(0)).isFalse();
+  }
+
+  @Test
+  public void testPipelineWithNothingFinishedIsStalled() throws Exception {
+    // Given
+    PipelineProgress underTest = new PipelineProgress("test", new SimpleMeterRegistry());
+
+    // When
+    underTest.started();
+    Thread.sleep(5);
+
+    // Then
+    assertThat(underTest.getInFlight()).isEqualTo(1);
+    assertThat(underTest.isStalled(0)).isTrue();
+    assertThat(underTest.isStalled(60000)).isFalse();
+  }
+
+  @Test
+  public void testAdviceTracksFailedInvocations() throws Throwable {
+    // Given
+    PipelineProgress pipelineProgress = new PipelineProgress("test", new SimpleMeterRegistry());
+    PipelineProgressAdvice underTest = new PipelineProgressAdvice(pipelineProgress);
+    MethodInvocation invocation = mock(MethodInvocation.class);
+    when(invocation.proceed()).thenThrow(new RuntimeException("Failed"));
+
+    // When
+    assertThatThrownBy(() -> underTest.invoke(invocation)).isInstanceOf(RuntimeException.class);
+
+    // Then
+    assertThat(pipelineProgress.getInFlight()).isZero();
+    assertThat(pipelineProgress.isStalled(0)).isFalse();
+  }
+
+  @Test
+  public void testWaitsAreNotCountedAsBusy() throws Throwable {
+    // Given
+    PipelineProgress underTest = new PipelineProgress("test", new SimpleMeterRegistry());
+    PipelineProgressAdvice advice = new PipelineProgressAdvice(underTest);
+    MethodInvocation invocation = mock(MethodInvocation.class);
+    when(invocation.proceed())
+        .thenAnswer(
+            answer -> {
+              // Blocked on a rate limiter the whole time
+              long startTime = System.nanoTime();
+              Thread.sleep(200);
+              PipelineProgress.recordWait(System.nanoTime() - startTime);
+              return null;
+            });
+
+    // When
+    advice.invoke(invocation);
+
+    // Then
+    assertThat(underTest.getTotals().getMessages()).isEqualTo(1);
+    assertThat(underTest.getTotals().getBusyNanos()).isLessThan(TimeUnit.MILLISECONDS.toNanos(100));
+  }
+}
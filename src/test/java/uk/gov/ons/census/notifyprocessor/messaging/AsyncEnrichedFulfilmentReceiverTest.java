@@ -0,0 +1,248 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import uk.gov.ons.census.notifyprocessor.client.AsyncNotifyClient;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.client.NotifyRateLimiter;
+import uk.gov.ons.census.notifyprocessor.config.AppConfig;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
+import uk.gov.ons.census.notifyprocessor.model.EnrichedFulfilmentRequest;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+
+public class AsyncEnrichedFulfilmentReceiverTest {
+  private static final String SMS_NOTIFY_API_URL = "/v2/notifications/sms";
+  private static final String API_KEY =
+      "dummykey-ffffffff-ffff-ffff-ffff-ffffffffffff-ffffffff-ffff-ffff-ffff-ffffffffffff";
+  private static final String BAD_MOBILE_NUMBER = "07700900999";
+  private static final String UNAVAILABLE_MOBILE_NUMBER = "07700900888";
+  private static final ObjectMapper objectMapper = new AppConfig().objectMapper();
+
+  @Rule public WireMockRule wireMock = new WireMockRule(wireMockConfig().dynamicPort());
+
+  private ExecutorService executor;
+  private EnrichedFulfilmentRequestService enrichedFulfilmentRequestService;
+  private MessageRecoverer messageRecoverer;
+  private PipelineProgress pipelineProgress;
+  private Channel channel;
+  private AsyncEnrichedFulfilmentReceiver underTest;
+
+  @Before
+  public void setUp() {
+    wireMock.stubFor(
+        post(urlEqualTo(SMS_NOTIFY_API_URL))
+            .willReturn(
+                aResponse()
+                    .withStatus(201)
+                    .withFixedDelay(500)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"id\":\"740e5834-3a29-46b4-9a6f-16142fde533a\"}")));
+    wireMock.stubFor(
+        post(urlEqualTo(SMS_NOTIFY_API_URL))
+            .withRequestBody(containing(BAD_MOBILE_NUMBER))
+            .willReturn(aResponse().withStatus(400).withBody("{\"errors\":[]}")));
+    wireMock.stubFor(
+        post(urlEqualTo(SMS_NOTIFY_API_URL))
+            .withRequestBody(containing(UNAVAILABLE_MOBILE_NUMBER))
+            .willReturn(aResponse().withStatus(503)));
+
+    enrichedFulfilmentRequestService =
+        new EnrichedFulfilmentRequestService(
+            null,
+            new AsyncNotifyClient(API_KEY, wireMock.baseUrl(), 5000, 5000),
+            new NotifyRateLimiter(new SimpleMeterRegistry(), 1000, 1, 50, 50, 30000),
+            new CircuitBreaker("notify", 10, 30000, new SimpleMeterRegistry()),
+            "testSenderId",
+            new SimpleMeterRegistry());
+    executor = Executors.newFixedThreadPool(2);
+    messageRecoverer = mock(MessageRecoverer.class);
+    pipelineProgress = new PipelineProgress("enriched_fulfilment", new SimpleMeterRegistry());
+    channel = mock(Channel.class);
+
+    underTest =
+        new AsyncEnrichedFulfilmentReceiver(
+            enrichedFulfilmentRequestService,
+            new ExponentialJitterBackOffPolicy(10, 10, 2.0, 100),
+            3,
+            messageRecoverer,
+            pipelineProgress,
+            executor,
+            objectMapper);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testSendsAreNotWaitedFor() throws Exception {
+    // When
+    long startTime = System.currentTimeMillis();
+    for (int i = 1; i <= 20; i++) {
+      underTest.onMessage(makeMessage("077009000" + (10 + i), i), channel);
+    }
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    // Then
+    for (int i = 1; i <= 20; i++) {
+      verify(channel, timeout(5000)).basicAck(eq((long) i), eq(false));
+    }
+    wireMock.verify(20, postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL)));
+
+    // Waiting for each send would take at least 10 seconds
+    assertThat(elapsed).isLessThan(2500);
+  }
+
+  @Test
+  public void testBadRequestIsRecoveredWithoutRetrying() throws Exception {
+    // Given
+    Message badMessage = makeMessage(BAD_MOBILE_NUMBER, 1);
+    doThrow(new AmqpRejectAndDontRequeueException("DLQ"))
+        .when(messageRecoverer)
+        .recover(eq(badMessage), any());
+
+    // When
+    underTest.onMessage(badMessage, channel);
+
+    // Then
+    verify(channel, timeout(5000)).basicReject(eq(1L), eq(false));
+    wireMock.verify(
+        1,
+        postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL))
+            .withRequestBody(containing(BAD_MOBILE_NUMBER)));
+    verify(channel, never()).basicAck(eq(1L), anyBoolean());
+  }
+
+  @Test
+  public void testUnavailableNotifyIsRetriedThenRecovered() throws Exception {
+    // Given
+    Message message = makeMessage(UNAVAILABLE_MOBILE_NUMBER, 1);
+
+    // When
+    underTest.onMessage(message, channel);
+
+    // Then the recoverer dealt with it, so it's acked
+    verify(channel, timeout(5000)).basicAck(eq(1L), eq(false));
+    verify(messageRecoverer).recover(eq(message), any());
+    wireMock.verify(
+        3,
+        postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL))
+            .withRequestBody(containing(UNAVAILABLE_MOBILE_NUMBER)));
+  }
+
+  @Test
+  public void testStopWaitsForSendsInFlight() throws Exception {
+    // Given
+    underTest.onMessage(makeMessage("07700900001", 1), channel);
+
+    // When
+    boolean settled = underTest.stop(5000);
+
+    // Then the send finished and was acked before the channel could be closed
+    assertThat(settled).isTrue();
+    verify(channel).basicAck(eq(1L), eq(false));
+  }
+
+  @Test
+  public void testProgressIsRecordedWhenTheSendFinishes() throws Exception {
+    // When
+    underTest.onMessage(makeMessage("07700900001", 1), channel);
+
+    // Then the message is still in flight once the consumer has handed it over
+    assertThat(pipelineProgress.getInFlight()).isEqualTo(1);
+    verify(channel, timeout(5000)).basicAck(eq(1L), eq(false));
+    assertThat(pipelineProgress.getInFlight()).isZero();
+    assertThat(pipelineProgress.getTotals().getMessages()).isEqualTo(1);
+    assertThat(pipelineProgress.getTotals().getBusyNanos())
+        .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+  }
+
+  @Test
+  public void testStopRequeuesPendingRetriesAndNewMessages() throws Exception {
+    // Given
+    AsyncEnrichedFulfilmentReceiver slowRetries =
+        new AsyncEnrichedFulfilmentReceiver(
+            enrichedFulfilmentRequestService,
+            new ExponentialJitterBackOffPolicy(60000, 60000, 2.0, 60000),
+            3,
+            messageRecoverer,
+            pipelineProgress,
+            executor,
+            objectMapper);
+    slowRetries.onMessage(makeMessage(UNAVAILABLE_MOBILE_NUMBER, 1), channel);
+
+    // The first attempt fails straight away, and its retry is a good while off
+    Thread.sleep(1000);
+
+    // When
+    boolean settled = slowRetries.stop(5000);
+    slowRetries.onMessage(makeMessage("07700900001", 2), channel);
+
+    // Then neither is sent again, both go back to the queue
+    assertThat(settled).isTrue();
+    verify(channel).basicReject(eq(1L), eq(true));
+    verify(channel).basicReject(eq(2L), eq(true));
+    wireMock.verify(1, postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL)));
+    verify(messageRecoverer, never()).recover(any(), any());
+  }
+
+  @Test
+  public void testClosedChannelIsLeftToRedeliver() throws Exception {
+    // Given
+    doThrow(new AlreadyClosedException(new ShutdownSignalException(false, true, null, channel)))
+        .when(channel)
+        .basicAck(eq(1L), eq(false));
+
+    // When
+    underTest.onMessage(makeMessage("07700900001", 1), channel);
+
+    // Then the failed ack doesn't leave the message counted as in flight
+    assertThat(underTest.stop(5000)).isTrue();
+    verify(channel, times(1)).basicAck(eq(1L), eq(false));
+  }
+
+  private Message makeMessage(String mobileNumber, long deliveryTag) throws Exception {
+    EnrichedFulfilmentRequest enrichedFulfilmentRequest = new EnrichedFulfilmentRequest();
+    enrichedFulfilmentRequest.setMobileNumber(mobileNumber);
+    enrichedFulfilmentRequest.setTemplateId("f33517ff-2a88-4f6e-b855-c550268ce08a");
+    enrichedFulfilmentRequest.setUac("abcd2efgh3jklm4n");
+
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setDeliveryTag(deliveryTag);
+    return new Message(
+        objectMapper.writeValueAsBytes(enrichedFulfilmentRequest), messageProperties);
+  }
+}
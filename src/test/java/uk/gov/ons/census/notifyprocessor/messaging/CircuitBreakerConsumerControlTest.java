@@ -0,0 +1,70 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidCache;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.client.UacQidServiceClient;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper;
+
+public class CircuitBreakerConsumerControlTest {
+  private CircuitBreaker notifyCircuitBreaker;
+  private MessageListenerContainer fulfilmentContainer;
+  private MessageListenerContainer enrichedFulfilmentContainer;
+  private EnrichedFulfilmentRequestService enrichedFulfilmentRequestService;
+  private CircuitBreakerConsumerControl underTest;
+
+  @Before
+  public void setUp() {
+    notifyCircuitBreaker = new CircuitBreaker("notify", 1, 0, new SimpleMeterRegistry());
+    fulfilmentContainer = mock(MessageListenerContainer.class);
+    enrichedFulfilmentContainer = mock(MessageListenerContainer.class);
+    when(enrichedFulfilmentContainer.isRunning()).thenReturn(true);
+    enrichedFulfilmentRequestService = mock(EnrichedFulfilmentRequestService.class);
+
+    underTest =
+        new CircuitBreakerConsumerControl(
+            new CircuitBreaker("uacQidService", 1, 60000, new SimpleMeterRegistry()),
+            notifyCircuitBreaker,
+            fulfilmentContainer,
+            enrichedFulfilmentContainer,
+            mock(UacQidServiceClient.class),
+            mock(UacQidCache.class),
+            mock(TemplateMapper.class),
+            enrichedFulfilmentRequestService);
+  }
+
+  @Test
+  public void testConsumptionPausedWhileOpenAndResumedWhenClosed() {
+    // Given
+    notifyCircuitBreaker.recordFailure();
+    doThrow(new RuntimeException("Notify still down"))
+        .when(enrichedFulfilmentRequestService)
+        .probeNotify();
+
+    // When
+    underTest.checkCircuitBreakers();
+
+    // Then
+    verify(enrichedFulfilmentContainer).stop();
+    verify(enrichedFulfilmentContainer, never()).start();
+    verify(fulfilmentContainer, never()).stop();
+
+    // When - the probe gets through
+    notifyCircuitBreaker.tryAcquirePermission();
+    notifyCircuitBreaker.recordSuccess();
+    underTest.checkCircuitBreakers();
+
+    // Then
+    verify(enrichedFulfilmentContainer).start();
+  }
+}
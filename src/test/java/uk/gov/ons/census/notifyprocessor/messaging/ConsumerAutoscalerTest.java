@@ -0,0 +1,213 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.config.AutoscalingProperties;
+import uk.gov.ons.census.notifyprocessor.config.AutoscalingProperties.Limits;
+import uk.gov.ons.census.notifyprocessor.config.DispatchMode;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress;
+import uk.gov.ons.census.notifyprocessor.healthcheck.PipelineProgress.Totals;
+
+public class ConsumerAutoscalerTest {
+  private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  @Test
+  public void testScalesUpToDrainBacklog() {
+    // Given 10 consumers, each busy the whole interval at 10 messages a second
+    Totals interval = new Totals(1000, 0, 1000, 10 * INTERVAL_NANOS);
+
+    // When 6000 messages are waiting, needing 20 consumers to clear them in 30 seconds
+    int desired =
+        ConsumerAutoscaler.desiredConsumers(
+            10, 6000, interval, INTERVAL_NANOS, CircuitBreaker.State.CLOSED, makeLimits());
+
+    // Then
+    assertThat(desired).isEqualTo(20);
+  }
+
+  @Test
+  public void testScalingUpIsLimitedToDoubling() {
+    // Given
+    Totals interval = new Totals(1000, 0, 1000, 10 * INTERVAL_NANOS);
+
+    // When
+    int desired =
+        ConsumerAutoscaler.desiredConsumers(
+            10, 1_000_000, interval, INTERVAL_NANOS, CircuitBreaker.State.CLOSED, makeLimits());
+
+    // Then
+    assertThat(desired).isEqualTo(20);
+  }
+
+  @Test
+  public void testScalesDownGraduallyWhenIdle() {
+    // Given
+    Totals interval = new Totals(0, 0, 0, 0);
+
+    // When
+    int desired =
+        ConsumerAutoscaler.desiredConsumers(
+            40, 0, interval, INTERVAL_NANOS, CircuitBreaker.State.CLOSED, makeLimits());
+
+    // Then
+    assertThat(desired).isEqualTo(30);
+  }
+
+  @Test
+  public void testBacksOffWhenDeliveriesAreFailing() {
+    // Given
+    Totals interval = new Totals(100, 60, 100, INTERVAL_NANOS);
+
+    // When
+    int desired =
+        ConsumerAutoscaler.desiredConsumers(
+            40, 6000, interval, INTERVAL_NANOS, CircuitBreaker.State.CLOSED, makeLimits());
+
+    // Then
+    assertThat(desired).isEqualTo(30);
+  }
+
+  @Test
+  public void testDropsToMinimumWhileCircuitBreakerIsOpen() {
+    // Given
+    Totals interval = new Totals(1000, 0, 1000, 10 * INTERVAL_NANOS);
+
+    // When
+    int desired =
+        ConsumerAutoscaler.desiredConsumers(
+            40, 6000, interval, INTERVAL_NANOS, CircuitBreaker.State.OPEN, makeLimits());
+
+    // Then
+    assertThat(desired).isEqualTo(2);
+  }
+
+  @Test
+  public void testOnlyChangesContainersThatNeedIt() {
+    // Given
+    RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    when(rabbitTemplate.execute(any())).thenReturn(0);
+    SimpleMessageListenerContainer fulfilmentContainer = mock(SimpleMessageListenerContainer.class);
+    SimpleMessageListenerContainer enrichedFulfilmentContainer =
+        mock(SimpleMessageListenerContainer.class);
+    CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+    when(circuitBreaker.getState()).thenReturn(CircuitBreaker.State.CLOSED);
+    AutoscalingProperties autoscalingProperties = new AutoscalingProperties();
+    autoscalingProperties.setFulfilment(makeLimits());
+    Limits enrichedFulfilmentLimits = makeLimits();
+    enrichedFulfilmentLimits.setMinConsumers(8);
+    autoscalingProperties.setEnrichedFulfilment(enrichedFulfilmentLimits);
+
+    ConsumerAutoscaler underTest =
+        new ConsumerAutoscaler(
+            rabbitTemplate,
+            autoscalingProperties,
+            fulfilmentContainer,
+            enrichedFulfilmentContainer,
+            new PipelineProgress("fulfilment", new SimpleMeterRegistry()),
+            new PipelineProgress("enriched_fulfilment", new SimpleMeterRegistry()),
+            circuitBreaker,
+            circuitBreaker,
+            8,
+            DispatchMode.BLOCKING,
+            50,
+            "fulfilment.queue",
+            "enriched.queue",
+            new SimpleMeterRegistry());
+
+    // When both queues are empty and idle
+    underTest.scaleConsumers();
+
+    // Then
+    verify(fulfilmentContainer).setConcurrentConsumers(6);
+    verify(enrichedFulfilmentContainer, never()).setConcurrentConsumers(any(Integer.class));
+  }
+
+  @Test
+  public void testAsyncEnrichedFulfilmentContainerIsNotScaled() {
+    // Given
+    RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    when(rabbitTemplate.execute(any())).thenReturn(0);
+    SimpleMessageListenerContainer fulfilmentContainer = mock(SimpleMessageListenerContainer.class);
+    SimpleMessageListenerContainer enrichedFulfilmentContainer =
+        mock(SimpleMessageListenerContainer.class);
+    CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+    when(circuitBreaker.getState()).thenReturn(CircuitBreaker.State.OPEN);
+    AutoscalingProperties autoscalingProperties = new AutoscalingProperties();
+    autoscalingProperties.setFulfilment(makeLimits());
+    autoscalingProperties.setEnrichedFulfilment(makeLimits());
+
+    ConsumerAutoscaler underTest =
+        new ConsumerAutoscaler(
+            rabbitTemplate,
+            autoscalingProperties,
+            fulfilmentContainer,
+            enrichedFulfilmentContainer,
+            new PipelineProgress("fulfilment", new SimpleMeterRegistry()),
+            new PipelineProgress("enriched_fulfilment", new SimpleMeterRegistry()),
+            circuitBreaker,
+            circuitBreaker,
+            8,
+            DispatchMode.ASYNC,
+            50,
+            "fulfilment.queue",
+            "enriched.queue",
+            new SimpleMeterRegistry());
+
+    // When an open breaker would drop both to their minimum
+    underTest.scaleConsumers();
+
+    // Then
+    verify(fulfilmentContainer).setConcurrentConsumers(2);
+    verify(enrichedFulfilmentContainer, never()).setConcurrentConsumers(any(Integer.class));
+  }
+
+  @Test
+  public void testEnrichedMaxConsumersOverNotifyConcurrencyFailsStartup() {
+    // Given
+    AutoscalingProperties autoscalingProperties = new AutoscalingProperties();
+    autoscalingProperties.setFulfilment(makeLimits());
+    autoscalingProperties.setEnrichedFulfilment(makeLimits());
+
+    // When, then
+    assertThatThrownBy(
+            () ->
+                new ConsumerAutoscaler(
+                    mock(RabbitTemplate.class),
+                    autoscalingProperties,
+                    mock(SimpleMessageListenerContainer.class),
+                    mock(SimpleMessageListenerContainer.class),
+                    new PipelineProgress("fulfilment", new SimpleMeterRegistry()),
+                    new PipelineProgress("enriched_fulfilment", new SimpleMeterRegistry()),
+                    mock(CircuitBreaker.class),
+                    mock(CircuitBreaker.class),
+                    8,
+                    DispatchMode.BLOCKING,
+                    20,
+                    "fulfilment.queue",
+                    "enriched.queue",
+                    new SimpleMeterRegistry()))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("max-concurrency");
+  }
+
+  private Limits makeLimits() {
+    Limits limits = new Limits();
+    limits.setMinConsumers(2);
+    limits.setMaxConsumers(50);
+    limits.setTargetDrainTime(30000);
+    limits.setMaxErrorRate(0.5);
+    return limits;
+  }
+}
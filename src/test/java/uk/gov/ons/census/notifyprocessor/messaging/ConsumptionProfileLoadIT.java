@@ -0,0 +1,158 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+
+/*
+ * Sweeps consumer count, prefetch and ack batch size on a bare SimpleMessageListenerContainer
+ * against the RabbitMQ from the test docker-compose.yml, and reports the messages per second each
+ * combination manages. Only runs when asked for, e.g.
+ *
+ * mvn verify -Dit.test=ConsumptionProfileLoadIT -Dloadtest=true -Dloadtest.work-micros=2000
+ *
+ * This measures the broker side of those settings only. The container isn't the one
+ * MessageConsumerConfig builds: it has no advice chain, retries or publishing, and its listener
+ * just waits for loadtest.work-micros per message to stand in for enriching a fulfilment or sending
+ * an SMS. Treat the results as an upper bound for the real containers. Results are written to
+ * target/consumption-profile-sweep.csv.
+ */
+public class ConsumptionProfileLoadIT {
+  private static final String QUEUE_NAME = "notify.loadtest";
+
+  private final int messageCount = Integer.getInteger("loadtest.messages", 20000);
+  private final long workMicros = Long.getLong("loadtest.work-micros", 0);
+  private final long receiveTimeout = Long.getLong("loadtest.receive-timeout", 100);
+  private final List<Integer> consumerCounts = getSweep("loadtest.consumers", "10,50");
+  private final List<Integer> prefetchCounts = getSweep("loadtest.prefetch", "1,10,50,250");
+  private final List<Integer> ackBatchSizes = getSweep("loadtest.ack-batch-sizes", "1,10,50");
+
+  private CachingConnectionFactory connectionFactory;
+  private RabbitAdmin rabbitAdmin;
+  private RabbitTemplate rabbitTemplate;
+
+  @Before
+  public void setUp() {
+    assumeTrue("Set -Dloadtest=true to run the load test", Boolean.getBoolean("loadtest"));
+
+    connectionFactory = new CachingConnectionFactory("localhost", 35672);
+    connectionFactory.setUsername("guest");
+    connectionFactory.setPassword("guest");
+    connectionFactory.setChannelCacheSize(100);
+    rabbitAdmin = new RabbitAdmin(connectionFactory);
+    rabbitTemplate = new RabbitTemplate(connectionFactory);
+    rabbitAdmin.declareQueue(new Queue(QUEUE_NAME, true));
+  }
+
+  @After
+  public void tearDown() {
+    if (connectionFactory != null) {
+      rabbitAdmin.deleteQueue(QUEUE_NAME);
+      connectionFactory.destroy();
+    }
+  }
+
+  @Test
+  public void sweepConsumptionProfiles() throws Exception {
+    // Warm up the broker and the JVM before anything is measured
+    measure(consumerCounts.get(0), prefetchCounts.get(0), ackBatchSizes.get(0));
+
+    List<String> results = new ArrayList<>();
+    results.add("consumers,prefetch,ack_batch_size,messages_per_second");
+
+    for (int consumers : consumerCounts) {
+      for (int prefetch : prefetchCounts) {
+        for (int ackBatchSize : ackBatchSizes) {
+          double messagesPerSecond = measure(consumers, prefetch, ackBatchSize);
+          results.add(
+              String.format("%d,%d,%d,%.0f", consumers, prefetch, ackBatchSize, messagesPerSecond));
+          System.out.printf(
+              "consumers=%d prefetch=%d ack-batch-size=%d: %.0f messages/second%n",
+              consumers, prefetch, ackBatchSize, messagesPerSecond);
+        }
+      }
+    }
+
+    Path resultsFile = Paths.get("target", "consumption-profile-sweep.csv");
+    Files.write(resultsFile, results, StandardCharsets.UTF_8);
+    assertThat(results)
+        .hasSize(1 + consumerCounts.size() * prefetchCounts.size() * ackBatchSizes.size());
+  }
+
+  private double measure(int consumers, int prefetch, int ackBatchSize)
+      throws InterruptedException {
+    rabbitAdmin.purgeQueue(QUEUE_NAME, false);
+    publishMessages();
+
+    CountDownLatch remaining = new CountDownLatch(messageCount);
+    SimpleMessageListenerContainer container =
+        new SimpleMessageListenerContainer(connectionFactory);
+    container.setQueueNames(QUEUE_NAME);
+    container.setAcknowledgeMode(AcknowledgeMode.AUTO);
+    container.setConcurrentConsumers(consumers);
+    container.setPrefetchCount(prefetch);
+    container.setBatchSize(ackBatchSize);
+    container.setReceiveTimeout(receiveTimeout);
+    container.setMessageListener(
+        message -> {
+          if (workMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(workMicros));
+          }
+          remaining.countDown();
+        });
+
+    long startTime = System.nanoTime();
+    container.start();
+    try {
+      assertThat(remaining.await(10, TimeUnit.MINUTES)).isTrue();
+    } finally {
+      container.stop();
+    }
+
+    double elapsedSeconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1);
+    return messageCount / elapsedSeconds;
+  }
+
+  private void publishMessages() {
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+    byte[] body = "{\"event\":{},\"payload\":{}}".getBytes(StandardCharsets.UTF_8);
+
+    rabbitTemplate.invoke(
+        operations -> {
+          for (int i = 0; i < messageCount; i++) {
+            operations.send("", QUEUE_NAME, new Message(body, messageProperties));
+          }
+          return null;
+        });
+  }
+
+  private static List<Integer> getSweep(String property, String defaultValue) {
+    return Stream.of(System.getProperty(property, defaultValue).split(","))
+        .map(String::trim)
+        .map(Integer::valueOf)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,142 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidTimeoutException;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreakerOpenException;
+
+public class DelayedRequeueRecovererTest {
+  private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+  private final MessageRecoverer delegate = mock(MessageRecoverer.class);
+  private final DelayedRequeueRecoverer underTest =
+      new DelayedRequeueRecoverer(
+          rabbitTemplate,
+          "test.queue",
+          3,
+          new ExponentialJitterBackOffPolicy(1000, 5000, 2.0, 30000),
+          delegate,
+          false,
+          0);
+
+  @Test
+  public void testRetryableFailureIsParkedOnDelayQueue() {
+    // Given
+    Message message = makeMessage(1);
+    RuntimeException failure = new RuntimeException(new UacQidTimeoutException(1));
+
+    // When
+    underTest.recover(message, failure);
+
+    // Then
+    verify(rabbitTemplate).send(eq(""), eq("test.queue.delay.2"), eq(message));
+    verify(delegate, never()).recover(any(), any());
+    MessageProperties messageProperties = message.getMessageProperties();
+    assertThat((Integer) messageProperties.getHeader(DelayedRequeueRecoverer.RETRY_COUNT_HEADER))
+        .isEqualTo(2);
+    assertThat(Long.parseLong(messageProperties.getExpiration())).isBetween(1000L, 2000L);
+    assertThat(messageProperties.getDeliveryMode()).isEqualTo(MessageDeliveryMode.PERSISTENT);
+  }
+
+  @Test
+  public void testExhaustedRetriesGoToDelegate() {
+    // Given
+    Message message = makeMessage(2);
+    RuntimeException failure = new RuntimeException("Unknown");
+
+    // When
+    underTest.recover(message, failure);
+
+    // Then
+    verify(delegate).recover(eq(message), eq(failure));
+    verify(rabbitTemplate, never()).send(anyString(), anyString(), any());
+  }
+
+  @Test
+  public void testNonRetryableFailureGoesStraightToDelegate() {
+    // Given
+    Message message = makeMessage(null);
+    RuntimeException failure = new RuntimeException(new CircuitBreakerOpenException("notify"));
+
+    // When
+    underTest.recover(message, failure);
+
+    // Then
+    verify(delegate).recover(eq(message), eq(failure));
+    verify(rabbitTemplate, never()).send(anyString(), anyString(), any());
+  }
+
+  @Test
+  public void testWithConfirmsReturnsOnceParkedMessageIsConfirmed() {
+    // Given
+    DelayedRequeueRecoverer confirmingRecoverer = makeConfirmingRecoverer(true);
+    Message message = makeMessage(1);
+
+    // When
+    confirmingRecoverer.recover(message, new RuntimeException("Unknown"));
+
+    // Then
+    verify(rabbitTemplate)
+        .send(eq(""), eq("test.queue.delay.2"), eq(message), any(CorrelationData.class));
+    verify(delegate, never()).recover(any(), any());
+  }
+
+  @Test
+  public void testWithConfirmsNackedParkedMessageIsNotRecovered() {
+    // Given
+    DelayedRequeueRecoverer confirmingRecoverer = makeConfirmingRecoverer(false);
+    Message message = makeMessage(1);
+
+    // When, then
+    assertThatThrownBy(() -> confirmingRecoverer.recover(message, new RuntimeException("Unknown")))
+        .isInstanceOf(AmqpException.class)
+        .hasMessageContaining("nacked");
+    verify(delegate, never()).recover(any(), any());
+  }
+
+  private DelayedRequeueRecoverer makeConfirmingRecoverer(boolean ack) {
+    doAnswer(
+            invocation -> {
+              CorrelationData correlationData = invocation.getArgument(3);
+              correlationData.getFuture().set(new Confirm(ack, ack ? null : "test"));
+              return null;
+            })
+        .when(rabbitTemplate)
+        .send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+
+    return new DelayedRequeueRecoverer(
+        rabbitTemplate,
+        "test.queue",
+        3,
+        new ExponentialJitterBackOffPolicy(1000, 5000, 2.0, 30000),
+        delegate,
+        true,
+        1000);
+  }
+
+  private Message makeMessage(Integer retryCount) {
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setReceivedDeliveryMode(MessageDeliveryMode.PERSISTENT);
+    messageProperties.setDeliveryMode(null);
+    if (retryCount != null) {
+      messageProperties.setHeader(DelayedRequeueRecoverer.RETRY_COUNT_HEADER, retryCount);
+    }
+    return new Message(new byte[0], messageProperties);
+  }
+}
@@ -0,0 +1,223 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.client.NotifyRateLimiter;
+import uk.gov.ons.census.notifyprocessor.config.AppConfig;
+import uk.gov.ons.census.notifyprocessor.model.EnrichedFulfilmentRequest;
+import uk.gov.ons.census.notifyprocessor.service.EnrichedFulfilmentRequestService;
+import uk.gov.service.notify.NotificationClient;
+
+public class EnrichedFulfilmentBatchReceiverTest {
+  private static final String SMS_NOTIFY_API_URL = "/v2/notifications/sms";
+  private static final String API_KEY =
+      "dummykey-ffffffff-ffff-ffff-ffff-ffffffffffff-ffffffff-ffff-ffff-ffff-ffffffffffff";
+  private static final String BAD_MOBILE_NUMBER = "07700900999";
+  private static final String SEND_SMS_RESPONSE =
+      "{\"id\":\"740e5834-3a29-46b4-9a6f-16142fde533a\","
+          + "\"reference\":null,"
+          + "\"content\":{\"body\":\"Your code\",\"from_number\":\"ONS\"},"
+          + "\"template\":{\"id\":\"f33517ff-2a88-4f6e-b855-c550268ce08a\",\"version\":1,"
+          + "\"uri\":\"https://api.notifications.service.gov.uk/v2/template/1\"}}";
+  private static final ObjectMapper objectMapper = new AppConfig().objectMapper();
+
+  @Rule public WireMockRule wireMock = new WireMockRule(wireMockConfig().dynamicPort());
+
+  private ExecutorService dispatchExecutor;
+  private EnrichedFulfilmentRequestService enrichedFulfilmentRequestService;
+  private RetryTemplate retryTemplate;
+  private MessageRecoverer messageRecoverer;
+  private Channel channel;
+  private EnrichedFulfilmentBatchReceiver underTest;
+
+  @Before
+  public void setUp() {
+    wireMock.stubFor(
+        post(urlEqualTo(SMS_NOTIFY_API_URL))
+            .willReturn(
+                aResponse()
+                    .withStatus(201)
+                    .withFixedDelay(500)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(SEND_SMS_RESPONSE)));
+    wireMock.stubFor(
+        post(urlEqualTo(SMS_NOTIFY_API_URL))
+            .withRequestBody(containing(BAD_MOBILE_NUMBER))
+            .willReturn(
+                aResponse()
+                    .withStatus(400)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody("{\"errors\":[{\"error\":\"ValidationError\"}]}")));
+
+    enrichedFulfilmentRequestService =
+        new EnrichedFulfilmentRequestService(
+            new NotificationClient(API_KEY, wireMock.baseUrl()),
+            null,
+            new NotifyRateLimiter(new SimpleMeterRegistry(), 1000, 1, 10, 50, 30000),
+            new CircuitBreaker("notify", 10, 30000, new SimpleMeterRegistry()),
+            "testSenderId",
+            new SimpleMeterRegistry());
+    retryTemplate = new RetryTemplate();
+    retryTemplate.setRetryPolicy(new SimpleRetryPolicy(2));
+    dispatchExecutor = Executors.newFixedThreadPool(10);
+    messageRecoverer = mock(MessageRecoverer.class);
+    channel = mock(Channel.class);
+
+    underTest =
+        new EnrichedFulfilmentBatchReceiver(
+            enrichedFulfilmentRequestService,
+            retryTemplate,
+            messageRecoverer,
+            dispatchExecutor,
+            objectMapper);
+  }
+
+  @After
+  public void tearDown() {
+    dispatchExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testBatchIsSentConcurrently() throws Exception {
+    // Given
+    List<Message> messages = new ArrayList<>();
+    for (int i = 1; i <= 10; i++) {
+      messages.add(makeMessage("0770090000" + (i - 1), i));
+    }
+
+    // When
+    long startTime = System.currentTimeMillis();
+    underTest.onMessageBatch(messages, channel);
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    // Then
+    wireMock.verify(10, postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL)));
+    for (int i = 1; i <= 10; i++) {
+      verify(channel).basicAck(eq((long) i), eq(false));
+    }
+
+    // One at a time would take at least 5 seconds
+    assertThat(elapsed).isLessThan(2500);
+  }
+
+  @Test
+  public void testFailedSendIsRecoveredAndOthersAcked() throws Exception {
+    // Given
+    Message goodMessage = makeMessage("07700900001", 1);
+    Message badMessage = makeMessage(BAD_MOBILE_NUMBER, 2);
+    doThrow(new AmqpRejectAndDontRequeueException("DLQ"))
+        .when(messageRecoverer)
+        .recover(eq(badMessage), any());
+
+    // When
+    underTest.onMessageBatch(List.of(goodMessage, badMessage), channel);
+
+    // Then
+    wireMock.verify(
+        2,
+        postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL))
+            .withRequestBody(containing(BAD_MOBILE_NUMBER)));
+    verify(channel).basicAck(eq(1L), eq(false));
+    verify(channel).basicReject(eq(2L), eq(false));
+    verify(channel, never()).basicAck(eq(2L), anyBoolean());
+    verify(channel, never()).basicReject(eq(1L), anyBoolean());
+    verify(messageRecoverer, never()).recover(eq(goodMessage), any());
+  }
+
+  @Test
+  public void testSkippedMessageIsAcked() throws Exception {
+    // Given
+    Message badMessage = makeMessage(BAD_MOBILE_NUMBER, 1);
+
+    // When
+    underTest.onMessageBatch(List.of(badMessage), channel);
+
+    // Then
+    verify(messageRecoverer).recover(eq(badMessage), any());
+    verify(channel).basicAck(eq(1L), eq(false));
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void testUndispatchedMessagesAreRequeuedWhenExecutorRefuses() throws Exception {
+    // Given
+    AtomicInteger dispatched = new AtomicInteger();
+    Executor shuttingDownExecutor =
+        task -> {
+          if (dispatched.incrementAndGet() > 1) {
+            throw new RejectedExecutionException("Shutting down");
+          }
+          dispatchExecutor.execute(task);
+        };
+    underTest =
+        new EnrichedFulfilmentBatchReceiver(
+            enrichedFulfilmentRequestService,
+            retryTemplate,
+            messageRecoverer,
+            shuttingDownExecutor,
+            objectMapper);
+
+    // When
+    underTest.onMessageBatch(
+        List.of(
+            makeMessage("07700900001", 1),
+            makeMessage("07700900002", 2),
+            makeMessage("07700900003", 3)),
+        channel);
+
+    // Then
+    wireMock.verify(1, postRequestedFor(urlEqualTo(SMS_NOTIFY_API_URL)));
+    verify(channel).basicAck(eq(1L), eq(false));
+    verify(channel).basicReject(eq(2L), eq(true));
+    verify(channel).basicReject(eq(3L), eq(true));
+    verify(messageRecoverer, never()).recover(any(), any());
+  }
+
+  private Message makeMessage(String mobileNumber, long deliveryTag) throws Exception {
+    EnrichedFulfilmentRequest enrichedFulfilmentRequest = new EnrichedFulfilmentRequest();
+    enrichedFulfilmentRequest.setTemplateId("f33517ff-2a88-4f6e-b855-c550268ce08a");
+    enrichedFulfilmentRequest.setMobileNumber(mobileNumber);
+    enrichedFulfilmentRequest.setUac("ABCD EFGH JKLM NPQR");
+
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setDeliveryTag(deliveryTag);
+    return new Message(
+        objectMapper.writeValueAsBytes(enrichedFulfilmentRequest), messageProperties);
+  }
+}
@@ -0,0 +1,31 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ExponentialJitterBackOffPolicyTest {
+  private final ExponentialJitterBackOffPolicy underTest =
+      new ExponentialJitterBackOffPolicy(1000, 5000, 2.0, 30000);
+
+  @Test
+  public void testDelayGrowsExponentiallyUpToCap() {
+    assertThat(underTest.getNominalDelay(1, FailureClass.RETRYABLE)).isEqualTo(1000);
+    assertThat(underTest.getNominalDelay(2, FailureClass.RETRYABLE)).isEqualTo(2000);
+    assertThat(underTest.getNominalDelay(3, FailureClass.RETRYABLE)).isEqualTo(4000);
+    assertThat(underTest.getNominalDelay(10, FailureClass.RETRYABLE)).isEqualTo(30000);
+  }
+
+  @Test
+  public void testRateLimitedDelayStartsHigher() {
+    assertThat(underTest.getNominalDelay(1, FailureClass.RATE_LIMITED)).isEqualTo(5000);
+    assertThat(underTest.getNominalDelay(2, FailureClass.RATE_LIMITED)).isEqualTo(10000);
+  }
+
+  @Test
+  public void testDelayIsJitteredWithinHalfOfNominal() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(underTest.getDelay(3, FailureClass.RETRYABLE)).isBetween(2000L, 4000L);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class FailureAnalysisTest {
+
+  @Test
+  public void testValidateJson() {
+    assertThat(FailureAnalysis.validateJson("{\"event\":{\"type\":\"FULFILMENT\"}}".getBytes()))
+        .isEqualTo("Valid JSON");
+    assertThat(FailureAnalysis.validateJson("{\"event\":".getBytes())).startsWith("Invalid JSON");
+    assertThat(FailureAnalysis.validateJson("[1, 2]".getBytes()))
+        .isEqualTo("Invalid JSON: not a JSON object");
+    assertThat(FailureAnalysis.validateJson("{} {}".getBytes()))
+        .isEqualTo("Invalid JSON: content after the end of the object");
+  }
+
+  @Test
+  public void testRootCauseIsFirstFrameOfOurCode() {
+    RuntimeException rootCause = new RuntimeException("Root cause");
+    rootCause.setStackTrace(
+        new StackTraceElement[] {
+          new StackTraceElement("com.example.Library", "call", "Library.java", 10),
+          new StackTraceElement("uk.gov.ons.census.notifyprocessor.Ours", "use", "Ours.java", 20)
+        });
+
+    String actual = FailureAnalysis.findUsefulRootCause(new RuntimeException("Wrapper", rootCause));
+
+    assertThat(actual).isEqualTo("\tat uk.gov.ons.census.notifyprocessor.Ours.use(Ours.java:20)");
+  }
+
+  @Test
+  public void testRootCauseFallsBackToWrapperThenDescription() {
+    RuntimeException rootCause = new RuntimeException("Root cause");
+    rootCause.setStackTrace(
+        new StackTraceElement[] {
+          new StackTraceElement("com.example.Library", "call", "Library.java", 10)
+        });
+
+    assertThat(FailureAnalysis.findUsefulRootCause(new RuntimeException("Wrapper", rootCause)))
+        .contains("at uk.gov.ons.census.notifyprocessor.messaging.FailureAnalysisTest");
+    assertThat(FailureAnalysis.findUsefulRootCause(rootCause))
+        .isEqualTo("java.lang.RuntimeException: Root cause");
+  }
+}
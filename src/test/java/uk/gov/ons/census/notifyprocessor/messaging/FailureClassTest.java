@@ -0,0 +1,76 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import java.io.IOException;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.messaging.MessagingException;
+import uk.gov.ons.census.notifyprocessor.cache.UacQidTimeoutException;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreakerOpenException;
+import uk.gov.ons.census.notifyprocessor.client.NotifyHttpException;
+import uk.gov.service.notify.NotificationClientException;
+
+public class FailureClassTest {
+
+  @Test
+  public void testNotifyClientErrorIsNotRetried() {
+    assertThat(FailureClass.of(wrap(notifyException(400)))).isEqualTo(FailureClass.NON_RETRYABLE);
+    assertThat(FailureClass.of(wrap(notifyException(403)))).isEqualTo(FailureClass.NON_RETRYABLE);
+  }
+
+  @Test
+  public void testNotifyThrottlingIsRateLimited() {
+    assertThat(FailureClass.of(wrap(notifyException(429)))).isEqualTo(FailureClass.RATE_LIMITED);
+  }
+
+  @Test
+  public void testAsyncNotifyFailuresAreClassifiedByStatus() {
+    assertThat(FailureClass.of(wrap(new NotifyHttpException(400, "Bad request"))))
+        .isEqualTo(FailureClass.NON_RETRYABLE);
+    assertThat(FailureClass.of(wrap(new NotifyHttpException(429, "Throttled"))))
+        .isEqualTo(FailureClass.RATE_LIMITED);
+    assertThat(FailureClass.of(wrap(new NotifyHttpException(0, "No response"))))
+        .isEqualTo(FailureClass.RETRYABLE);
+  }
+
+  @Test
+  public void testTransientFailuresAreRetried() {
+    assertThat(FailureClass.of(wrap(notifyException(503)))).isEqualTo(FailureClass.RETRYABLE);
+    assertThat(FailureClass.of(wrap(notifyException(0)))).isEqualTo(FailureClass.RETRYABLE);
+    assertThat(FailureClass.of(wrap(new UacQidTimeoutException(1))))
+        .isEqualTo(FailureClass.RETRYABLE);
+    assertThat(FailureClass.of(wrap(new IOException("Connection reset"))))
+        .isEqualTo(FailureClass.RETRYABLE);
+    assertThat(FailureClass.of(wrap(new RuntimeException("Unknown"))))
+        .isEqualTo(FailureClass.RETRYABLE);
+  }
+
+  @Test
+  public void testUnreadableMessageAndOpenCircuitAreNotRetried() {
+    assertThat(FailureClass.of(wrap(new JsonParseException(null, "Bad JSON"))))
+        .isEqualTo(FailureClass.NON_RETRYABLE);
+    assertThat(FailureClass.of(wrap(new CircuitBreakerOpenException("notify"))))
+        .isEqualTo(FailureClass.NON_RETRYABLE);
+  }
+
+  private NotificationClientException notifyException(int httpResult) {
+    NotificationClientException exception = mock(NotificationClientException.class);
+    when(exception.getHttpResult()).thenReturn(httpResult);
+    return exception;
+  }
+
+  // The same cause chain the listeners see
+  private Throwable wrap(Exception cause) {
+    RuntimeException serviceException = new RuntimeException("Failed", cause);
+    return new ListenerExecutionFailedException(
+        "Listener failed",
+        new MessagingException(serviceException.getMessage(), serviceException),
+        new Message(new byte[0], new MessageProperties()));
+  }
+}
@@ -0,0 +1,154 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jeasy.random.EasyRandom;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import uk.gov.ons.census.notifyprocessor.dto.NotifyApiResponse;
+import uk.gov.ons.census.notifyprocessor.model.Contact;
+import uk.gov.ons.census.notifyprocessor.model.Event;
+import uk.gov.ons.census.notifyprocessor.model.FulfilmentRequest;
+import uk.gov.ons.census.notifyprocessor.model.Payload;
+import uk.gov.ons.census.notifyprocessor.model.ResponseManagementEvent;
+import uk.gov.ons.census.notifyprocessor.model.UacQid;
+import uk.gov.ons.census.notifyprocessor.utilities.RabbitQueueHelper;
+
+/*
+ * One consumer with a long receive timeout, so that the messages sent here arrive as one
+ * transacted batch, with the bad message last.
+ */
+@ContextConfiguration
+@ActiveProfiles("test")
+@SpringBootTest(
+    properties = {
+      "queueconfig.consumers=1",
+      "queueconfig.fulfilment-batch-size=5",
+      "queueconfig.fulfilment-batch-receive-timeout=5000"
+    })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@RunWith(SpringJUnit4ClassRunner.class)
+public class FulfilmentBatchReceiverIT {
+  private static final String CASE_EVENT_EXCHANGE = "events";
+  private static final String MULTIPLE_QIDS_URL = "/multiple_qids";
+  private static final String SMS_NOTIFY_API_URL = "/v2/notifications/sms";
+  private static final String CASE_UAC_QID_CREATED_QUEUE = "case.uac-qid-created";
+  private static final String DELAYED_REDELIVERY_QUEUE = "delayedRedeliveryQueue";
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  static {
+    objectMapper.registerModule(new JavaTimeModule());
+    objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+  }
+
+  @Autowired private RabbitQueueHelper rabbitQueueHelper;
+
+  @Autowired private RabbitTemplate rabbitTemplate;
+
+  @Rule public WireMockRule wireMock = new WireMockRule(wireMockConfig().port(8089));
+
+  @Value("${queueconfig.fulfilment-request-inbound-queue}")
+  private String fulfilmentInboundQueue;
+
+  @Value("${queueconfig.fulfilment-routing-key}")
+  private String caseProcessorFulfilmentRoutingKeyCase;
+
+  @Before
+  public void setUp() {
+    rabbitQueueHelper.purgeQueue(fulfilmentInboundQueue);
+    rabbitQueueHelper.purgeQueue(CASE_UAC_QID_CREATED_QUEUE);
+    rabbitQueueHelper.purgeQueue(DELAYED_REDELIVERY_QUEUE);
+  }
+
+  @Test
+  public void testBadLastMessageIsDeadLetteredAndTheBatchIsCommitted() throws Exception {
+    // Given
+    BlockingQueue<String> uacQidCreatedQueue = rabbitQueueHelper.listen(CASE_UAC_QID_CREATED_QUEUE);
+    BlockingQueue<String> deadLetteredQueue = rabbitQueueHelper.listen(DELAYED_REDELIVERY_QUEUE);
+    stubCreateUacQid(1);
+    stubFor(
+        post(urlEqualTo(SMS_NOTIFY_API_URL))
+            .willReturn(
+                aResponse()
+                    .withStatus(201)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(
+                        objectMapper.writeValueAsString(
+                            new EasyRandom().nextObject(NotifyApiResponse.class)))));
+
+    // When
+    for (int i = 0; i < 4; i++) {
+      rabbitQueueHelper.sendMessage(
+          CASE_EVENT_EXCHANGE, caseProcessorFulfilmentRoutingKeyCase, makeFulfilmentEvent());
+    }
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+    rabbitTemplate.send(
+        CASE_EVENT_EXCHANGE,
+        caseProcessorFulfilmentRoutingKeyCase,
+        new Message("not json".getBytes(StandardCharsets.UTF_8), messageProperties));
+
+    // Then
+    String deadLettered = deadLetteredQueue.poll(20, TimeUnit.SECONDS);
+    assertThat(deadLettered).isEqualTo("not json");
+    for (int i = 0; i < 4; i++) {
+      assertThat(uacQidCreatedQueue.poll(20, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    // A rolled back batch would be redelivered and publish its UAC QIDs again
+    assertThat(uacQidCreatedQueue.poll(5, TimeUnit.SECONDS)).isNull();
+    assertThat(deadLetteredQueue.poll(1, TimeUnit.SECONDS)).isNull();
+  }
+
+  private ResponseManagementEvent makeFulfilmentEvent() {
+    ResponseManagementEvent responseManagementEvent = new ResponseManagementEvent();
+    responseManagementEvent.setEvent(new Event());
+    responseManagementEvent.setPayload(new Payload());
+    responseManagementEvent.getPayload().setFulfilmentRequest(new FulfilmentRequest());
+    responseManagementEvent.getPayload().getFulfilmentRequest().setCaseId(UUID.randomUUID());
+    responseManagementEvent.getPayload().getFulfilmentRequest().setFulfilmentCode("UACHHT1");
+    responseManagementEvent.getPayload().getFulfilmentRequest().setContact(new Contact());
+    responseManagementEvent.getPayload().getFulfilmentRequest().getContact().setTelNo("012345");
+    responseManagementEvent.getEvent().setTransactionId(UUID.randomUUID());
+    responseManagementEvent.getEvent().setChannel("TestChannel");
+    responseManagementEvent.getEvent().setSource("TestSource");
+    return responseManagementEvent;
+  }
+
+  private void stubCreateUacQid(int questionnaireType) throws JsonProcessingException {
+    UacQid uacQid = new EasyRandom().nextObject(UacQid.class);
+    uacQid.setQid(String.format("%02d", questionnaireType) + uacQid.getQid());
+    stubFor(
+        get(urlPathEqualTo(MULTIPLE_QIDS_URL))
+            .withQueryParam("questionnaireType", equalTo(Integer.toString(questionnaireType)))
+            .willReturn(
+                aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(objectMapper.writeValueAsString(new UacQid[] {uacQid}))));
+  }
+}
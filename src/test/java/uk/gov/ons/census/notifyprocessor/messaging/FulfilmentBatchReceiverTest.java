@@ -0,0 +1,125 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import java.util.List;
+import org.jeasy.random.EasyRandom;
+import org.junit.Test;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.census.notifyprocessor.config.AppConfig;
+import uk.gov.ons.census.notifyprocessor.model.ResponseManagementEvent;
+import uk.gov.ons.census.notifyprocessor.service.FulfilmentRequestService;
+import uk.gov.ons.census.notifyprocessor.service.FulfilmentRequestService.Enrichment;
+
+public class FulfilmentBatchReceiverTest {
+  private static final ObjectMapper objectMapper = new AppConfig().objectMapper();
+  private static final String QUEUE_NAME = "notify.fulfilments";
+  private static final String DEAD_LETTER_EXCHANGE = "delayedRedeliveryExchange";
+
+  @Test
+  public void testBadLastMessageIsDeadLetteredInTheBatchTransaction() throws Exception {
+    // Given
+    FulfilmentRequestService fulfilmentRequestService = mock(FulfilmentRequestService.class);
+    MessageRecoverer messageRecoverer = mock(MessageRecoverer.class);
+    Channel channel = mock(Channel.class);
+    RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    RetryTemplate retryTemplate = new RetryTemplate();
+    retryTemplate.setRetryPolicy(new SimpleRetryPolicy(1));
+    FulfilmentBatchReceiver underTest =
+        new FulfilmentBatchReceiver(
+            fulfilmentRequestService,
+            retryTemplate,
+            messageRecoverer,
+            null,
+            rabbitTemplate,
+            QUEUE_NAME,
+            DEAD_LETTER_EXCHANGE,
+            objectMapper);
+
+    Message goodMessage = makeMessage("UACHHT1", 1);
+    Message badMessage = makeMessage("UACHHT2", 2);
+    Enrichment enrichment = new Enrichment(new ResponseManagementEvent(), null);
+    when(fulfilmentRequestService.enrich(any()))
+        .thenAnswer(
+            invocation -> {
+              ResponseManagementEvent event = invocation.getArgument(0);
+              if (event.getPayload().getFulfilmentRequest().getFulfilmentCode().equals("UACHHT2")) {
+                throw new RuntimeException("Bad message");
+              }
+              return enrichment;
+            });
+    doThrow(new AmqpRejectAndDontRequeueException("DLQ"))
+        .when(messageRecoverer)
+        .recover(eq(badMessage), any());
+
+    // When
+    underTest.onMessageBatch(List.of(goodMessage, badMessage), channel);
+
+    // Then
+    verify(fulfilmentRequestService).publish(eq(enrichment));
+    verify(rabbitTemplate).send(eq(DEAD_LETTER_EXCHANGE), eq(QUEUE_NAME), eq(badMessage));
+    verify(rabbitTemplate, never()).send(anyString(), anyString(), eq(goodMessage));
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void testQuarantinedMessageIsNotRejected() throws Exception {
+    // Given
+    FulfilmentRequestService fulfilmentRequestService = mock(FulfilmentRequestService.class);
+    MessageRecoverer messageRecoverer = mock(MessageRecoverer.class);
+    Channel channel = mock(Channel.class);
+    RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    RetryTemplate retryTemplate = new RetryTemplate();
+    retryTemplate.setRetryPolicy(new SimpleRetryPolicy(1));
+    FulfilmentBatchReceiver underTest =
+        new FulfilmentBatchReceiver(
+            fulfilmentRequestService,
+            retryTemplate,
+            messageRecoverer,
+            null,
+            rabbitTemplate,
+            QUEUE_NAME,
+            DEAD_LETTER_EXCHANGE,
+            objectMapper);
+
+    Message badMessage = makeMessage("UACHHT1", 1);
+    when(fulfilmentRequestService.enrich(any())).thenThrow(new RuntimeException("Bad message"));
+
+    // When
+    underTest.onMessageBatch(List.of(badMessage), channel);
+
+    // Then
+    verify(messageRecoverer).recover(eq(badMessage), any());
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+    verify(rabbitTemplate, never()).send(anyString(), anyString(), any(Message.class));
+    verify(fulfilmentRequestService, never()).publish(any());
+  }
+
+  private Message makeMessage(String fulfilmentCode, long deliveryTag) throws Exception {
+    EasyRandom easyRandom = new EasyRandom();
+    ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
+    event.getEvent().setDateTime(null);
+    event.getPayload().getFulfilmentRequest().setFulfilmentCode(fulfilmentCode);
+
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setDeliveryTag(deliveryTag);
+    return new Message(objectMapper.writeValueAsBytes(event), messageProperties);
+  }
+}
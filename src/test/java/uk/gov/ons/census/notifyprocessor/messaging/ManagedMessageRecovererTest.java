@@ -6,16 +6,20 @@ import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.Map;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.ImmediateRequeueAmqpException;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreakerOpenException;
 import uk.gov.ons.census.notifyprocessor.client.ExceptionManagerClient;
 import uk.gov.ons.census.notifyprocessor.model.ExceptionReportResponse;
 import uk.gov.ons.census.notifyprocessor.model.SkippedMessage;
@@ -25,13 +29,21 @@ public class ManagedMessageRecovererTest {
   private static final String MESSAGE_HASH =
       "4f1ec3a5f36117da0e9ba42c2eda77dea47b279358a7b2bb538a51d3e13bd229";
 
+  private final QuarantineIndex quarantineIndex =
+      new QuarantineIndex(100, new SimpleMeterRegistry());
+
   @Test(expected = AmqpRejectAndDontRequeueException.class)
   public void testRecover() {
     // Given
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            quarantineIndex,
+            false,
+            "test service",
+            "test queue",
+            new SimpleMeterRegistry());
 
     Message message = new Message("test message body".getBytes(), new MessageProperties());
     Throwable cause = new Exception(new RuntimeException());
@@ -71,7 +83,12 @@ public class ManagedMessageRecovererTest {
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            quarantineIndex,
+            false,
+            "test service",
+            "test queue",
+            new SimpleMeterRegistry());
 
     Message message = new Message("test message body".getBytes(), new MessageProperties());
     Throwable cause = new Exception(new RuntimeException());
@@ -104,7 +121,12 @@ public class ManagedMessageRecovererTest {
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            quarantineIndex,
+            false,
+            "test service",
+            "test queue",
+            new SimpleMeterRegistry());
 
     MessageProperties messageProperties = new MessageProperties();
     messageProperties.setContentType("test content type");
@@ -145,6 +167,7 @@ public class ManagedMessageRecovererTest {
     assertThat(actualSkippedMessage.getQueue()).isEqualTo("test queue");
     assertThat(actualSkippedMessage.getRoutingKey()).isEqualTo("test received routing key");
     assertThat(actualSkippedMessage.getService()).isEqualTo("test service");
+    assertThat(quarantineIndex.contains(MESSAGE_HASH)).isTrue();
 
     verifyNoMoreInteractions(exceptionManagerClient);
   }
@@ -154,7 +177,12 @@ public class ManagedMessageRecovererTest {
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            quarantineIndex,
+            false,
+            "test service",
+            "test queue",
+            new SimpleMeterRegistry());
 
     MessageProperties messageProperties = new MessageProperties();
     messageProperties.setContentType("test content type");
@@ -193,4 +221,31 @@ public class ManagedMessageRecovererTest {
       throw expectedException;
     }
   }
+
+  @Test(expected = ImmediateRequeueAmqpException.class)
+  public void testOpenCircuitBreakerRequeuesWithoutReporting() {
+    // Given
+    ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
+    ManagedMessageRecoverer underTest =
+        new ManagedMessageRecoverer(
+            exceptionManagerClient,
+            quarantineIndex,
+            false,
+            "test service",
+            "test queue",
+            new SimpleMeterRegistry());
+
+    Message message = new Message("test message body".getBytes(), new MessageProperties());
+    ListenerExecutionFailedException failedException =
+        new ListenerExecutionFailedException(
+            "test error message", new CircuitBreakerOpenException("notify"), message);
+
+    // When
+    try {
+      underTest.recover(message, failedException);
+    } finally {
+      // Then
+      verifyNoInteractions(exceptionManagerClient);
+    }
+  }
 }
@@ -0,0 +1,94 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rabbitmq.client.Channel;
+import java.util.concurrent.atomic.AtomicReference;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+
+public class PublisherConfirmAckAdviceTest {
+
+  @Test
+  public void testAckWhenPublishConfirmed() throws Throwable {
+    // Given
+    PublisherConfirmTracker publisherConfirmTracker = new PublisherConfirmTracker();
+    PublisherConfirmAckAdvice underTest = new PublisherConfirmAckAdvice(publisherConfirmTracker);
+    Channel channel = mock(Channel.class);
+    Message message = makeMessage(42L);
+    AtomicReference<CorrelationData> publish = new AtomicReference<>();
+    MethodInvocation invocation = mock(MethodInvocation.class);
+    when(invocation.getArguments()).thenReturn(new Object[] {channel, message});
+    when(invocation.proceed())
+        .thenAnswer(
+            answer -> {
+              publish.set(publisherConfirmTracker.postProcess(message, null));
+              return null;
+            });
+
+    // When
+    underTest.invoke(invocation);
+
+    // Then
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    publish.get().getFuture().set(new Confirm(true, null));
+    verify(channel).basicAck(eq(42L), eq(false));
+  }
+
+  @Test
+  public void testRequeueWhenListenerFails() throws Throwable {
+    // Given
+    PublisherConfirmTracker publisherConfirmTracker = new PublisherConfirmTracker();
+    PublisherConfirmAckAdvice underTest = new PublisherConfirmAckAdvice(publisherConfirmTracker);
+    Channel channel = mock(Channel.class);
+    MethodInvocation invocation = mock(MethodInvocation.class);
+    when(invocation.getArguments()).thenReturn(new Object[] {channel, makeMessage(42L)});
+    when(invocation.proceed()).thenThrow(new RuntimeException("Could not publish"));
+
+    // When
+    assertThatThrownBy(() -> underTest.invoke(invocation)).hasMessage("Could not publish");
+
+    // Then
+    verify(channel).basicNack(eq(42L), eq(false), eq(true));
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    assertThat(publisherConfirmTracker.stopTracking()).isEmpty();
+  }
+
+  @Test
+  public void testRejectWhenRecovererDeadLetters() throws Throwable {
+    // Given
+    PublisherConfirmAckAdvice underTest =
+        new PublisherConfirmAckAdvice(new PublisherConfirmTracker());
+    Channel channel = mock(Channel.class);
+    MethodInvocation invocation = mock(MethodInvocation.class);
+    when(invocation.getArguments()).thenReturn(new Object[] {channel, makeMessage(42L)});
+    when(invocation.proceed()).thenThrow(new AmqpRejectAndDontRequeueException("DLQ"));
+
+    // When
+    assertThatThrownBy(() -> underTest.invoke(invocation))
+        .isInstanceOf(AmqpRejectAndDontRequeueException.class);
+
+    // Then
+    verify(channel).basicReject(eq(42L), eq(false));
+    verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+  }
+
+  private Message makeMessage(long deliveryTag) {
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setDeliveryTag(deliveryTag);
+    return new Message("test".getBytes(), messageProperties);
+  }
+}
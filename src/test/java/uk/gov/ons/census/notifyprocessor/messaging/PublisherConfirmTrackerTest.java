@@ -0,0 +1,74 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.rabbitmq.client.Channel;
+import java.util.List;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.CorrelationData.Confirm;
+
+public class PublisherConfirmTrackerTest {
+
+  @Test
+  public void testAckOnlyWhenAllPublishesConfirmed() throws Exception {
+    // Given
+    PublisherConfirmTracker underTest = new PublisherConfirmTracker();
+    Channel channel = mock(Channel.class);
+    Message message = new Message("test".getBytes(), new MessageProperties());
+
+    underTest.startTracking();
+    CorrelationData firstPublish = underTest.postProcess(message, null);
+    CorrelationData secondPublish = underTest.postProcess(message, null);
+    List<CorrelationData> confirms = underTest.stopTracking();
+
+    // When
+    underTest.ackWhenConfirmed(channel, 42L, confirms);
+    firstPublish.getFuture().set(new Confirm(true, null));
+
+    // Then
+    assertThat(confirms).containsExactly(firstPublish, secondPublish);
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+    secondPublish.getFuture().set(new Confirm(true, null));
+    verify(channel).basicAck(eq(42L), eq(false));
+  }
+
+  @Test
+  public void testRequeueWhenPublishNacked() throws Exception {
+    // Given
+    PublisherConfirmTracker underTest = new PublisherConfirmTracker();
+    Channel channel = mock(Channel.class);
+    Message message = new Message("test".getBytes(), new MessageProperties());
+
+    underTest.startTracking();
+    CorrelationData firstPublish = underTest.postProcess(message, null);
+    CorrelationData secondPublish = underTest.postProcess(message, null);
+
+    // When
+    underTest.ackWhenConfirmed(channel, 42L, underTest.stopTracking());
+    firstPublish.getFuture().set(new Confirm(false, "nacked"));
+    secondPublish.getFuture().set(new Confirm(true, null));
+
+    // Then
+    verify(channel).basicNack(eq(42L), eq(false), eq(true));
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void testNothingTrackedOutsideOfListener() {
+    PublisherConfirmTracker underTest = new PublisherConfirmTracker();
+    Message message = new Message("test".getBytes(), new MessageProperties());
+
+    assertThat(underTest.postProcess(message, null)).isNull();
+    assertThat(underTest.stopTracking()).isEmpty();
+  }
+}
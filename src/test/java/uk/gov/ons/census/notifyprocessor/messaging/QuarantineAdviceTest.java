@@ -0,0 +1,63 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+public class QuarantineAdviceTest {
+  private final Channel channel = mock(Channel.class);
+  private final MethodInvocation invocation = mock(MethodInvocation.class);
+  private final QuarantineIndex quarantineIndex =
+      new QuarantineIndex(100, new SimpleMeterRegistry());
+
+  @Test
+  public void testQuarantinedMessageSkipsListener() throws Throwable {
+    // Given
+    Message message = makeMessage("bad", 1);
+    quarantineIndex.add(ManagedMessageRecoverer.hashMessage(message.getBody()));
+    when(invocation.getArguments()).thenReturn(new Object[] {channel, message});
+
+    // When
+    new QuarantineAdvice(quarantineIndex, false).invoke(invocation);
+
+    // Then
+    verify(invocation, never()).proceed();
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void testQuarantinedMessagesAreRemovedFromBatchAndAcked() throws Throwable {
+    // Given
+    Message good = makeMessage("good", 1);
+    Message bad = makeMessage("bad", 2);
+    quarantineIndex.add(ManagedMessageRecoverer.hashMessage(bad.getBody()));
+    Object[] arguments = {channel, List.of(good, bad)};
+    when(invocation.getArguments()).thenReturn(arguments);
+
+    // When
+    new QuarantineAdvice(quarantineIndex, true).invoke(invocation);
+
+    // Then
+    verify(invocation).proceed();
+    verify(channel).basicAck(2L, false);
+    assertThat(arguments[1]).isEqualTo(List.of(good));
+  }
+
+  private Message makeMessage(String body, long deliveryTag) {
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setDeliveryTag(deliveryTag);
+    return new Message(body.getBytes(), messageProperties);
+  }
+}
@@ -0,0 +1,41 @@
+package uk.gov.ons.census.notifyprocessor.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.junit.Test;
+
+public class QuarantineIndexTest {
+
+  @Test
+  public void testContainsOnlyAddedHashes() {
+    QuarantineIndex underTest = new QuarantineIndex(100, new SimpleMeterRegistry());
+    String quarantined = ManagedMessageRecoverer.hashMessage("bad".getBytes());
+    underTest.addAll(List.of(quarantined));
+
+    assertThat(underTest.contains(quarantined)).isTrue();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(underTest.contains(ManagedMessageRecoverer.hashMessage(("good" + i).getBytes())))
+          .isFalse();
+    }
+  }
+
+  @Test
+  public void testLeastRecentlySeenHashIsEvicted() {
+    QuarantineIndex underTest = new QuarantineIndex(2, new SimpleMeterRegistry());
+    String first = ManagedMessageRecoverer.hashMessage("first".getBytes());
+    String second = ManagedMessageRecoverer.hashMessage("second".getBytes());
+    String third = ManagedMessageRecoverer.hashMessage("third".getBytes());
+
+    underTest.add(first);
+    underTest.add(second);
+    underTest.contains(first);
+    underTest.add(third);
+
+    assertThat(underTest.size()).isEqualTo(2);
+    assertThat(underTest.contains(first)).isTrue();
+    assertThat(underTest.contains(second)).isFalse();
+    assertThat(underTest.contains(third)).isTrue();
+  }
+}
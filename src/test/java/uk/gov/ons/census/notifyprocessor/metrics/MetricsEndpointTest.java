@@ -0,0 +1,52 @@
+package uk.gov.ons.census.notifyprocessor.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import org.junit.Test;
+
+public class MetricsEndpointTest {
+
+  @Test
+  public void testEndpointServesRegistryScrape() throws Exception {
+    // Given
+    PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    meterRegistry.counter("notify.throttled").increment();
+    Timer.builder("notify.send.sms")
+        .tag("outcome", "success")
+        .register(meterRegistry)
+        .record(Duration.ofMillis(1500));
+    MetricsEndpoint metricsEndpoint =
+        new MetricsEndpoint(meterRegistry, "127.0.0.1", 0, "/metrics");
+    metricsEndpoint.start();
+
+    try {
+      // When
+      HttpResponse<String> response =
+          HttpClient.newHttpClient()
+              .send(
+                  HttpRequest.newBuilder(
+                          URI.create("http://127.0.0.1:" + metricsEndpoint.getPort() + "/metrics"))
+                      .build(),
+                  HttpResponse.BodyHandlers.ofString());
+
+      // Then
+      assertThat(response.statusCode()).isEqualTo(200);
+      assertThat(response.headers().firstValue("Content-Type"))
+          .hasValue("text/plain; version=0.0.4; charset=utf-8");
+      assertThat(response.body())
+          .isEqualTo(meterRegistry.scrape())
+          .contains("notify_throttled_total 1.0\n")
+          .contains("notify_send_sms_seconds_count{outcome=\"success\",} 1.0\n");
+    } finally {
+      metricsEndpoint.stop();
+    }
+  }
+}
@@ -1,26 +1,46 @@
 package uk.gov.ons.census.notifyprocessor.service;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.jeasy.random.EasyRandom;
 import org.junit.Test;
+import uk.gov.ons.census.notifyprocessor.client.AsyncNotifyClient;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreaker.State;
+import uk.gov.ons.census.notifyprocessor.client.CircuitBreakerOpenException;
+import uk.gov.ons.census.notifyprocessor.client.NotifyRateLimiter;
+import uk.gov.ons.census.notifyprocessor.client.NotifyRateLimiter.Outcome;
 import uk.gov.ons.census.notifyprocessor.model.EnrichedFulfilmentRequest;
 import uk.gov.service.notify.NotificationClientApi;
 import uk.gov.service.notify.NotificationClientException;
 
 public class EnrichedFulfilmentRequestServiceTest {
   @Test
-  public void testProcessMessage() throws NotificationClientException {
+  public void testProcessMessage() throws Exception {
     EasyRandom easyRandom = new EasyRandom();
     NotificationClientApi notificationClientApi = mock(NotificationClientApi.class);
+    NotifyRateLimiter notifyRateLimiter = mock(NotifyRateLimiter.class);
     EnrichedFulfilmentRequestService underTest =
-        new EnrichedFulfilmentRequestService(notificationClientApi, "testSenderId");
+        new EnrichedFulfilmentRequestService(
+            notificationClientApi,
+            null,
+            notifyRateLimiter,
+            new CircuitBreaker("notify", 10, 30000, new SimpleMeterRegistry()),
+            "testSenderId",
+            new SimpleMeterRegistry());
 
     EnrichedFulfilmentRequest enrichedFulfilmentRequest =
         easyRandom.nextObject(EnrichedFulfilmentRequest.class);
@@ -35,14 +55,23 @@ public class EnrichedFulfilmentRequestServiceTest {
             eq(testMap),
             anyString(),
             eq("testSenderId"));
+    verify(notifyRateLimiter).acquire();
+    verify(notifyRateLimiter).release(eq(Outcome.SUCCESS));
   }
 
   @Test(expected = RuntimeException.class)
   public void testProcessMessageNotifyApiServiceFails() throws NotificationClientException {
     EasyRandom easyRandom = new EasyRandom();
     NotificationClientApi notificationClientApi = mock(NotificationClientApi.class);
+    NotifyRateLimiter notifyRateLimiter = mock(NotifyRateLimiter.class);
     EnrichedFulfilmentRequestService underTest =
-        new EnrichedFulfilmentRequestService(notificationClientApi, "testSenderId");
+        new EnrichedFulfilmentRequestService(
+            notificationClientApi,
+            null,
+            notifyRateLimiter,
+            new CircuitBreaker("notify", 10, 30000, new SimpleMeterRegistry()),
+            "testSenderId",
+            new SimpleMeterRegistry());
     when(notificationClientApi.sendSms(
             anyString(), anyString(), anyMap(), anyString(), anyString()))
         .thenThrow(NotificationClientException.class);
@@ -51,4 +80,117 @@ public class EnrichedFulfilmentRequestServiceTest {
 
     underTest.processMessage(enrichedFulfilmentRequest);
   }
+
+  @Test
+  public void testRateLimitedSendIsReportedAsThrottled() throws Exception {
+    EasyRandom easyRandom = new EasyRandom();
+    NotificationClientApi notificationClientApi = mock(NotificationClientApi.class);
+    NotifyRateLimiter notifyRateLimiter = mock(NotifyRateLimiter.class);
+    EnrichedFulfilmentRequestService underTest =
+        new EnrichedFulfilmentRequestService(
+            notificationClientApi,
+            null,
+            notifyRateLimiter,
+            new CircuitBreaker("notify", 10, 30000, new SimpleMeterRegistry()),
+            "testSenderId",
+            new SimpleMeterRegistry());
+    NotificationClientException rateLimitException = mock(NotificationClientException.class);
+    when(rateLimitException.getHttpResult()).thenReturn(429);
+    when(notificationClientApi.sendSms(
+            anyString(), anyString(), anyMap(), anyString(), anyString()))
+        .thenThrow(rateLimitException);
+    EnrichedFulfilmentRequest enrichedFulfilmentRequest =
+        easyRandom.nextObject(EnrichedFulfilmentRequest.class);
+
+    assertThatThrownBy(() -> underTest.processMessage(enrichedFulfilmentRequest))
+        .isInstanceOf(RuntimeException.class)
+        .hasMessageContaining("status code 429");
+    verify(notifyRateLimiter).release(eq(Outcome.THROTTLED));
+  }
+
+  @Test
+  public void testOpenCircuitBreakerStopsSends() throws Exception {
+    EasyRandom easyRandom = new EasyRandom();
+    NotificationClientApi notificationClientApi = mock(NotificationClientApi.class);
+    NotifyRateLimiter notifyRateLimiter = mock(NotifyRateLimiter.class);
+    CircuitBreaker circuitBreaker =
+        new CircuitBreaker("notify", 1, 30000, new SimpleMeterRegistry());
+    EnrichedFulfilmentRequestService underTest =
+        new EnrichedFulfilmentRequestService(
+            notificationClientApi,
+            null,
+            notifyRateLimiter,
+            circuitBreaker,
+            "testSenderId",
+            new SimpleMeterRegistry());
+    circuitBreaker.recordFailure();
+    EnrichedFulfilmentRequest enrichedFulfilmentRequest =
+        easyRandom.nextObject(EnrichedFulfilmentRequest.class);
+
+    assertThatThrownBy(() -> underTest.processMessage(enrichedFulfilmentRequest))
+        .isInstanceOf(CircuitBreakerOpenException.class);
+    verifyNoInteractions(notificationClientApi);
+    verify(notifyRateLimiter).release(eq(Outcome.FAILED));
+  }
+
+  @Test
+  public void testAsyncSendThatFailsBeforeStartingIsRecorded() {
+    // Given
+    EasyRandom easyRandom = new EasyRandom();
+    AsyncNotifyClient asyncNotifyClient = mock(AsyncNotifyClient.class);
+    NotifyRateLimiter notifyRateLimiter = mock(NotifyRateLimiter.class);
+    CircuitBreaker circuitBreaker =
+        new CircuitBreaker("notify", 1, 30000, new SimpleMeterRegistry());
+    EnrichedFulfilmentRequestService underTest =
+        new EnrichedFulfilmentRequestService(
+            null,
+            asyncNotifyClient,
+            notifyRateLimiter,
+            circuitBreaker,
+            "testSenderId",
+            new SimpleMeterRegistry());
+    when(notifyRateLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null));
+    when(asyncNotifyClient.sendSms(anyString(), anyString(), anyMap(), anyString(), anyString()))
+        .thenThrow(new IllegalStateException("HmacSHA256 is not available"));
+    EnrichedFulfilmentRequest enrichedFulfilmentRequest =
+        easyRandom.nextObject(EnrichedFulfilmentRequest.class);
+
+    // When
+    CompletableFuture<Void> send = underTest.processMessageAsync(enrichedFulfilmentRequest);
+
+    // Then
+    assertThat(send).isCompletedExceptionally();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    verify(notifyRateLimiter).release(eq(Outcome.FAILED));
+  }
+
+  @Test
+  public void testAsyncSendRefusedByOpenBreakerIsNotRecorded() {
+    // Given
+    EasyRandom easyRandom = new EasyRandom();
+    AsyncNotifyClient asyncNotifyClient = mock(AsyncNotifyClient.class);
+    NotifyRateLimiter notifyRateLimiter = mock(NotifyRateLimiter.class);
+    CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+    EnrichedFulfilmentRequestService underTest =
+        new EnrichedFulfilmentRequestService(
+            null,
+            asyncNotifyClient,
+            notifyRateLimiter,
+            circuitBreaker,
+            "testSenderId",
+            new SimpleMeterRegistry());
+    when(notifyRateLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null));
+    doThrow(new CircuitBreakerOpenException("notify")).when(circuitBreaker).checkPermission();
+    EnrichedFulfilmentRequest enrichedFulfilmentRequest =
+        easyRandom.nextObject(EnrichedFulfilmentRequest.class);
+
+    // When
+    CompletableFuture<Void> send = underTest.processMessageAsync(enrichedFulfilmentRequest);
+
+    // Then
+    assertThat(send).isCompletedExceptionally();
+    verifyNoInteractions(asyncNotifyClient);
+    verify(circuitBreaker, never()).recordFailure();
+    verify(notifyRateLimiter).release(eq(Outcome.FAILED));
+  }
 }
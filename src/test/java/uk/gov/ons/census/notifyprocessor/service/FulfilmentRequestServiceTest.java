@@ -9,6 +9,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.UUID;
 import org.jeasy.random.EasyRandom;
 import org.junit.Test;
@@ -17,7 +18,7 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import uk.gov.ons.census.notifyprocessor.cache.UacQidCache;
 import uk.gov.ons.census.notifyprocessor.model.*;
 import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper;
-import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper.Tuple;
+import uk.gov.ons.census.notifyprocessor.utilities.TemplateRoute;
 
 public class FulfilmentRequestServiceTest {
 
@@ -35,10 +36,16 @@ public class FulfilmentRequestServiceTest {
     TemplateMapper templateMapper = mock(TemplateMapper.class);
     RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
     when(uacQidCache.getUacQidPair(anyInt())).thenReturn(uacQid);
-    when(templateMapper.getTemplate(anyString())).thenReturn(new Tuple(1, "testTemplate"));
+    when(templateMapper.getTemplate(anyString()))
+        .thenReturn(new TemplateRoute(1, "testTemplate", false));
     FulfilmentRequestService underTest =
         new FulfilmentRequestService(
-            uacQidCache, templateMapper, rabbitTemplate, "testExchange", "testOtherExchange");
+            uacQidCache,
+            templateMapper,
+            rabbitTemplate,
+            "testExchange",
+            "testOtherExchange",
+            new SimpleMeterRegistry());
 
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("UACHHT1");
@@ -87,10 +94,16 @@ public class FulfilmentRequestServiceTest {
     TemplateMapper templateMapper = mock(TemplateMapper.class);
     RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
     when(uacQidCache.getUacQidPair(anyInt())).thenReturn(uacQid);
-    when(templateMapper.getTemplate(anyString())).thenReturn(new Tuple(1, "testTemplate"));
+    when(templateMapper.getTemplate(anyString()))
+        .thenReturn(new TemplateRoute(1, "testTemplate", true));
     FulfilmentRequestService underTest =
         new FulfilmentRequestService(
-            uacQidCache, templateMapper, rabbitTemplate, "testExchange", "testOtherExchange");
+            uacQidCache,
+            templateMapper,
+            rabbitTemplate,
+            "testExchange",
+            "testOtherExchange",
+            new SimpleMeterRegistry());
 
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("UACIT1");
@@ -122,10 +135,16 @@ public class FulfilmentRequestServiceTest {
     TemplateMapper templateMapper = mock(TemplateMapper.class);
     RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
     when(uacQidCache.getUacQidPair(anyInt())).thenReturn(uacQid);
-    when(templateMapper.getTemplate(anyString())).thenReturn(new Tuple(1, "testTemplate"));
+    when(templateMapper.getTemplate(anyString()))
+        .thenReturn(new TemplateRoute(1, "testTemplate", true));
     FulfilmentRequestService underTest =
         new FulfilmentRequestService(
-            uacQidCache, templateMapper, rabbitTemplate, "testExchange", "testOtherExchange");
+            uacQidCache,
+            templateMapper,
+            rabbitTemplate,
+            "testExchange",
+            "testOtherExchange",
+            new SimpleMeterRegistry());
 
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("UACIT1");
@@ -157,11 +176,17 @@ public class FulfilmentRequestServiceTest {
     UacQidCache uacQidCache = mock(UacQidCache.class);
     RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
     TemplateMapper templateMapper = mock(TemplateMapper.class);
-    when(templateMapper.getTemplate(anyString())).thenReturn(new Tuple(1, "testTemplate"));
+    when(templateMapper.getTemplate(anyString()))
+        .thenReturn(new TemplateRoute(1, "testTemplate", false));
     when(uacQidCache.getUacQidPair(anyInt())).thenThrow(RuntimeException.class);
     FulfilmentRequestService underTest =
         new FulfilmentRequestService(
-            uacQidCache, templateMapper, rabbitTemplate, "testExchange", "testOtherExchange");
+            uacQidCache,
+            templateMapper,
+            rabbitTemplate,
+            "testExchange",
+            "testOtherExchange",
+            new SimpleMeterRegistry());
 
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("UACHHT1");
@@ -184,7 +209,12 @@ public class FulfilmentRequestServiceTest {
     RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
     FulfilmentRequestService underTest =
         new FulfilmentRequestService(
-            uacQidCache, templateMapper, rabbitTemplate, "testExchange", "testOtherExchange");
+            uacQidCache,
+            templateMapper,
+            rabbitTemplate,
+            "testExchange",
+            "testOtherExchange",
+            new SimpleMeterRegistry());
 
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("Wibble");
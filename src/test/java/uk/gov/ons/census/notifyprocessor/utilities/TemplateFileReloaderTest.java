@@ -0,0 +1,105 @@
+package uk.gov.ons.census.notifyprocessor.utilities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties.Template;
+
+public class TemplateFileReloaderTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private MeterRegistry meterRegistry;
+  private TemplateMapper templateMapper;
+  private Path templatesFile;
+  private TemplateFileReloader underTest;
+
+  @Before
+  public void setUp() {
+    Template template = new Template();
+    template.setQuestionnaireType(1);
+    template.setTemplateId("original-template");
+    NotifyTemplateProperties properties = new NotifyTemplateProperties();
+    properties.getTemplates().put("UACHHT1", template);
+
+    meterRegistry = new SimpleMeterRegistry();
+    templateMapper = new TemplateMapper(properties);
+    templatesFile = temporaryFolder.getRoot().toPath().resolve("templates.yml");
+    underTest = new TemplateFileReloader(templateMapper, meterRegistry, templatesFile.toString());
+  }
+
+  @Test
+  public void testChangedFileIsReloaded() throws Exception {
+    // Given
+    writeTemplatesFile(
+        "notify:\n"
+            + "  templates:\n"
+            + "    UACHHT1:\n"
+            + "      questionnaire-type: 1\n"
+            + "      template-id: changed-template\n"
+            + "    UACNEW1:\n"
+            + "      questionnaire-type: 41\n"
+            + "      template-id: new-template\n"
+            + "      individual: true\n",
+        1000);
+
+    // When
+    underTest.checkTemplatesFile();
+
+    // Then
+    assertThat(templateMapper.getVersion()).isEqualTo(2);
+    assertThat(templateMapper.getTemplate("UACHHT1").getTemplateId()).isEqualTo("changed-template");
+    assertThat(templateMapper.getTemplate("UACNEW1"))
+        .isEqualTo(new TemplateRoute(41, "new-template", true));
+    assertThat(templateMapper.getQuestionnaireTypes()).containsExactlyInAnyOrder(1, 41);
+    assertThat(meterRegistry.get("notify.templates.version").gauge().value()).isEqualTo(2);
+
+    // And an unchanged file is not reloaded again
+    underTest.checkTemplatesFile();
+    assertThat(templateMapper.getVersion()).isEqualTo(2);
+  }
+
+  @Test
+  public void testInvalidFileKeepsCurrentTemplates() throws Exception {
+    // Given
+    writeTemplatesFile(
+        "notify:\n" + "  templates:\n" + "    UACHHT1:\n" + "      questionnaire-type: 1\n", 1000);
+
+    // When
+    underTest.checkTemplatesFile();
+
+    // Then
+    assertThat(templateMapper.getVersion()).isEqualTo(1);
+    assertThat(templateMapper.getTemplate("UACHHT1").getTemplateId())
+        .isEqualTo("original-template");
+    assertThat(
+            meterRegistry
+                .get("notify.templates.reloads")
+                .tag("outcome", "failure")
+                .counter()
+                .count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testMissingFileIsIgnored() {
+    // When
+    underTest.checkTemplatesFile();
+
+    // Then
+    assertThat(templateMapper.getVersion()).isEqualTo(1);
+  }
+
+  private void writeTemplatesFile(String contents, long modifiedMillis) throws Exception {
+    Files.writeString(templatesFile, contents);
+    Files.setLastModifiedTime(templatesFile, FileTime.fromMillis(modifiedMillis));
+  }
+}
@@ -1,9 +1,11 @@
 package uk.gov.ons.census.notifyprocessor.utilities;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.Set;
 import org.junit.Test;
-import uk.gov.ons.census.notifyprocessor.utilities.TemplateMapper.Tuple;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties;
+import uk.gov.ons.census.notifyprocessor.config.NotifyTemplateProperties.Template;
 
 public class TemplateMapperTest {
   private static final int HOUSEHOLD_ENGLAND = 1;
@@ -20,50 +22,107 @@ public class TemplateMapperTest {
 
   @Test
   public void testGetTemplate() {
+    NotifyTemplateProperties properties = new NotifyTemplateProperties();
+    addTemplate(properties, "UACHHT1", HOUSEHOLD_ENGLAND, false);
+    addTemplate(properties, "UACHHT2", HOUSEHOLD_WALES, false);
+    addTemplate(properties, "UACHHT2W", HOUSEHOLD_WALES_IN_WELSH, false);
+    addTemplate(properties, "UACHHT4", HOUSEHOLD_NI, false);
+    addTemplate(properties, "UACIT1", INDIVIDUAL_RESPONSE_ENGLAND, true);
+    addTemplate(properties, "UACIT2", INDIVIDUAL_RESPONSE_WALES, true);
+    addTemplate(properties, "UACIT2W", INDIVIDUAL_RESPONSE_WALES_IN_WELSH, true);
+    addTemplate(properties, "UACIT4", INDIVIDUAL_RESPONSE_NI, true);
+    addTemplate(properties, "UACCET1", CE_ENGLAND, false);
+    addTemplate(properties, "UACCET2", CE_WALES, false);
+    addTemplate(properties, "UACCET2W", CE_WALES_IN_WELSH, false);
+    addTemplate(properties, "UACITA1", INDIVIDUAL_RESPONSE_ENGLAND, true);
+    addTemplate(properties, "UACITA2B", INDIVIDUAL_RESPONSE_WALES, true);
+    addTemplate(properties, "UACITA4", INDIVIDUAL_RESPONSE_NI, true);
 
-    TemplateMapper underTest =
-        new TemplateMapper(
-            "UACHHT1",
-            "UACHHT2W",
-            "UACHHT2",
-            "UACHHT4",
-            "UACIT1",
-            "UACIT2W",
-            "UACIT2",
-            "UACIT4",
-            "UACCET1",
-            "UACCET2W",
-            "UACCET2",
-            "UACITA1",
-            "UACITA2B",
-            "UACITA4");
-
-    testTemplate(underTest, "UACHHT1", HOUSEHOLD_ENGLAND, "UACHHT1");
-    testTemplate(underTest, "UACHHT2", HOUSEHOLD_WALES, "UACHHT2");
-    testTemplate(underTest, "UACHHT2W", HOUSEHOLD_WALES_IN_WELSH, "UACHHT2W");
-    testTemplate(underTest, "UACHHT4", HOUSEHOLD_NI, "UACHHT4");
-    testTemplate(underTest, "UACIT1", INDIVIDUAL_RESPONSE_ENGLAND, "UACIT1");
-    testTemplate(underTest, "UACIT2", INDIVIDUAL_RESPONSE_WALES, "UACIT2");
-    testTemplate(underTest, "UACIT2W", INDIVIDUAL_RESPONSE_WALES_IN_WELSH, "UACIT2W");
-    testTemplate(underTest, "UACIT4", INDIVIDUAL_RESPONSE_NI, "UACIT4");
-    testTemplate(underTest, "UACCET1", CE_ENGLAND, "UACCET1");
-    testTemplate(underTest, "UACCET2", CE_WALES, "UACCET2");
-    testTemplate(underTest, "UACCET2W", CE_WALES_IN_WELSH, "UACCET2W");
-    testTemplate(underTest, "UACITA1", INDIVIDUAL_RESPONSE_ENGLAND, "UACITA1");
-    testTemplate(underTest, "UACITA2B", INDIVIDUAL_RESPONSE_WALES, "UACITA2B");
-    testTemplate(underTest, "UACITA4", INDIVIDUAL_RESPONSE_NI, "UACITA4");
+    TemplateMapper underTest = new TemplateMapper(properties);
+
+    testTemplate(underTest, "UACHHT1", HOUSEHOLD_ENGLAND, false);
+    testTemplate(underTest, "UACHHT2", HOUSEHOLD_WALES, false);
+    testTemplate(underTest, "UACHHT2W", HOUSEHOLD_WALES_IN_WELSH, false);
+    testTemplate(underTest, "UACHHT4", HOUSEHOLD_NI, false);
+    testTemplate(underTest, "UACIT1", INDIVIDUAL_RESPONSE_ENGLAND, true);
+    testTemplate(underTest, "UACIT2", INDIVIDUAL_RESPONSE_WALES, true);
+    testTemplate(underTest, "UACIT2W", INDIVIDUAL_RESPONSE_WALES_IN_WELSH, true);
+    testTemplate(underTest, "UACIT4", INDIVIDUAL_RESPONSE_NI, true);
+    testTemplate(underTest, "UACCET1", CE_ENGLAND, false);
+    testTemplate(underTest, "UACCET2", CE_WALES, false);
+    testTemplate(underTest, "UACCET2W", CE_WALES_IN_WELSH, false);
+    testTemplate(underTest, "UACITA1", INDIVIDUAL_RESPONSE_ENGLAND, true);
+    testTemplate(underTest, "UACITA2B", INDIVIDUAL_RESPONSE_WALES, true);
+    testTemplate(underTest, "UACITA4", INDIVIDUAL_RESPONSE_NI, true);
 
     assertThat(underTest.getTemplate("Wibble")).isNull();
+    assertThat(underTest.getQuestionnaireTypes())
+        .isEqualTo(
+            Set.of(
+                HOUSEHOLD_ENGLAND,
+                HOUSEHOLD_WALES,
+                HOUSEHOLD_WALES_IN_WELSH,
+                HOUSEHOLD_NI,
+                INDIVIDUAL_RESPONSE_ENGLAND,
+                INDIVIDUAL_RESPONSE_WALES,
+                INDIVIDUAL_RESPONSE_WALES_IN_WELSH,
+                INDIVIDUAL_RESPONSE_NI,
+                CE_ENGLAND,
+                CE_WALES,
+                CE_WALES_IN_WELSH));
+  }
+
+  @Test
+  public void testRouteIsSharedBetweenLookups() {
+    NotifyTemplateProperties properties = new NotifyTemplateProperties();
+    addTemplate(properties, "UACHHT1", HOUSEHOLD_ENGLAND, false);
+
+    TemplateMapper underTest = new TemplateMapper(properties);
+
+    assertThat(underTest.getTemplate("UACHHT1")).isSameAs(underTest.getTemplate("UACHHT1"));
+  }
+
+  @Test
+  public void testCodeFromEnvironmentIsUpperCased() {
+    NotifyTemplateProperties properties = new NotifyTemplateProperties();
+    addTemplate(properties, "uacnew1", HOUSEHOLD_ENGLAND, false);
+
+    TemplateMapper underTest = new TemplateMapper(properties);
+
+    testTemplate(underTest, "UACNEW1", HOUSEHOLD_ENGLAND, false);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testTemplateWithoutTemplateIdIsRejected() {
+    NotifyTemplateProperties properties = new NotifyTemplateProperties();
+    Template template = new Template();
+    template.setQuestionnaireType(HOUSEHOLD_ENGLAND);
+    properties.getTemplates().put("UACHHT1", template);
+
+    new TemplateMapper(properties);
+  }
+
+  private void addTemplate(
+      NotifyTemplateProperties properties,
+      String fulfilmentCode,
+      int questionnaireType,
+      boolean individual) {
+    Template template = new Template();
+    template.setQuestionnaireType(questionnaireType);
+    template.setTemplateId(fulfilmentCode.toUpperCase() + "-template");
+    template.setIndividual(individual);
+    properties.getTemplates().put(fulfilmentCode, template);
   }
 
   private void testTemplate(
       TemplateMapper underTest,
       String fulfilmentCode,
       int expectedQuestionnaireType,
-      String expectedTemplate) {
-    Tuple actualResult = underTest.getTemplate(fulfilmentCode);
+      boolean expectedIndividual) {
+    TemplateRoute actualResult = underTest.getTemplate(fulfilmentCode);
 
-    assertThat(actualResult.getTemplateId()).isEqualTo(expectedTemplate);
+    assertThat(actualResult.getTemplateId()).isEqualTo(fulfilmentCode + "-template");
     assertThat(actualResult.getQuestionnaireType()).isEqualTo(expectedQuestionnaireType);
+    assertThat(actualResult.isIndividual()).isEqualTo(expectedIndividual);
   }
 }